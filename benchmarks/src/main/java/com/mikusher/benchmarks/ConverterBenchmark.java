@@ -0,0 +1,71 @@
+package com.mikusher.benchmarks;
+
+import com.mikusher.error.IncorrectTypeException;
+import com.mikusher.parameter.ParameterTypes;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversions performed by <code>ParameterTypes.cast</code> on every typed getter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConverterBenchmark {
+
+    private Object intValue = 12345;
+    private Object longValue = 12345L;
+    private Object stringInt = "12345";
+    private Object doubleValue = 12345.5d;
+    private Object decimalValue = new BigDecimal("12345.67");
+    private Object dateValue = new Date(1_600_000_000_000L);
+    private Object stringDate = "20200913122640";
+
+    @Benchmark
+    public Object intToInt() throws IncorrectTypeException {
+
+        return ParameterTypes.Integer.cast(intValue);
+    }
+
+    @Benchmark
+    public Object longToInt() throws IncorrectTypeException {
+
+        return ParameterTypes.Integer.cast(longValue);
+    }
+
+    @Benchmark
+    public Object stringToInt() throws IncorrectTypeException {
+
+        return ParameterTypes.Integer.cast(stringInt);
+    }
+
+    @Benchmark
+    public Object doubleToString() throws IncorrectTypeException {
+
+        return ParameterTypes.String.cast(doubleValue);
+    }
+
+    @Benchmark
+    public Object decimalToString() throws IncorrectTypeException {
+
+        return ParameterTypes.String.cast(decimalValue);
+    }
+
+    @Benchmark
+    public Object dateToString() throws IncorrectTypeException {
+
+        return ParameterTypes.String.cast(dateValue);
+    }
+
+    @Benchmark
+    public Object stringToDate() throws IncorrectTypeException {
+
+        return ParameterTypes.Date.cast(stringDate);
+    }
+}
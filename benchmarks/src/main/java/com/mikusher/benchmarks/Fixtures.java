@@ -0,0 +1,141 @@
+package com.mikusher.benchmarks;
+
+import com.mikusher.formats.StreamedPMapParser;
+import com.mikusher.formats.StreamedPMapParser.SerializationType;
+import com.mikusher.parameter.ParameterMap;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Builds the data sets shared by the benchmarks. Every fixture is deterministic so results can be compared
+ * between releases.
+ */
+public final class Fixtures {
+
+    private static final long BASE_DATE = 1_600_000_000_000L;
+
+
+    private Fixtures() {
+
+    }
+
+    /**
+     * A single level map holding <code>size</code> entries of every simple type.
+     */
+    public static ParameterMap flatMap(int size) {
+
+        ParameterMap map = new ParameterMap(size);
+        for (int i = 0; i < size; i++) {
+            map.put("key" + i, simpleValue(i));
+        }
+        return map;
+    }
+
+    /**
+     * A tree of nested maps where every inner node holds <code>breadth</code> children and a few simple values.
+     */
+    public static ParameterMap deepTree(int depth, int breadth) {
+
+        ParameterMap map = flatMap(4);
+        if (depth > 0) {
+            for (int i = 0; i < breadth; i++) {
+                map.put("child" + i, deepTree(depth - 1, breadth));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * A map holding a list of <code>size</code> records under the <code>records</code> key.
+     */
+    public static ParameterMap longArray(int size) {
+
+        List<Object> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            records.add(record(i));
+        }
+
+        ParameterMap map = new ParameterMap();
+        map.put("records", records);
+        return map;
+    }
+
+    /**
+     * A typical record: a handful of simple values, a nested map and a short list.
+     */
+    public static ParameterMap record(int id) {
+
+        ParameterMap address = new ParameterMap();
+        address.put("street", "Street number " + id);
+        address.put("zip", 1000 + id % 9000);
+        address.put("country", "PT");
+
+        List<Object> tags = new ArrayList<>(3);
+        tags.add("tag" + id % 7);
+        tags.add("tag" + id % 11);
+        tags.add(id % 13);
+
+        ParameterMap record = new ParameterMap();
+        record.put("id", id);
+        record.put("uuid", "0000-" + Integer.toHexString(id * 31));
+        record.put("name", "Name & <Surname> " + id);
+        record.put("active", id % 2 == 0);
+        record.put("score", id * 1.5d);
+        record.put("ratio", id / 3f);
+        record.put("counter", id * 1_000_000L);
+        record.put("price", BigDecimal.valueOf(id, 2));
+        record.put("created", new Date(BASE_DATE + id * 1000L));
+        record.put("missing", null);
+        record.put("address", address);
+        record.put("tags", tags);
+        return record;
+    }
+
+    /**
+     * A document made of records whose serialized form in the given format is at least <code>bytes</code> long.
+     */
+    public static ParameterMap document(int bytes, SerializationType type) throws XMLStreamException, IOException {
+
+        StreamedPMapParser parser = StreamedPMapParser.getInstance();
+        int recordSize = parser.PMAPtoByteArray(longArray(16), type).length / 16;
+        return longArray(Math.max(1, bytes / recordSize + 1));
+    }
+
+    /**
+     * Parses sizes such as <code>1KB</code>, <code>64KB</code> or <code>50MB</code>.
+     */
+    public static int parseSize(String size) {
+
+        String value = size.trim().toUpperCase();
+        if (value.endsWith("MB")) {
+            return Integer.parseInt(value.substring(0, value.length() - 2)) * 1024 * 1024;
+        }
+        if (value.endsWith("KB")) {
+            return Integer.parseInt(value.substring(0, value.length() - 2)) * 1024;
+        }
+        return Integer.parseInt(value);
+    }
+
+    private static Object simpleValue(int i) {
+
+        switch (i % 6) {
+            case 0:
+                return "value" + i;
+            case 1:
+                return i;
+            case 2:
+                return (long) i << 20;
+            case 3:
+                return i * 0.25d;
+            case 4:
+                return i % 3 == 0;
+            default:
+                return new Date(BASE_DATE + i);
+        }
+    }
+}
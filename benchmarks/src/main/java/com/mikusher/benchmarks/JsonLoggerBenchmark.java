@@ -0,0 +1,113 @@
+package com.mikusher.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.mikusher.logger.CallerInfo;
+import com.mikusher.logger.factory.Logger;
+import com.mikusher.logger.tracker.InfoLogger;
+import com.mikusher.parameter.ParameterMap;
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.helpers.NOPLogger;
+import org.slf4j.helpers.SubstituteLogger;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building and formatting a JSON log event, without any appender involved. The <code>log*</code> benchmarks
+ * go through {@link Logger} to an slf4j logger that drops the output, with and without reused builders; the
+ * <code>gc.alloc.rate.norm</code> of the GC profiler shows the bytes allocated per event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonLoggerBenchmark {
+
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().enableComplexMapKeySerialization().serializeNulls().create();
+    private final FastDateFormat formatter = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss.SSSZ");
+
+    private final Logger pooledLogger = new Logger(new DiscardingLogger(), formatter, true, false, true, CallerInfo.OFF, null, true);
+    private final Logger unpooledLogger = new Logger(new DiscardingLogger(), formatter, true, false, true, CallerInfo.OFF, null, false);
+    private final Logger treeLogger = new Logger(new DiscardingLogger(), formatter, true, false, false, CallerInfo.OFF, null, false);
+
+    private ParameterMap fields;
+    private List<Object> values;
+    private Integer processes;
+
+    @Setup
+    public void setup() {
+
+        fields = Fixtures.flatMap(8);
+        values = Arrays.asList("a", 1, 2L, true);
+        processes = 10;
+    }
+
+    @Benchmark
+    public String formatMessage() {
+
+        return new InfoLogger(NOPLogger.NOP_LOGGER, formatter, gson, true, true)
+                .message("Confirm message 'incompatible Data in document'")
+                .setString("LOB", "Container")
+                .setInteger("NumProcess", 10)
+                .field("Reason", "Connection")
+                .map("OptionalFields", fields)
+                .list("Values", values)
+                .toString();
+    }
+
+    @Benchmark
+    public void logPooled() {
+
+        log(pooledLogger);
+    }
+
+    @Benchmark
+    public void logUnpooled() {
+
+        log(unpooledLogger);
+    }
+
+    @Benchmark
+    public void logJsonObject() {
+
+        log(treeLogger);
+    }
+
+    private void log(Logger logger) {
+
+        logger.info()
+                .message("Confirm message 'incompatible Data in document'")
+                .setString("LOB", "Container")
+                .setInteger("NumProcess", processes)
+                .field("Reason", "Connection")
+                .list("Values", values)
+                .log();
+    }
+
+    /**
+     * Enabled at every level, dropping what's logged.
+     */
+    private static final class DiscardingLogger extends SubstituteLogger {
+
+        private DiscardingLogger() {
+
+            super("benchmark", null, true);
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+
+            return true;
+        }
+
+        @Override
+        public void info(String msg) {
+
+        }
+    }
+}
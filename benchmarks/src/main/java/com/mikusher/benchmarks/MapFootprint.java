@@ -0,0 +1,58 @@
+package com.mikusher.benchmarks;
+
+import com.mikusher.parameter.ParameterMap;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.HashMap;
+
+/**
+ * Prints the heap retained by a <code>ParameterMap</code> with the default compact storage next to one backed by a
+ * <code>HashMap</code>, for several sizes. Both maps hold the same key and value instances, which are left out of
+ * the totals along with the objects every empty map points to, so only the storage itself is compared. Run it from
+ * the benchmarks jar:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar com.mikusher.benchmarks.MapFootprint
+ * </pre>
+ */
+public final class MapFootprint {
+
+    private static final int[] SIZES = {0, 1, 2, 4, 8, 16, 64, 256};
+
+
+    private MapFootprint() {
+
+    }
+
+    public static void main(String[] args) {
+
+        int maxSize = SIZES[SIZES.length - 1];
+        String[] keys = new String[maxSize];
+        Object[] values = new Object[maxSize];
+        for (int i = 0; i < maxSize; i++) {
+            keys[i] = "key" + i;
+            values[i] = i % 2 == 0 ? Integer.valueOf(i * 1000) : "value" + i;
+        }
+
+        System.out.printf("%8s %16s %16s %8s%n", "entries", "compact (bytes)", "HashMap (bytes)", "ratio");
+        for (int size : SIZES) {
+            ParameterMap compact = new ParameterMap();
+            ParameterMap hashed = new ParameterMap(new HashMap<String, Object>());
+            Object[] contents = new Object[size * 2];
+            for (int i = 0; i < size; i++) {
+                compact.put(keys[i], values[i]);
+                hashed.put(keys[i], values[i]);
+                contents[i * 2] = keys[i];
+                contents[i * 2 + 1] = values[i];
+            }
+
+            // The roots are the keys and values themselves, not the array holding them
+            GraphLayout shared = GraphLayout.parseInstance(new ParameterMap());
+            if (size > 0) {
+                shared = shared.add(GraphLayout.parseInstance(contents));
+            }
+            long compactSize = GraphLayout.parseInstance(compact).subtract(shared).totalSize();
+            long hashedSize = GraphLayout.parseInstance(hashed).subtract(shared).totalSize();
+            System.out.printf("%8d %16d %16d %8.2f%n", size, compactSize, hashedSize, (double) compactSize / hashedSize);
+        }
+    }
+}
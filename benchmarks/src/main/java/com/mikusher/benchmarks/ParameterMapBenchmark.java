@@ -0,0 +1,133 @@
+package com.mikusher.benchmarks;
+
+import com.mikusher.error.SatelliteException;
+import com.mikusher.parameter.ParameterMap;
+import com.mikusher.parameter.ParameterMapUtils;
+import com.mikusher.parameter.ParameterPath;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups, updates, clones and merges on flat maps, deep trees and long arrays.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParameterMapBenchmark {
+
+    private static final String NESTED_NAME = "child1.child0.child2.key1";
+    private static final String ARRAY_NAME = "records(500).address.zip";
+
+    @Param({"8", "64"})
+    public int flatSize;
+
+    private ParameterMap flat;
+    private ParameterMap tree;
+    private ParameterMap array;
+    private ParameterMap other;
+    private ParameterPath nestedPath;
+
+    @Setup
+    public void setup() {
+
+        flat = Fixtures.flatMap(flatSize);
+        tree = Fixtures.deepTree(4, 4);
+        array = Fixtures.longArray(1000);
+        other = Fixtures.deepTree(3, 4);
+        nestedPath = ParameterPath.compile(NESTED_NAME);
+    }
+
+    @Benchmark
+    public int getInt() throws SatelliteException {
+
+        return flat.getInt("key1");
+    }
+
+    @Benchmark
+    public Object getMissing() throws SatelliteException {
+
+        return flat.getIntOrDefault("absent", 0);
+    }
+
+    @Benchmark
+    public double setGetPrimitives() throws SatelliteException {
+
+        flat.setDouble("price", 12.5);
+        flat.setLong("quantity", 1_000_000L);
+        return flat.getDouble("price") * flat.getLong("quantity");
+    }
+
+    @Benchmark
+    public int getNestedString() throws SatelliteException {
+
+        return tree.getInt(NESTED_NAME);
+    }
+
+    @Benchmark
+    public Object getNestedPath() {
+
+        return tree.get(nestedPath);
+    }
+
+    @Benchmark
+    public int getArrayElement() throws SatelliteException {
+
+        return array.getInt(ARRAY_NAME);
+    }
+
+    @Benchmark
+    public ParameterMap setNestedString() throws SatelliteException {
+
+        tree.setParameter(NESTED_NAME, 42);
+        return tree;
+    }
+
+    @Benchmark
+    public ParameterMap setNestedPath() throws SatelliteException {
+
+        tree.set(nestedPath, 42);
+        return tree;
+    }
+
+    @Benchmark
+    public ParameterMap cloneFlat() {
+
+        return flat.clone();
+    }
+
+    @Benchmark
+    public ParameterMap cloneTree() {
+
+        return tree.clone();
+    }
+
+    @Benchmark
+    public ParameterMap copyOnWriteCloneTree() throws SatelliteException {
+
+        ParameterMap cloned = tree.copyOnWriteClone();
+        cloned.setParameter(NESTED_NAME, 42);
+        return cloned;
+    }
+
+    @Benchmark
+    public ParameterMap cloneArray() {
+
+        return array.clone();
+    }
+
+    @Benchmark
+    public ParameterMap merge() throws SatelliteException {
+
+        return ParameterMap.merge(tree.clone(), other);
+    }
+
+    @Benchmark
+    public ParameterMap extend() {
+
+        return ParameterMapUtils.extend(tree, other);
+    }
+}
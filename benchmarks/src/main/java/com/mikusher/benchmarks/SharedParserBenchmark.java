@@ -0,0 +1,50 @@
+package com.mikusher.benchmarks;
+
+import com.mikusher.formats.StreamedPMapParser;
+import com.mikusher.formats.StreamedPMapParser.SerializationType;
+import com.mikusher.parameter.ParameterMap;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and serialization of PMAP2 documents by concurrent threads through the one shared parser.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class SharedParserBenchmark {
+
+    @Param({"1KB", "64KB"})
+    public String size;
+
+    private StreamedPMapParser parser;
+    private ParameterMap document;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void setup() throws XMLStreamException, IOException {
+
+        parser = StreamedPMapParser.getInstance();
+        document = Fixtures.document(Fixtures.parseSize(size), SerializationType.PMAP2);
+        content = parser.PMAPtoByteArray(document, SerializationType.PMAP2);
+    }
+
+    @Benchmark
+    public ParameterMap parse() throws XMLStreamException, IOException {
+
+        return parser.ByteArrayToPMAP(SerializationType.PMAP2, content);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws XMLStreamException, IOException {
+
+        return parser.PMAPtoByteArray(document, SerializationType.PMAP2);
+    }
+}
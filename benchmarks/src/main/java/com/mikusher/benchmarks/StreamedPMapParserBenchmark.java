@@ -0,0 +1,120 @@
+package com.mikusher.benchmarks;
+
+import com.mikusher.error.SatelliteException;
+import com.mikusher.formats.PMapCursor;
+import com.mikusher.formats.StreamedPMapParser;
+import com.mikusher.formats.StreamedPMapParser.SerializationType;
+import com.mikusher.parameter.ParameterMap;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and serialization of PMAP1, PMAP2 and binary PMAP3 documents from 1 KB up to 50 MB.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Thread)
+public class StreamedPMapParserBenchmark {
+
+    @Param({"1KB", "64KB", "1MB", "50MB"})
+    public String size;
+
+    @Param({"PMAP1", "PMAP2", "PMAP3_BINARY"})
+    public SerializationType type;
+
+    private StreamedPMapParser parser;
+    private ParameterMap document;
+    private byte[] content;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws XMLStreamException, IOException {
+
+        parser = StreamedPMapParser.getInstance();
+        document = Fixtures.document(Fixtures.parseSize(size), type);
+        content = parser.PMAPtoByteArray(document, type);
+        file = Files.createTempFile("pmap-benchmark", ".pmap");
+        Files.write(file, content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public ParameterMap parse() throws XMLStreamException, IOException {
+
+        return parser.ByteArrayToPMAP(type, content);
+    }
+
+    @Benchmark
+    public int parseLazyAndReadOneRecord() throws SatelliteException, XMLStreamException, IOException {
+
+        return parser.ByteArrayToLazyPMAP(type, content).getInt("records(0).id");
+    }
+
+    @Benchmark
+    public long cursorSumIds() throws SatelliteException, XMLStreamException, IOException {
+
+        long sum = 0;
+        try (PMapCursor cursor = parser.getCursor(content)) {
+            for (PMapCursor.Event event = cursor.next(); event != PMapCursor.Event.END_DOCUMENT; event = cursor.next()) {
+                if (event == PMapCursor.Event.VALUE && "id".equals(cursor.getName())) {
+                    sum += cursor.intValue();
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public List<ParameterMap> parseRecordsParallel() throws XMLStreamException, IOException {
+
+        return parser.ByteArrayToPMAPList(type, content, "records");
+    }
+
+    @Benchmark
+    public ParameterMap getMap() throws XMLStreamException {
+
+        return parser.getMap(new ByteArrayInputStream(content));
+    }
+
+    @Benchmark
+    public ParameterMap getMapFromFile() throws XMLStreamException, IOException {
+
+        return parser.getMap(file);
+    }
+
+    @Benchmark
+    public ParameterMap getMappedMap() throws XMLStreamException, IOException {
+
+        return parser.getMappedMap(file);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws XMLStreamException, IOException {
+
+        return parser.PMAPtoByteArray(document, type);
+    }
+
+    @Benchmark
+    public int transcodeToBinary() throws XMLStreamException, IOException {
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(content.length);
+        parser.transcode(new ByteArrayInputStream(content), SerializationType.PMAP3_BINARY, bos);
+        return bos.size();
+    }
+}
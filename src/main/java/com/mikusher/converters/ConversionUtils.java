@@ -5,11 +5,13 @@ import com.mikusher.error.IncorrectTypeException;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 public class ConversionUtils {
 
     public static final String DATE_LONG_FORMAT = "yyyyMMddHHmmss";
 
+    private static final long MILLIS_PER_DAY = 86_400_000L;
     private static final ThreadLocal<Calendar> _calendar = ThreadLocal.withInitial(Calendar::getInstance);
 
 
@@ -72,6 +74,8 @@ public class ConversionUtils {
         private final long _maxValue;
         private final long _formatValue;
         private final long _minFormatValue;
+        // Factor from this format to yyyyMMddHHmmss
+        private final long _scale;
 
 
         FastDateFormat(String format, long minValue, long maxValue) {
@@ -81,6 +85,12 @@ public class ConversionUtils {
             _maxValue = maxValue;
             _formatValue = maxValue + 1;
             _minFormatValue = maxValue / 10;
+
+            long scale = 1L;
+            for (int i = format.length(); i < DATE_LONG_FORMAT.length(); i++) {
+                scale *= 10L;
+            }
+            _scale = scale;
         }
 
         public static FastDateFormat findFormat(String format) {
@@ -130,6 +140,18 @@ public class ConversionUtils {
             }
 
             Calendar cal = getCalendar();
+            long local = DateCodec.toMillis(dateLng * _scale);
+            if (local >= DateCodec.MIN_MILLIS && local < DateCodec.MAX_MILLIS) {
+                // Without a time zone transition in a day on either side the offset is unambiguous
+                TimeZone zone = cal.getTimeZone();
+                int offset = zone.getOffset(local - MILLIS_PER_DAY);
+                if (offset == zone.getOffset(local + MILLIS_PER_DAY)) {
+                    return new Date(local - offset);
+                }
+            }
+
+            // Fields left by a previous call, such as the era, mustn't leak into this date
+            cal.clear();
             longToCal(dateLng, cal);
             return cal.getTime();
         }
@@ -142,8 +164,13 @@ public class ConversionUtils {
         public long date2Long(Date dateObj) {
 
             Calendar cal = getCalendar();
-            cal.setTime(dateObj);
+            long millis = dateObj.getTime();
+            long local = millis + cal.getTimeZone().getOffset(millis);
+            if (local >= DateCodec.MIN_MILLIS && local < DateCodec.MAX_MILLIS) {
+                return DateCodec.toPacked(local) / _scale;
+            }
 
+            cal.setTime(dateObj);
             return calToLong(cal);
         }
 
@@ -153,9 +180,7 @@ public class ConversionUtils {
          */
         public String date2String(Date dateObj) {
 
-            Calendar cal = getCalendar();
-            cal.setTime(dateObj);
-            long value = calToLong(cal);
+            long value = date2Long(dateObj);
 
             if (value > _minFormatValue) {
                 return Long.toString(value);
@@ -0,0 +1,233 @@
+package com.mikusher.converters;
+
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversions between epoch millis and the packed <code>yyyyMMddHHmmss</code> form of dates, as a long or as text,
+ * by pure arithmetic on the proleptic Gregorian calendar. Stateless and safe to share across threads.
+ * <p>
+ * Text is read and written in UTC exactly as a non lenient <code>SimpleDateFormat("yyyyMMddHHmmss")</code> does. The
+ * arithmetic only agrees with <code>java.util</code> calendars from 1583, after the Julian calendar, until the year
+ * 9999, so dates outside that range go through a <code>SimpleDateFormat</code> instead.
+ */
+public final class DateCodec {
+
+    public static final String FORMAT = ConversionUtils.DATE_LONG_FORMAT;
+
+    /**
+     * First instant, 1583-01-01T00:00Z, handled by pure arithmetic
+     */
+    public static final long MIN_MILLIS = LocalDate.of(1583, 1, 1).toEpochDay() * 86_400_000L;
+
+    /**
+     * Instant after the last one, 10000-01-01T00:00Z, handled by pure arithmetic
+     */
+    public static final long MAX_MILLIS = LocalDate.of(10000, 1, 1).toEpochDay() * 86_400_000L;
+
+    /**
+     * Returned by {@link #parse(byte[], int, int)} when the text isn't a plain date
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    public static final int LENGTH = FORMAT.length();
+
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+    private static final SimpleDateFormat PROTOTYPE;
+
+    static {
+        PROTOTYPE = new SimpleDateFormat(FORMAT);
+        PROTOTYPE.setTimeZone(TimeZone.getTimeZone("UTC"));
+        PROTOTYPE.setLenient(false);
+    }
+
+
+    private DateCodec() {
+    }
+
+    /**
+     * @param epochMillis
+     * @return The UTC date and time of <code>epochMillis</code> as <code>yyyyMMddHHmmss</code> digits, truncated to
+     * the second.
+     */
+    public static long toPacked(long epochMillis) {
+
+        long days = Math.floorDiv(epochMillis, MILLIS_PER_DAY);
+        long seconds = Math.floorMod(epochMillis, MILLIS_PER_DAY) / 1000;
+
+        // Civil from days, on eras of 400 years starting on March 1st
+        long z = days + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long dayOfEra = z - era * 146_097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        return ((((year * 100 + month) * 100 + day) * 100 + seconds / 3600) * 100 + seconds / 60 % 60) * 100
+                + seconds % 60;
+    }
+
+    /**
+     * Converts <code>yyyyMMddHHmmss</code> digits in UTC to epoch millis. Fields out of their range are carried over
+     * as a lenient calendar does: month 13 is January of the next year, day 0 the last day of the previous month.
+     *
+     * @param packed
+     * @return
+     */
+    public static long toMillis(long packed) {
+
+        long second = packed % 100;
+        packed /= 100;
+        long minute = packed % 100;
+        packed /= 100;
+        long hour = packed % 100;
+        packed /= 100;
+        long day = packed % 100;
+        packed /= 100;
+        long month = packed % 100;
+        long year = packed / 100;
+
+        return (daysFromCivil(year, month, 1) + day - 1) * MILLIS_PER_DAY
+                + ((hour * 60 + minute) * 60 + second) * 1000;
+    }
+
+    /**
+     * @param year
+     * @param month
+     *         Carried over to the year when out of 1 to 12.
+     * @param day
+     * @return The epoch day of the date.
+     */
+    public static long daysFromCivil(long year, long month, long day) {
+
+        year += Math.floorDiv(month - 1, 12);
+        month = Math.floorMod(month - 1, 12) + 1;
+
+        // Days from civil, on eras of 400 years starting on March 1st
+        year -= month <= 2 ? 1 : 0;
+        long era = Math.floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+
+    /**
+     * @param epochMillis
+     * @return The date as <code>yyyyMMddHHmmss</code> in UTC.
+     */
+    public static String format(long epochMillis) {
+
+        if (epochMillis < MIN_MILLIS || epochMillis >= MAX_MILLIS) {
+            return newFormat().format(new Date(epochMillis));
+        }
+        return Long.toString(toPacked(epochMillis));
+    }
+
+    /**
+     * Writes the {@link #LENGTH} ASCII digits of <code>yyyyMMddHHmmss</code> in UTC, for a date from
+     * {@link #MIN_MILLIS} to {@link #MAX_MILLIS}.
+     *
+     * @param epochMillis
+     * @param buffer
+     * @param offset
+     */
+    public static void format(long epochMillis, byte[] buffer, int offset) {
+
+        long packed = toPacked(epochMillis);
+        for (int i = offset + LENGTH - 1; i >= offset; i--) {
+            buffer[i] = (byte) ('0' + packed % 10);
+            packed /= 10;
+        }
+    }
+
+    /**
+     * Parses <code>yyyyMMddHHmmss</code> in UTC, as a non lenient <code>SimpleDateFormat</code> does.
+     *
+     * @param text
+     * @return
+     * @throws ParseException
+     */
+    public static Date parse(String text) throws ParseException {
+
+        if (text.length() == LENGTH) {
+            long packed = 0;
+            for (int i = 0; i < LENGTH; i++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    packed = INVALID;
+                    break;
+                }
+                packed = packed * 10 + digit;
+            }
+            if (packed != INVALID && isValid(packed)) {
+                return new Date(toMillis(packed));
+            }
+        }
+
+        return newFormat().parse(text);
+    }
+
+    /**
+     * Parses <code>yyyyMMddHHmmss</code> in UTC from ASCII bytes.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return The epoch millis, or {@link #INVALID} if the bytes aren't {@link #LENGTH} digits of a valid date from
+     * 1583 on, which {@link #parse(String)} has to deal with.
+     */
+    public static long parse(byte[] bytes, int offset, int length) {
+
+        if (length != LENGTH) {
+            return INVALID;
+        }
+
+        long packed = 0;
+        for (int i = offset; i < offset + LENGTH; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            packed = packed * 10 + digit;
+        }
+        return isValid(packed) ? toMillis(packed) : INVALID;
+    }
+
+    /**
+     * @param packed
+     * @return Whether every field of <code>yyyyMMddHHmmss</code> digits is in its range, in a year from 1583.
+     */
+    private static boolean isValid(long packed) {
+
+        long second = packed % 100;
+        long minute = packed / 100 % 100;
+        long hour = packed / 10_000 % 100;
+        long day = packed / 1_000_000 % 100;
+        long month = packed / 100_000_000 % 100;
+        long year = packed / 10_000_000_000L;
+
+        return year >= 1583 && month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month)
+                && hour <= 23 && minute <= 59 && second <= 59;
+    }
+
+    private static int lengthOfMonth(long year, long month) {
+
+        if (month == 2) {
+            return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    private static SimpleDateFormat newFormat() {
+
+        return (SimpleDateFormat) PROTOTYPE.clone();
+    }
+}
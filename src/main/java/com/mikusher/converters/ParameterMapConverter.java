@@ -18,6 +18,11 @@ public class ParameterMapConverter implements Converter<ParameterMap> {
     public final ParameterMap cast(Object source) throws IncorrectTypeException {
 
 
+        // Subclasses such as FrozenParameterMap are returned as they are
+        if (source instanceof ParameterMap) {
+            return (ParameterMap) source;
+        }
+
         if (source instanceof Map) {
             return new ParameterMap((Map) source);
         }
@@ -0,0 +1,144 @@
+package com.mikusher.formats;
+
+import com.mikusher.parameter.PMapType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/***************************************************************************
+ *
+ * Constants of the binary PMAP3 format.
+ *
+ * <p>A document starts with <code>MAGIC</code> followed by the key
+ * dictionary: a varint count and every key of every map, each one as a
+ * varint byte length and its UTF-8 bytes. The root map follows.</p>
+ *
+ * <p>Every value starts with a tag, the first character of the short name of
+ * its <code>{@link PMapType}</code>:</p>
+ * <ul>
+ * <li><code>s</code> varint byte length and UTF-8 bytes</li>
+ * <li><code>i</code>, <code>l</code> zigzag varint</li>
+ * <li><code>f</code>, <code>d</code> IEEE 754 bits, big endian</li>
+ * <li><code>b</code> one byte, 0 or 1</li>
+ * <li><code>c</code> zigzag varint scale, varint length and the unscaled
+ * value in two's complement</li>
+ * <li><code>t</code> epoch millis as a big endian long</li>
+ * <li><code>n</code> nothing</li>
+ * <li><code>m</code> big endian int byte length of the entries, then each
+ * entry as a varint index in the key dictionary and a value</li>
+ * <li><code>a</code> big endian int byte length of the values, then the
+ * values</li>
+ * </ul>
+ *
+ * <p>The byte length of maps and arrays lets readers skip whole subtrees.</p>
+ *
+ ***************************************************************************/
+final class BinaryPMap {
+
+    static final byte[] MAGIC = {(byte) 0x89, 'P', 'M', '3'};
+
+    static final byte STRING = tag(PMapType.STRING);
+    static final byte INT = tag(PMapType.INT);
+    static final byte LONG = tag(PMapType.LONG);
+    static final byte FLOAT = tag(PMapType.FLOAT);
+    static final byte DOUBLE = tag(PMapType.DOUBLE);
+    static final byte BOOLEAN = tag(PMapType.BOOLEAN);
+    static final byte DECIMAL = tag(PMapType.DECIMAL);
+    static final byte DATE = tag(PMapType.DATE);
+    static final byte MAP = tag(PMapType.MAP);
+    static final byte ARRAY = tag(PMapType.ARRAY);
+    static final byte NULL = tag(PMapType.NULL);
+
+    private static final PMapType[] _types = new PMapType[128];
+
+    static {
+        for (PMapType type : PMapType.values()) {
+            _types[tag(type)] = type;
+        }
+    }
+
+
+    private BinaryPMap() {
+
+    }
+
+    static byte tag(PMapType type) {
+
+        return (byte) type.getShortName().charAt(0);
+    }
+
+    /***************************************************************************
+     *
+     * @return The type identified by <code>tag</code>, or null if it isn't a
+     *         valid tag.
+     *
+     ***************************************************************************/
+    static PMapType type(byte tag) {
+
+        return tag >= 0 ? _types[tag] : null;
+    }
+
+    /***************************************************************************
+     *
+     * @return True if <code>content</code> starts with <code>MAGIC</code>.
+     *
+     ***************************************************************************/
+    static boolean isBinary(byte[] content) {
+
+        if (content == null || content.length < MAGIC.length) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (content[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /***************************************************************************
+     *
+     * @return True if the bytes of <code>buffer</code> from its position on
+     *         start with <code>MAGIC</code>.
+     *
+     ***************************************************************************/
+    static boolean isBinary(ByteBuffer buffer) {
+
+        if (buffer.remaining() < MAGIC.length) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /***************************************************************************
+     *
+     * Checks whether the next bytes of <code>is</code> are <code>MAGIC</code>
+     * without consuming them.
+     *
+     * @param is
+     *            A stream that supports <code>mark</code>.
+     *
+     ***************************************************************************/
+    static boolean isBinary(InputStream is) throws IOException {
+
+        is.mark(MAGIC.length);
+        try {
+            for (byte b : MAGIC) {
+                if (is.read() != (b & 0xFF)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            is.reset();
+        }
+    }
+}
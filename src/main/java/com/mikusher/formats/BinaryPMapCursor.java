@@ -0,0 +1,373 @@
+package com.mikusher.formats;
+
+import com.mikusher.error.IncorrectTypeException;
+import com.mikusher.parameter.PMapType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/***************************************************************************
+ *
+ * <code>{@link PMapCursor}</code> over a binary PMAP3 document read from a
+ * stream through a fixed size buffer. Primitive values are kept unboxed and
+ * skipped maps and arrays are never read, thanks to their byte length.
+ *
+ ***************************************************************************/
+final class BinaryPMapCursor extends PMapCursor {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream _in;
+    private final byte[] _buffer = new byte[BUFFER_SIZE];
+    private int _position = 0;
+    private int _limit = 0;
+    // Offset in the document of _buffer[0]
+    private long _base = 0;
+
+    private String[] _keys = null;
+    // End offset of every open container and whether it's a map
+    private long[] _ends = new long[16];
+    private boolean[] _maps = new boolean[16];
+
+    private long _bits = 0;
+    private Object _object = null;
+
+
+    BinaryPMapCursor(InputStream in) {
+
+        _in = in;
+    }
+
+    @Override
+    public Event next() throws IOException {
+
+        _name = null;
+        _type = null;
+        _object = null;
+
+        if (_keys == null) {
+            readHeader();
+            return start(PMapType.MAP);
+        }
+
+        if (_depth == 0) {
+            return _event = Event.END_DOCUMENT;
+        }
+
+        if (offset() >= _ends[_depth - 1]) {
+            _depth--;
+            return _event = Event.END;
+        }
+
+        if (_maps[_depth - 1]) {
+            _name = readKey();
+        }
+
+        byte tag = readByte();
+        PMapType type = BinaryPMap.type(tag);
+        if (type == null) {
+            throw new IOException("Invalid type - " + tag);
+        }
+
+        _type = type;
+        switch (type) {
+            case MAP:
+            case ARRAY:
+                return start(type);
+            case STRING:
+                _object = readString();
+                break;
+            case INT:
+            case LONG:
+                _bits = unzigzag(readVarLong());
+                break;
+            case FLOAT:
+                _bits = readInt();
+                break;
+            case DOUBLE:
+            case DATE:
+                _bits = readLong();
+                break;
+            case BOOLEAN:
+                _bits = readByte();
+                break;
+            case DECIMAL:
+                int scale = (int) unzigzag(readVarLong());
+                byte[] unscaled = new byte[readVarInt()];
+                readFully(unscaled, 0, unscaled.length);
+                _object = new BigDecimal(new BigInteger(unscaled), scale);
+                break;
+            default:
+                break;
+        }
+        return _event = Event.VALUE;
+    }
+
+    private void readHeader() throws IOException {
+
+        for (byte b : BinaryPMap.MAGIC) {
+            if (readByte() != b) {
+                throw new IOException("unknown pmap format");
+            }
+        }
+
+        String[] keys = new String[readVarInt()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = readString();
+        }
+        _keys = keys;
+
+        byte tag = readByte();
+        if (tag != BinaryPMap.MAP) {
+            throw new IOException("Invalid root type - " + tag);
+        }
+    }
+
+    private Event start(PMapType type) throws IOException {
+
+        int length = readInt();
+        if (length < 0) {
+            throw new IOException("Invalid length - " + length);
+        }
+
+        if (_depth == _ends.length) {
+            _ends = Arrays.copyOf(_ends, _depth * 2);
+            _maps = Arrays.copyOf(_maps, _depth * 2);
+        }
+        _ends[_depth] = offset() + length;
+        _maps[_depth] = type == PMapType.MAP;
+        _depth++;
+
+        _type = type;
+        return _event = type == PMapType.MAP ? Event.START_MAP : Event.START_ARRAY;
+    }
+
+    @Override
+    public void skip() throws IOException {
+
+        if (_event != Event.START_MAP && _event != Event.START_ARRAY) {
+            return;
+        }
+
+        skipBytes(_ends[_depth - 1] - offset());
+        _depth--;
+        _name = null;
+        _type = null;
+        _event = Event.END;
+    }
+
+    @Override
+    public Object value() {
+
+        checkValue();
+        switch (_type) {
+            case INT:
+                return (int) _bits;
+            case LONG:
+                return _bits;
+            case FLOAT:
+                return Float.intBitsToFloat((int) _bits);
+            case DOUBLE:
+                return Double.longBitsToDouble(_bits);
+            case BOOLEAN:
+                return _bits != 0;
+            case DATE:
+                return new Date(_bits);
+            default:
+                return _object;
+        }
+    }
+
+    @Override
+    public int intValue() throws IncorrectTypeException {
+
+        checkValue();
+        return _type == PMapType.INT ? (int) _bits : super.intValue();
+    }
+
+    @Override
+    public long longValue() throws IncorrectTypeException {
+
+        checkValue();
+        return _type == PMapType.LONG || _type == PMapType.INT ? _bits : super.longValue();
+    }
+
+    @Override
+    public float floatValue() throws IncorrectTypeException {
+
+        checkValue();
+        return _type == PMapType.FLOAT ? Float.intBitsToFloat((int) _bits) : super.floatValue();
+    }
+
+    @Override
+    public double doubleValue() throws IncorrectTypeException {
+
+        checkValue();
+        return _type == PMapType.DOUBLE ? Double.longBitsToDouble(_bits) : super.doubleValue();
+    }
+
+    @Override
+    public boolean booleanValue() throws IncorrectTypeException {
+
+        checkValue();
+        return _type == PMapType.BOOLEAN ? _bits != 0 : super.booleanValue();
+    }
+
+    @Override
+    public String stringValue() throws IncorrectTypeException {
+
+        checkValue();
+        return _type == PMapType.STRING ? (String) _object : super.stringValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        _in.close();
+    }
+
+    private long offset() {
+
+        return _base + _position;
+    }
+
+    private String readKey() throws IOException {
+
+        int index = readVarInt();
+        if (index < 0 || index >= _keys.length) {
+            throw new IOException("Invalid key index - " + index);
+        }
+        return _keys[index];
+    }
+
+    private String readString() throws IOException {
+
+        int length = readVarInt();
+        if (length > _buffer.length) {
+            byte[] bytes = new byte[length];
+            readFully(bytes, 0, length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        require(length);
+        String value = new String(_buffer, _position, length, StandardCharsets.UTF_8);
+        _position += length;
+        return value;
+    }
+
+    private byte readByte() throws IOException {
+
+        require(1);
+        return _buffer[_position++];
+    }
+
+    private int readInt() throws IOException {
+
+        require(4);
+        int value = (_buffer[_position] & 0xFF) << 24 | (_buffer[_position + 1] & 0xFF) << 16
+                | (_buffer[_position + 2] & 0xFF) << 8 | (_buffer[_position + 3] & 0xFF);
+        _position += 4;
+        return value;
+    }
+
+    private long readLong() throws IOException {
+
+        return (long) readInt() << 32 | (readInt() & 0xFFFFFFFFL);
+    }
+
+    private int readVarInt() throws IOException {
+
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Invalid length - " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarLong() throws IOException {
+
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    private static long unzigzag(long value) {
+
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /***************************************************************************
+     *
+     * Makes sure the next <code>length</code> bytes are in the buffer, which
+     * must be able to hold them.
+     *
+     ***************************************************************************/
+    private void require(int length) throws IOException {
+
+        if (_limit - _position >= length) {
+            return;
+        }
+
+        int remaining = _limit - _position;
+        System.arraycopy(_buffer, _position, _buffer, 0, remaining);
+        _base += _position;
+        _position = 0;
+        _limit = remaining;
+
+        while (_limit < length) {
+            int count = _in.read(_buffer, _limit, _buffer.length - _limit);
+            if (count < 0) {
+                throw new EOFException("Truncated PMAP3 document");
+            }
+            _limit += count;
+        }
+    }
+
+    private void readFully(byte[] bytes, int offset, int length) throws IOException {
+
+        int buffered = Math.min(length, _limit - _position);
+        System.arraycopy(_buffer, _position, bytes, offset, buffered);
+        _position += buffered;
+
+        int done = buffered;
+        while (done < length) {
+            int count = _in.read(bytes, offset + done, length - done);
+            if (count < 0) {
+                throw new EOFException("Truncated PMAP3 document");
+            }
+            done += count;
+        }
+        _base += done - buffered;
+    }
+
+    private void skipBytes(long length) throws IOException {
+
+        int buffered = (int) Math.min(length, _limit - _position);
+        _position += buffered;
+
+        long remaining = length - buffered;
+        while (remaining > 0) {
+            long count = _in.skip(remaining);
+            if (count <= 0) {
+                if (_in.read() < 0) {
+                    throw new EOFException("Truncated PMAP3 document");
+                }
+                count = 1;
+            }
+            remaining -= count;
+            _base += count;
+        }
+    }
+}
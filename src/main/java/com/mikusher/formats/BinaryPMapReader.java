@@ -0,0 +1,323 @@
+package com.mikusher.formats;
+
+import com.mikusher.parameter.PMapType;
+import com.mikusher.parameter.ParameterMap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/***************************************************************************
+ *
+ * Reads documents in the binary PMAP3 format described in
+ * <code>{@link BinaryPMap}</code> straight from a <code>ByteBuffer</code>,
+ * which may be a heap, direct or memory mapped buffer. Strings are decoded
+ * without an intermediate copy when the buffer is backed by an array.
+ *
+ * <p>In lazy mode the nested maps are returned unread as
+ * <code>{@link LazyBinaryMap}</code> views over their region of the
+ * buffer.</p>
+ *
+ ***************************************************************************/
+final class BinaryPMapReader {
+
+    private final ByteBuffer _buffer;
+    private final String[] _keys;
+    private final boolean _lazy;
+
+
+    /***************************************************************************
+     *
+     * Reads the header of the document starting at the current position of
+     * <code>buffer</code>, leaving it on the root map.
+     *
+     * @param lazy
+     *            Whether nested maps are decoded on first access.
+     *
+     ***************************************************************************/
+    BinaryPMapReader(ByteBuffer buffer, boolean lazy) throws IOException {
+
+        _buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        _lazy = lazy;
+        try {
+            for (byte b : BinaryPMap.MAGIC) {
+                if (_buffer.get() != b) {
+                    throw new IOException("unknown pmap format");
+                }
+            }
+
+            _keys = new String[readVarInt()];
+            for (int i = 0; i < _keys.length; i++) {
+                _keys[i] = readString();
+            }
+        } catch (BufferUnderflowException e) {
+            throw truncated(e);
+        }
+    }
+
+    private BinaryPMapReader(ByteBuffer buffer, String[] keys, boolean lazy) {
+
+        _buffer = buffer;
+        _keys = keys;
+        _lazy = lazy;
+    }
+
+    static ParameterMap read(ByteBuffer buffer) throws IOException {
+
+        return new BinaryPMapReader(buffer, false).readRoot();
+    }
+
+    /***************************************************************************
+     *
+     * @return A reader over the same document positioned at
+     *         <code>position</code>, independent from this one.
+     *
+     ***************************************************************************/
+    BinaryPMapReader at(int position) {
+
+        ByteBuffer buffer = _buffer.duplicate();
+        buffer.position(position);
+        return new BinaryPMapReader(buffer, _keys, _lazy);
+    }
+
+    int position() {
+
+        return _buffer.position();
+    }
+
+    /***************************************************************************
+     *
+     * Reads the root map of the document.
+     *
+     ***************************************************************************/
+    ParameterMap readRoot() throws IOException {
+
+        try {
+            readRootTag();
+            return readMap();
+        } catch (BufferUnderflowException e) {
+            throw truncated(e);
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Checks that the document holds a map, leaving the reader on its byte
+     * length.
+     *
+     ***************************************************************************/
+    void readRootTag() throws IOException {
+
+        byte tag = _buffer.get();
+        if (tag != BinaryPMap.MAP) {
+            throw new IOException("Invalid root type - " + tag);
+        }
+    }
+
+    private ParameterMap readMap() throws IOException {
+
+        int end = readContainerEnd();
+        if (_lazy) {
+            int start = _buffer.position();
+            _buffer.position(end);
+            return new ParameterMap(new LazyBinaryMap(this, start, end));
+        }
+
+        ParameterMap map = new ParameterMap();
+        readEntries(map, end);
+        return map;
+    }
+
+    void readEntries(Map<String, Object> map, int end) throws IOException {
+
+        while (_buffer.position() < end) {
+            String key = readKey();
+            map.put(key, readValue());
+        }
+    }
+
+    private List<Object> readList() throws IOException {
+
+        int end = readContainerEnd();
+        List<Object> list = new ArrayList<>();
+        while (_buffer.position() < end) {
+            list.add(readValue());
+        }
+        return list;
+    }
+
+    String readKey() throws IOException {
+
+        int index = readVarInt();
+        if (index < 0 || index >= _keys.length) {
+            throw new IOException("Invalid key index - " + index);
+        }
+        return _keys[index];
+    }
+
+    Object readValue() throws IOException {
+
+        byte tag = _buffer.get();
+        switch (type(tag)) {
+            case STRING:
+                return readString();
+            case INT:
+                return (int) unzigzag(readVarLong());
+            case LONG:
+                return unzigzag(readVarLong());
+            case FLOAT:
+                return _buffer.getFloat();
+            case DOUBLE:
+                return _buffer.getDouble();
+            case BOOLEAN:
+                return _buffer.get() != 0;
+            case DECIMAL:
+                int scale = (int) unzigzag(readVarLong());
+                byte[] unscaled = new byte[readVarInt()];
+                _buffer.get(unscaled);
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            case DATE:
+                return new Date(_buffer.getLong());
+            case MAP:
+                return readMap();
+            case ARRAY:
+                return readList();
+            default:
+                return null;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Moves past the next value without decoding it. Maps and arrays are
+     * skipped in constant time.
+     *
+     ***************************************************************************/
+    void skipValue() throws IOException {
+
+        byte tag = _buffer.get();
+        switch (type(tag)) {
+            case STRING:
+                skip(readVarInt());
+                break;
+            case INT:
+            case LONG:
+                readVarLong();
+                break;
+            case FLOAT:
+                skip(4);
+                break;
+            case DOUBLE:
+            case DATE:
+                skip(8);
+                break;
+            case BOOLEAN:
+                skip(1);
+                break;
+            case DECIMAL:
+                readVarLong();
+                skip(readVarInt());
+                break;
+            case MAP:
+            case ARRAY:
+                _buffer.position(readContainerEnd());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static PMapType type(byte tag) throws IOException {
+
+        PMapType type = BinaryPMap.type(tag);
+        if (type == null) {
+            throw new IOException("Invalid type - " + tag);
+        }
+        return type;
+    }
+
+    private void skip(int length) throws EOFException {
+
+        if (length < 0 || length > _buffer.remaining()) {
+            throw new EOFException("Truncated PMAP3 document");
+        }
+        _buffer.position(_buffer.position() + length);
+    }
+
+    /***************************************************************************
+     *
+     * Reads the byte length of a map or array.
+     *
+     * @return The position right after the container.
+     *
+     ***************************************************************************/
+    int readContainerEnd() throws IOException {
+
+        int length = _buffer.getInt();
+        if (length < 0 || length > _buffer.remaining()) {
+            throw new EOFException("Truncated PMAP3 document");
+        }
+        return _buffer.position() + length;
+    }
+
+    private String readString() throws IOException {
+
+        int length = readVarInt();
+        if (length < 0 || length > _buffer.remaining()) {
+            throw new EOFException("Truncated PMAP3 document");
+        }
+
+        int position = _buffer.position();
+        _buffer.position(position + length);
+        if (_buffer.hasArray()) {
+            return new String(_buffer.array(), _buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+        }
+
+        byte[] bytes = new byte[length];
+        _buffer.duplicate().position(position).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException {
+
+        long value = readVarLong();
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Invalid length - " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarLong() throws IOException {
+
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = _buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    private static long unzigzag(long value) {
+
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static EOFException truncated(BufferUnderflowException e) {
+
+        EOFException exc = new EOFException("Truncated PMAP3 document");
+        exc.initCause(e);
+        return exc;
+    }
+}
@@ -0,0 +1,339 @@
+package com.mikusher.formats;
+
+import com.mikusher.formats.StreamedPMapParser.SerializationType;
+import com.mikusher.parameter.PMapType;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/***************************************************************************
+ *
+ * Writes documents in the binary PMAP3 format described in
+ * <code>{@link BinaryPMap}</code>, as a <code>{@link PMapVisitor}</code>.
+ *
+ * <p>The body is built in a growable <code>ByteBuffer</code> because the
+ * byte length of every map and array is only known after its content has
+ * been written. Keys are added to the dictionary as they are met, and the
+ * header is written in front of the body once the root map ends. A writer
+ * isn't thread safe but can be reused for another document afterwards.</p>
+ *
+ ***************************************************************************/
+final class BinaryPMapWriter implements PMapVisitor {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final OutputStream _out;
+    private final Map<String, Integer> _keys = new HashMap<>();
+    private final List<String> _keyList = new ArrayList<>();
+    private ByteBuffer _buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    // Position of the length of every open container
+    private int[] _starts = new int[16];
+    private int _depth = 0;
+    private byte[] _document = null;
+
+
+    BinaryPMapWriter() {
+
+        this(null);
+    }
+
+    /***************************************************************************
+     *
+     * @param out
+     *            Where each document is written, and flushed, once its root map
+     *            ends. It isn't closed.
+     *
+     ***************************************************************************/
+    BinaryPMapWriter(OutputStream out) {
+
+        _out = out;
+    }
+
+    /***************************************************************************
+     *
+     * Serializes <code>map</code> and returns the document.
+     *
+     ***************************************************************************/
+    byte[] toByteArray(Map<String, ?> map, SerializationType type) throws XMLStreamException, IOException {
+
+        new PMapWalker(this, false, type.ignoreUnknownTypes()).walk(map);
+        byte[] document = _document;
+        _document = null;
+        return document;
+    }
+
+    /***************************************************************************
+     *
+     * Serializes <code>map</code> into <code>os</code>. The stream isn't
+     * closed.
+     *
+     ***************************************************************************/
+    void write(Map<String, ?> map, SerializationType type, OutputStream os) throws XMLStreamException, IOException {
+
+        os.write(toByteArray(map, type));
+    }
+
+    @Override
+    public void startMap(String name) throws IOException {
+
+        if (_depth == 0) {
+            _buffer.clear();
+            _keys.clear();
+            _keyList.clear();
+        }
+        start(name, BinaryPMap.MAP);
+    }
+
+    @Override
+    public void endMap() throws IOException {
+
+        end();
+        if (_depth == 0) {
+            finish();
+        }
+    }
+
+    @Override
+    public void startArray(String name) throws IOException {
+
+        if (_depth == 0) {
+            throw new IOException("Invalid root type - " + PMapType.ARRAY);
+        }
+        start(name, BinaryPMap.ARRAY);
+    }
+
+    @Override
+    public void endArray() {
+
+        end();
+    }
+
+    @Override
+    public void stringValue(String name, String value) {
+
+        putTag(name, BinaryPMap.STRING, 0);
+        writeString(value);
+    }
+
+    @Override
+    public void intValue(String name, int value) {
+
+        putTag(name, BinaryPMap.INT, 0);
+        writeVarLong(zigzag(value));
+    }
+
+    @Override
+    public void longValue(String name, long value) {
+
+        putTag(name, BinaryPMap.LONG, 0);
+        writeVarLong(zigzag(value));
+    }
+
+    @Override
+    public void floatValue(String name, float value) {
+
+        putTag(name, BinaryPMap.FLOAT, 4);
+        _buffer.putFloat(value);
+    }
+
+    @Override
+    public void doubleValue(String name, double value) {
+
+        putTag(name, BinaryPMap.DOUBLE, 8);
+        _buffer.putDouble(value);
+    }
+
+    @Override
+    public void booleanValue(String name, boolean value) {
+
+        putTag(name, BinaryPMap.BOOLEAN, 1);
+        _buffer.put((byte) (value ? 1 : 0));
+    }
+
+    @Override
+    public void decimalValue(String name, BigDecimal value) {
+
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        putTag(name, BinaryPMap.DECIMAL, 0);
+        writeVarLong(zigzag(value.scale()));
+        writeVarInt(unscaled.length);
+        ensureCapacity(unscaled.length);
+        _buffer.put(unscaled);
+    }
+
+    @Override
+    public void dateValue(String name, long epochMillis) {
+
+        putTag(name, BinaryPMap.DATE, 8);
+        _buffer.putLong(epochMillis);
+    }
+
+    @Override
+    public void nullValue(String name) {
+
+        putTag(name, BinaryPMap.NULL, 0);
+    }
+
+    private void start(String name, byte tag) {
+
+        putTag(name, tag, 4);
+        if (_depth == _starts.length) {
+            _starts = Arrays.copyOf(_starts, _depth * 2);
+        }
+        _starts[_depth++] = _buffer.position();
+        _buffer.putInt(0);
+    }
+
+    private void end() {
+
+        int start = _starts[--_depth];
+        _buffer.putInt(start, _buffer.position() - start - 4);
+    }
+
+    /***************************************************************************
+     *
+     * Puts the header in front of the body of the document that just ended.
+     *
+     ***************************************************************************/
+    private void finish() throws IOException {
+
+        ByteBuffer body = _buffer;
+        _buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        ensureCapacity(BinaryPMap.MAGIC.length);
+        _buffer.put(BinaryPMap.MAGIC);
+        writeVarInt(_keyList.size());
+        for (String key : _keyList) {
+            writeString(key);
+        }
+        ByteBuffer header = _buffer;
+        _buffer = body;
+
+        if (_out != null) {
+            _out.write(header.array(), 0, header.position());
+            _out.write(body.array(), 0, body.position());
+            _out.flush();
+            return;
+        }
+
+        byte[] document = Arrays.copyOf(header.array(), header.position() + body.position());
+        System.arraycopy(body.array(), 0, document, header.position(), body.position());
+        _document = document;
+    }
+
+    /***************************************************************************
+     *
+     * Writes the key index of a map entry, if <code>name</code> isn't null,
+     * and the tag of its value.
+     *
+     ***************************************************************************/
+    private void putTag(String name, byte tag, int valueSize) {
+
+        if (name != null) {
+            Integer index = _keys.get(name);
+            if (index == null) {
+                index = _keyList.size();
+                _keys.put(name, index);
+                _keyList.add(name);
+            }
+            writeVarInt(index);
+        }
+        putTag(tag, valueSize);
+    }
+
+    private void putTag(byte tag, int valueSize) {
+
+        ensureCapacity(1 + valueSize);
+        _buffer.put(tag);
+    }
+
+    private static long zigzag(long value) {
+
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeVarInt(int value) {
+
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(long value) {
+
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            _buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        _buffer.put((byte) value);
+    }
+
+    /***************************************************************************
+     *
+     * Writes the UTF-8 byte length of <code>value</code> followed by its bytes,
+     * encoding straight into the buffer.
+     *
+     ***************************************************************************/
+    private void writeString(String value) {
+
+        int length = value.length();
+        int utf8Length = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80 && c < 0x800) {
+                utf8Length++;
+            } else if (isSurrogatePair(value, i)) {
+                utf8Length += 2;
+                i++;
+            } else if (c >= 0x800 && !Character.isSurrogate(c)) {
+                utf8Length += 2;
+            }
+        }
+
+        writeVarInt(utf8Length);
+        ensureCapacity(utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                _buffer.put((byte) c);
+            } else if (c < 0x800) {
+                _buffer.put((byte) (0xC0 | (c >> 6)));
+                _buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (isSurrogatePair(value, i)) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                _buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                _buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                _buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                _buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced as the JDK encoder does
+                _buffer.put((byte) '?');
+            } else {
+                _buffer.put((byte) (0xE0 | (c >> 12)));
+                _buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                _buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static boolean isSurrogatePair(String value, int index) {
+
+        return Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1));
+    }
+
+    private void ensureCapacity(int size) {
+
+        if (_buffer.remaining() >= size) {
+            return;
+        }
+
+        int capacity = Math.max(_buffer.capacity() * 2, _buffer.position() + size);
+        ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        _buffer.flip();
+        buffer.put(_buffer);
+        _buffer = buffer;
+    }
+}
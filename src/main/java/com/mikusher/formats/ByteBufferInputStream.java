@@ -0,0 +1,78 @@
+package com.mikusher.formats;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/***************************************************************************
+ *
+ * <code>InputStream</code> reading straight from a <code>ByteBuffer</code>,
+ * so a memory mapped file can be handed to a parser without going through
+ * a <code>FileInputStream</code> or a <code>Reader</code>. The position of the
+ * original buffer isn't changed. Not thread safe.
+ *
+ ***************************************************************************/
+final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer _buffer;
+    private int _mark = 0;
+
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+
+        _buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read() {
+
+        return _buffer.hasRemaining() ? _buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        int count = Math.min(len, _buffer.remaining());
+        if (count == 0) {
+            return -1;
+        }
+
+        _buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+
+        int count = (int) Math.max(0, Math.min(n, _buffer.remaining()));
+        _buffer.position(_buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+
+        return _buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+
+        _mark = _buffer.position();
+    }
+
+    @Override
+    public void reset() {
+
+        _buffer.position(_mark);
+    }
+}
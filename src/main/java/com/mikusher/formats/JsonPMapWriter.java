@@ -0,0 +1,219 @@
+package com.mikusher.formats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/***************************************************************************
+ *
+ * Writes PMAP documents as JSON, as a <code>{@link PMapVisitor}</code>.
+ *
+ * <p>Maps become objects and arrays become arrays. Dates are written as
+ * epoch millis, and the floating point values JSON can't represent (NaN and
+ * the infinities) as strings.</p>
+ *
+ ***************************************************************************/
+final class JsonPMapWriter implements PMapVisitor {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer _out;
+    // Whether a value has already been written in every open container
+    private boolean[] _filled = new boolean[16];
+    private int _depth = 0;
+
+
+    /***************************************************************************
+     *
+     * @param out
+     *            Flushed, but not closed, once the root map ends.
+     *
+     ***************************************************************************/
+    JsonPMapWriter(Writer out) {
+
+        _out = out;
+    }
+
+    @Override
+    public void startMap(String name) throws IOException {
+
+        start(name, '{');
+    }
+
+    @Override
+    public void endMap() throws IOException {
+
+        end('}');
+    }
+
+    @Override
+    public void startArray(String name) throws IOException {
+
+        start(name, '[');
+    }
+
+    @Override
+    public void endArray() throws IOException {
+
+        end(']');
+    }
+
+    @Override
+    public void stringValue(String name, String value) throws IOException {
+
+        name(name);
+        writeString(value);
+    }
+
+    @Override
+    public void intValue(String name, int value) throws IOException {
+
+        name(name);
+        _out.write(Integer.toString(value));
+    }
+
+    @Override
+    public void longValue(String name, long value) throws IOException {
+
+        name(name);
+        _out.write(Long.toString(value));
+    }
+
+    @Override
+    public void floatValue(String name, float value) throws IOException {
+
+        name(name);
+        writeNumber(Float.toString(value), Float.isFinite(value));
+    }
+
+    @Override
+    public void doubleValue(String name, double value) throws IOException {
+
+        name(name);
+        writeNumber(Double.toString(value), Double.isFinite(value));
+    }
+
+    @Override
+    public void booleanValue(String name, boolean value) throws IOException {
+
+        name(name);
+        _out.write(value ? "true" : "false");
+    }
+
+    @Override
+    public void decimalValue(String name, BigDecimal value) throws IOException {
+
+        name(name);
+        _out.write(value.toString());
+    }
+
+    @Override
+    public void dateValue(String name, long epochMillis) throws IOException {
+
+        name(name);
+        _out.write(Long.toString(epochMillis));
+    }
+
+    @Override
+    public void nullValue(String name) throws IOException {
+
+        name(name);
+        _out.write("null");
+    }
+
+    private void start(String name, char bracket) throws IOException {
+
+        name(name);
+        _out.write(bracket);
+        if (_depth == _filled.length) {
+            _filled = Arrays.copyOf(_filled, _depth * 2);
+        }
+        _filled[_depth++] = false;
+    }
+
+    private void end(char bracket) throws IOException {
+
+        _out.write(bracket);
+        if (--_depth == 0) {
+            _out.flush();
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Writes the separator before a value and its key, if any.
+     *
+     ***************************************************************************/
+    private void name(String name) throws IOException {
+
+        if (_depth == 0) {
+            return;
+        }
+
+        if (_filled[_depth - 1]) {
+            _out.write(',');
+        } else {
+            _filled[_depth - 1] = true;
+        }
+
+        if (name != null) {
+            writeString(name);
+            _out.write(':');
+        }
+    }
+
+    private void writeNumber(String text, boolean finite) throws IOException {
+
+        if (finite) {
+            _out.write(text);
+        } else {
+            _out.write('"');
+            _out.write(text);
+            _out.write('"');
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+
+        _out.write('"');
+        int length = value.length();
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+
+            // Flushes the characters that need no escaping in one go
+            _out.write(value, run, i - run);
+            run = i + 1;
+            switch (c) {
+                case '"':
+                    _out.write("\\\"");
+                    break;
+                case '\\':
+                    _out.write("\\\\");
+                    break;
+                case '\n':
+                    _out.write("\\n");
+                    break;
+                case '\r':
+                    _out.write("\\r");
+                    break;
+                case '\t':
+                    _out.write("\\t");
+                    break;
+                default:
+                    _out.write("\\u");
+                    _out.write(HEX[c >> 12 & 0xF]);
+                    _out.write(HEX[c >> 8 & 0xF]);
+                    _out.write(HEX[c >> 4 & 0xF]);
+                    _out.write(HEX[c & 0xF]);
+                    break;
+            }
+        }
+        _out.write(value, run, length - run);
+        _out.write('"');
+    }
+}
@@ -0,0 +1,241 @@
+package com.mikusher.formats;
+
+import com.mikusher.parameter.ParameterMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.util.*;
+import java.util.function.BiConsumer;
+
+/***************************************************************************
+ *
+ * Map over the region of a PMAP3 map. The first access builds a shallow
+ * index holding the key and offset of every entry, skipping over nested
+ * maps and arrays without reading them. Each value is then decoded the first
+ * time it is read, nested maps becoming lazy maps in turn.
+ *
+ * <p>The first change, or the first request for a collection view, decodes
+ * the remaining values into a regular <code>ParameterMap</code> that handles
+ * every call from then on. Lazy maps keep the whole document buffer
+ * reachable. Every method is synchronized so a map can be read from several
+ * threads.</p>
+ *
+ ***************************************************************************/
+final class LazyBinaryMap extends AbstractMap<String, Object> {
+
+    private static final int LINEAR_THRESHOLD = 8;
+
+    // Marks values that haven't been decoded yet
+    private static final Object UNREAD = new Object();
+
+    private final BinaryPMapReader _reader;
+    private final int _start;
+    private final int _end;
+
+    private String[] _keys = null;
+    private int[] _offsets = null;
+    private Object[] _values = null;
+    private Map<String, Integer> _positions = null;
+
+    private ParameterMap _materialized = null;
+
+
+    LazyBinaryMap(BinaryPMapReader reader, int start, int end) {
+
+        _reader = reader;
+        _start = start;
+        _end = end;
+    }
+
+    /***************************************************************************
+     *
+     * @return True once the map has been decoded into a regular
+     *         <code>ParameterMap</code>.
+     *
+     ***************************************************************************/
+    synchronized boolean isMaterialized() {
+
+        return _materialized != null;
+    }
+
+    private void index() {
+
+        if (_keys != null) {
+            return;
+        }
+
+        List<String> keys = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        try {
+            BinaryPMapReader reader = _reader.at(_start);
+            while (reader.position() < _end) {
+                keys.add(reader.readKey());
+                offsets.add(reader.position());
+                reader.skipValue();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (BufferUnderflowException e) {
+            throw new UncheckedIOException(BinaryPMapReader.truncated(e));
+        }
+
+        int size = keys.size();
+        _offsets = new int[size];
+        for (int i = 0; i < size; i++) {
+            _offsets[i] = offsets.get(i);
+        }
+        _values = new Object[size];
+        Arrays.fill(_values, UNREAD);
+
+        if (size > LINEAR_THRESHOLD) {
+            _positions = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                _positions.put(keys.get(i), i);
+            }
+        }
+        _keys = keys.toArray(new String[size]);
+    }
+
+    private int indexOf(Object key) {
+
+        index();
+        if (_positions != null) {
+            Integer position = _positions.get(key);
+            return position == null ? -1 : position;
+        }
+
+        for (int i = 0; i < _keys.length; i++) {
+            if (_keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Object valueAt(int index) {
+
+        Object value = _values[index];
+        if (value == UNREAD) {
+            try {
+                value = _reader.at(_offsets[index]).readValue();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (BufferUnderflowException e) {
+                throw new UncheckedIOException(BinaryPMapReader.truncated(e));
+            }
+            _values[index] = value;
+        }
+        return value;
+    }
+
+    private Map<String, Object> materialize() {
+
+        if (_materialized == null) {
+            index();
+            ParameterMap map = new ParameterMap(Math.max(4, _keys.length));
+            for (int i = 0; i < _keys.length; i++) {
+                map.put(_keys[i], valueAt(i));
+            }
+            _materialized = map;
+            _keys = null;
+            _offsets = null;
+            _values = null;
+            _positions = null;
+        }
+        return _materialized;
+    }
+
+    @Override
+    public synchronized int size() {
+
+        if (_materialized != null) {
+            return _materialized.size();
+        }
+
+        index();
+        return _keys.length;
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+
+        return size() == 0;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+
+        if (_materialized != null) {
+            return _materialized.containsKey(key);
+        }
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+
+        return getOrDefault(key, null);
+    }
+
+    @Override
+    public synchronized Object getOrDefault(Object key, Object defaultValue) {
+
+        if (_materialized != null) {
+            return _materialized.getOrDefault(key, defaultValue);
+        }
+
+        int index = indexOf(key);
+        return index >= 0 ? valueAt(index) : defaultValue;
+    }
+
+    @Override
+    public synchronized void forEach(BiConsumer<? super String, ? super Object> action) {
+
+        if (_materialized != null) {
+            _materialized.forEach(action);
+            return;
+        }
+
+        index();
+        for (int i = 0; i < _keys.length; i++) {
+            action.accept(_keys[i], valueAt(i));
+        }
+    }
+
+    @Override
+    public synchronized Object put(String key, Object value) {
+
+        return materialize().put(key, value);
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+
+        return materialize().remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+
+        materialize().clear();
+    }
+
+    @Override
+    public synchronized Set<String> keySet() {
+
+        return materialize().keySet();
+    }
+
+    @Override
+    public synchronized Collection<Object> values() {
+
+        return materialize().values();
+    }
+
+    @Override
+    public synchronized Set<Entry<String, Object>> entrySet() {
+
+        return materialize().entrySet();
+    }
+}
@@ -0,0 +1,86 @@
+package com.mikusher.formats;
+
+import com.mikusher.parameter.ParameterMap;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/***************************************************************************
+ *
+ * A <code>ParameterMap</code> read lazily from a binary PMAP3 document. The
+ * document buffer is kept as it is: the first access builds an index of
+ * the offsets of the top level entries and each value, or nested subtree, is
+ * only decoded when it is read. Reading a few keys out of a large document
+ * therefore costs little more than those keys.
+ *
+ * <p>The first change of a level decodes that level into a regular
+ * <code>ParameterMap</code>, so the map behaves as usual from then on.
+ * Nested maps are lazy as well. The buffer must not be changed while any
+ * part of the map is still unread.</p>
+ *
+ * @see StreamedPMapParser#ByteArrayToLazyPMAP(StreamedPMapParser.SerializationType, byte[])
+ *
+ ***************************************************************************/
+public class LazyParameterMap extends ParameterMap {
+
+    /***************************************************************************
+     *
+     * @param content
+     *            A PMAP3 document.
+     *
+     * @exception IOException
+     *                Thrown if <code>content</code> isn't a PMAP3 document.
+     *
+     ***************************************************************************/
+    public LazyParameterMap(byte[] content) throws IOException {
+
+        this(ByteBuffer.wrap(content));
+    }
+
+    /***************************************************************************
+     *
+     * @param buffer
+     *            Buffer holding a PMAP3 document from its position on. It may
+     *            be a direct or memory mapped buffer.
+     *
+     * @exception IOException
+     *                Thrown if <code>buffer</code> doesn't hold a PMAP3
+     *                document.
+     *
+     ***************************************************************************/
+    public LazyParameterMap(ByteBuffer buffer) throws IOException {
+
+        super(root(buffer));
+    }
+
+    private static LazyBinaryMap root(ByteBuffer buffer) throws IOException {
+
+        BinaryPMapReader reader = new BinaryPMapReader(buffer, true);
+        try {
+            reader.readRootTag();
+            int end = reader.readContainerEnd();
+            return new LazyBinaryMap(reader, reader.position(), end);
+        } catch (BufferUnderflowException e) {
+            throw BinaryPMapReader.truncated(e);
+        }
+    }
+
+    /***************************************************************************
+     *
+     * @return True once the top level of this map has been decoded, either
+     *         because it was changed or because one of its collection views
+     *         was requested.
+     *
+     ***************************************************************************/
+    public boolean isMaterialized() {
+
+        return !(_params instanceof LazyBinaryMap) || ((LazyBinaryMap) _params).isMaterialized();
+    }
+
+    @Override
+    protected ParameterMap newInstance() {
+
+        return new ParameterMap(Math.max(4, size()));
+    }
+}
@@ -0,0 +1,874 @@
+package com.mikusher.formats;
+
+import com.mikusher.converters.DateCodec;
+import com.mikusher.parameter.PMapType;
+import com.mikusher.parameter.ParameterMap;
+import com.mikusher.parameter.ParameterPath;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/***************************************************************************
+ *
+ * Reads PMAP2 documents straight from their UTF-8 bytes, without StAX.
+ *
+ * <p>PMAP2 only uses the one letter tags of <code>PMapType</code> and the
+ * <code>n</code> attribute, so elements are recognised by their first byte,
+ * integers are parsed from the bytes and repeated keys are decoded once.
+ * Line ends and the whitespace of attributes are normalized as by StAX.
+ * Anything outside that vocabulary, or outside the plain XML the writer
+ * produces (comments, CDATA, DTDs, other encodings), and any malformed or
+ * invalid value, makes <code>{@link #read()}</code> return null so the
+ * document can be parsed by StAX instead, which gives the same result or
+ * the same error as before.</p>
+ *
+ * <p>The document is read from a byte array or, such as a mapped file,
+ * from a <code>ByteBuffer</code>. The elements of a large array can also be
+ * located, without reading their values, and then read one by one, or in
+ * parallel by several readers.</p>
+ *
+ ***************************************************************************/
+final class PMap2Reader {
+
+    private static final PMapType[] TYPES = new PMapType[128];
+    private static final int KEY_CACHE_SIZE = 256;
+    private static final int MAX_CACHED_KEY_LENGTH = 32;
+
+    static {
+        for (PMapType type : PMapType.values()) {
+            String name = type.getShortName();
+            if (name.length() == 1 && name.charAt(0) < 128) {
+                TYPES[name.charAt(0)] = type;
+            }
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Thrown when the document has to be parsed by StAX. Preallocated, as
+     * it's only used to unwind.
+     *
+     ***************************************************************************/
+    private static final class Unsupported extends Exception {
+
+        private static final long serialVersionUID = 1L;
+        static final Unsupported INSTANCE = new Unsupported();
+
+        private Unsupported() {
+
+            super(null, null, false, false);
+        }
+    }
+
+    private final StreamedPMapParser _parser;
+    // Read by absolute positions, so it can be shared by several readers
+    private final ByteBuffer _bytes;
+    private final int _limit;
+    private int _position;
+
+    // Text of the last leaf: the bytes, or the decoded string when it had
+    // entities, non ASCII characters or carriage returns
+    private int _textStart;
+    private int _textEnd;
+    private String _decoded;
+    // Value of the n attribute of the last start tag
+    private String _key;
+
+    private final String[] _keys = new String[KEY_CACHE_SIZE];
+    private char[] _chars = new char[64];
+    private byte[] _copy = new byte[64];
+
+
+    PMap2Reader(StreamedPMapParser parser, byte[] bytes, int offset, int length) {
+
+        this(parser, ByteBuffer.wrap(bytes), offset, offset + length);
+    }
+
+    /***************************************************************************
+     *
+     * Reads the document from the position to the limit of
+     * <code>bytes</code>, whose offsets are the ones of the buffer.
+     *
+     ***************************************************************************/
+    PMap2Reader(StreamedPMapParser parser, ByteBuffer bytes) {
+
+        this(parser, bytes, bytes.position(), bytes.limit());
+    }
+
+    private PMap2Reader(StreamedPMapParser parser, ByteBuffer bytes, int position, int limit) {
+
+        _parser = parser;
+        _bytes = bytes;
+        _position = position;
+        _limit = limit;
+    }
+
+    /***************************************************************************
+     *
+     * @return The root map of the document, or null if it has to be read by
+     *         StAX.
+     *
+     ***************************************************************************/
+    ParameterMap read() {
+
+        try {
+            readProlog();
+            if (next() != '<' || next() != 'm') {
+                throw Unsupported.INSTANCE;
+            }
+            ParameterMap map = new ParameterMap();
+            // The name of the root map, if any, is ignored as StAX does
+            if (!readStartTag()) {
+                readMap(map);
+            }
+            return map;
+        } catch (Unsupported | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Locates the elements of the array at <code>path</code>, made of map
+     * keys from the root, without reading any value. The elements before the
+     * array are only checked to be well formed.
+     *
+     * @return The offset of the start tag of every element, followed by the
+     *         offset of the end of the array, or null if there is no such
+     *         array or the document has to be read by StAX.
+     *
+     ***************************************************************************/
+    int[] findElements(ParameterPath path) {
+
+        try {
+            readProlog();
+            if (next() != '<' || next() != 'm') {
+                throw Unsupported.INSTANCE;
+            }
+            boolean empty = readStartTag();
+
+            for (int i = 0; i < path.size(); i++) {
+                if (empty || path.isIndex(i)) {
+                    return null;
+                }
+                if (!findEntry(path.getKey(i), i == path.size() - 1 ? 'a' : 'm')) {
+                    return null;
+                }
+                empty = readStartTag();
+            }
+
+            int[] offsets = new int[16];
+            int count = 0;
+            while (!empty) {
+                skipWhitespace();
+                int start = _position;
+                if (next() != '<') {
+                    throw Unsupported.INSTANCE;
+                }
+                int c = next();
+                if (c == '/') {
+                    readEndTag('a');
+                    _position = start;
+                    break;
+                }
+
+                type(c);
+                if (count == offsets.length - 1) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[count++] = start;
+                if (!readStartTag()) {
+                    skipContent(c);
+                }
+            }
+            offsets[count] = _position;
+            return Arrays.copyOf(offsets, count + 1);
+        } catch (Unsupported | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Reads the map whose start tag is at <code>position</code>, as located
+     * by <code>{@link #findElements(ParameterPath)}</code>.
+     *
+     * @return The map, or null if it has to be read by StAX.
+     *
+     ***************************************************************************/
+    ParameterMap readMap(int position) {
+
+        _position = position;
+        try {
+            if (next() != '<' || next() != 'm') {
+                throw Unsupported.INSTANCE;
+            }
+            ParameterMap map = new ParameterMap();
+            if (!readStartTag()) {
+                readMap(map);
+            }
+            return map;
+        } catch (Unsupported | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Skips the entries of the open map up to the one named
+     * <code>key</code>, whose tag name has been read.
+     *
+     * @return Whether the entry was found before the end of the map.
+     *
+     ***************************************************************************/
+    private boolean findEntry(String key, int tag) throws Unsupported {
+
+        while (true) {
+            skipWhitespace();
+            if (next() != '<') {
+                throw Unsupported.INSTANCE;
+            }
+            int c = next();
+            if (c == '/') {
+                return false;
+            }
+
+            type(c);
+            int start = _position;
+            boolean empty = readStartTag();
+            if (c == tag && key.equals(_key)) {
+                _position = start;
+                return true;
+            }
+            if (!empty) {
+                skipContent(c);
+            }
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Skips the content and the end tag of an element whose start tag has
+     * been read.
+     *
+     ***************************************************************************/
+    private void skipContent(int tag) throws Unsupported {
+
+        if (tag != 'm' && tag != 'a') {
+            scanText();
+            readEndTag(tag);
+            return;
+        }
+
+        while (true) {
+            skipWhitespace();
+            if (next() != '<') {
+                throw Unsupported.INSTANCE;
+            }
+            int c = next();
+            if (c == '/') {
+                readEndTag(tag);
+                return;
+            }
+
+            type(c);
+            if (!readStartTag()) {
+                skipContent(c);
+            }
+        }
+    }
+
+    private void readProlog() throws Unsupported {
+
+        if (startsWith('<', '?', 'x', 'm', 'l', ' ')) {
+            int end = indexOf('?', '>');
+            String declaration = latin1(_position, end - _position);
+            int encoding = declaration.indexOf("encoding");
+            if (encoding >= 0) {
+                String value = declaration.substring(encoding + "encoding".length()).replaceAll("[\\s=\"']", " ")
+                        .trim();
+                int space = value.indexOf(' ');
+                if (!(space < 0 ? value : value.substring(0, space)).equalsIgnoreCase("UTF-8")) {
+                    throw Unsupported.INSTANCE;
+                }
+            }
+            _position = end + 2;
+        }
+
+        skipWhitespace();
+    }
+
+    /***************************************************************************
+     *
+     * Reads the rest of a start tag whose name has just been read: at most
+     * a <code>n</code> attribute, left in <code>_key</code>.
+     *
+     * @return Whether the element is empty (<code>/&gt;</code>).
+     *
+     ***************************************************************************/
+    private boolean readStartTag() throws Unsupported {
+
+        _key = null;
+        while (true) {
+            int c = next();
+            if (c == '>') {
+                return false;
+            }
+            if (c == '/') {
+                if (next() != '>') {
+                    throw Unsupported.INSTANCE;
+                }
+                return true;
+            }
+            if (!isWhitespace(c)) {
+                throw Unsupported.INSTANCE;
+            }
+
+            skipWhitespace();
+            if (peek() == '>' || peek() == '/') {
+                continue;
+            }
+            if (next() != 'n' || _key != null) {
+                throw Unsupported.INSTANCE;
+            }
+            skipWhitespace();
+            if (next() != '=') {
+                throw Unsupported.INSTANCE;
+            }
+            skipWhitespace();
+            _key = readAttribute();
+        }
+    }
+
+    private String readAttribute() throws Unsupported {
+
+        int quote = next();
+        if (quote != '"' && quote != '\'') {
+            throw Unsupported.INSTANCE;
+        }
+
+        int start = _position;
+        int hash = 0;
+        boolean simple = true;
+        while (true) {
+            int c = next();
+            if (c == quote) {
+                break;
+            }
+            if (c == '<' || c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                throw Unsupported.INSTANCE;
+            }
+            if (c >= 0x80 || c == '&' || c < 0x20) {
+                // Tabs and line ends are normalized to spaces in attributes
+                simple = false;
+            }
+            hash = 31 * hash + c;
+        }
+
+        int end = _position - 1;
+        if (!simple) {
+            return decode(start, end, true);
+        }
+
+        int length = end - start;
+        if (length > MAX_CACHED_KEY_LENGTH) {
+            return latin1(start, length);
+        }
+
+        int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+        String key = _keys[slot];
+        if (key == null || !matches(key, start, length)) {
+            key = latin1(start, length);
+            _keys[slot] = key;
+        }
+        return key;
+    }
+
+    private boolean matches(String key, int start, int length) {
+
+        if (key.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key.charAt(i) != _bytes.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /***************************************************************************
+     *
+     * Reads the entries of a map up to its end tag.
+     *
+     ***************************************************************************/
+    private void readMap(Map<String, Object> map) throws Unsupported {
+
+        while (true) {
+            skipWhitespace();
+            if (next() != '<') {
+                throw Unsupported.INSTANCE;
+            }
+            int c = next();
+            if (c == '/') {
+                readEndTag('m');
+                return;
+            }
+
+            PMapType type = type(c);
+            boolean empty = readStartTag();
+            String key = _key;
+            map.put(key, readValue(type, c, empty));
+        }
+    }
+
+    private List<Object> readList() throws Unsupported {
+
+        List<Object> list = new ArrayList<>();
+        while (true) {
+            skipWhitespace();
+            if (next() != '<') {
+                throw Unsupported.INSTANCE;
+            }
+            int c = next();
+            if (c == '/') {
+                readEndTag('a');
+                return list;
+            }
+
+            PMapType type = type(c);
+            boolean empty = readStartTag();
+            list.add(readValue(type, c, empty));
+        }
+    }
+
+    private Object readValue(PMapType type, int tag, boolean empty) throws Unsupported {
+
+        switch (type) {
+            case MAP:
+                ParameterMap map = new ParameterMap();
+                if (!empty) {
+                    readMap(map);
+                }
+                return map;
+            case ARRAY:
+                return empty ? new ArrayList<>() : readList();
+            default:
+                break;
+        }
+
+        if (empty) {
+            _textStart = _textEnd = _position;
+            _decoded = null;
+        } else {
+            readText();
+            readEndTag(tag);
+        }
+
+        try {
+            switch (type) {
+                case STRING:
+                    return text();
+                case INT:
+                    if (_decoded == null) {
+                        long value = parseLong(9);
+                        if (value != Long.MIN_VALUE) {
+                            return (int) value;
+                        }
+                    }
+                    return Integer.valueOf(text());
+                case LONG:
+                    if (_decoded == null) {
+                        long value = parseLong(18);
+                        if (value != Long.MIN_VALUE) {
+                            return value;
+                        }
+                    }
+                    return Long.valueOf(text());
+                case FLOAT:
+                    return Float.valueOf(text());
+                case DOUBLE:
+                    return Double.valueOf(text());
+                case BOOLEAN:
+                    return Boolean.valueOf(text());
+                case DATE:
+                    if (_decoded == null) {
+                        long millis = parseDate();
+                        if (millis != DateCodec.INVALID) {
+                            return new Date(millis);
+                        }
+                    }
+                    return _parser.parseDate(text());
+                case DECIMAL:
+                    return new BigDecimal(text());
+                default:
+                    return null;
+            }
+        } catch (Exception e) {
+            // Reported by StAX
+            throw Unsupported.INSTANCE;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Parses the text of the last leaf as an optional sign followed by at
+     * most <code>maxDigits</code> digits, which can't overflow.
+     *
+     * @return The value, or <code>Long.MIN_VALUE</code> if the text isn't
+     *         in that form.
+     *
+     ***************************************************************************/
+    private long parseLong(int maxDigits) {
+
+        int i = _textStart;
+        boolean negative = false;
+        if (i < _textEnd && (_bytes.get(i) == '-' || _bytes.get(i) == '+')) {
+            negative = _bytes.get(i) == '-';
+            i++;
+        }
+
+        int digits = _textEnd - i;
+        if (digits == 0 || digits > maxDigits) {
+            return Long.MIN_VALUE;
+        }
+
+        long value = 0;
+        for (; i < _textEnd; i++) {
+            int digit = _bytes.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private long parseDate() {
+
+        int length = _textEnd - _textStart;
+        if (_bytes.hasArray()) {
+            return DateCodec.parse(_bytes.array(), _bytes.arrayOffset() + _textStart, length);
+        }
+        return length == DateCodec.LENGTH ? DateCodec.parse(copy(_textStart, length), 0, length) : DateCodec.INVALID;
+    }
+
+    private String text() throws Unsupported {
+
+        if (_decoded != null) {
+            return _decoded;
+        }
+        return latin1(_textStart, _textEnd - _textStart);
+    }
+
+    /***************************************************************************
+     *
+     * @return The ASCII bytes from <code>start</code> as a string.
+     *
+     ***************************************************************************/
+    private String latin1(int start, int length) {
+
+        if (_bytes.hasArray()) {
+            return new String(_bytes.array(), _bytes.arrayOffset() + start, length, StandardCharsets.ISO_8859_1);
+        }
+        return new String(copy(start, length), 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /***************************************************************************
+     *
+     * @return A buffer starting with a copy of the <code>length</code> bytes
+     *         from <code>start</code>, for buffers without an array.
+     *
+     ***************************************************************************/
+    private byte[] copy(int start, int length) {
+
+        if (_copy.length < length) {
+            _copy = new byte[Math.max(length, _copy.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            _copy[i] = _bytes.get(start + i);
+        }
+        return _copy;
+    }
+
+    /***************************************************************************
+     *
+     * Reads the text of a leaf up to the next tag, which must be an end tag.
+     *
+     ***************************************************************************/
+    private void readText() throws Unsupported {
+
+        boolean simple = scanText();
+        _decoded = simple ? null : decode(_textStart, _textEnd, false);
+    }
+
+    /***************************************************************************
+     *
+     * Finds the text of a leaf, without decoding it, up to the next tag,
+     * which must be an end tag.
+     *
+     * @return Whether the text is ASCII without references or carriage
+     *         returns, which is the text itself.
+     *
+     ***************************************************************************/
+    private boolean scanText() throws Unsupported {
+
+        int start = _position;
+        boolean simple = true;
+        while (true) {
+            int c = next();
+            if (c == '<') {
+                break;
+            }
+            if (c < 0x20 && c != '\t' && c != '\n') {
+                if (c != '\r') {
+                    throw Unsupported.INSTANCE;
+                }
+                // Line ends are normalized when decoded
+                simple = false;
+            }
+            if (c == '>' && _position - start >= 3 && _bytes.get(_position - 2) == ']'
+                    && _bytes.get(_position - 3) == ']') {
+                throw Unsupported.INSTANCE;
+            }
+            if (c >= 0x80 || c == '&') {
+                simple = false;
+            }
+        }
+
+        int end = _position - 1;
+        if (peek() != '/') {
+            throw Unsupported.INSTANCE;
+        }
+        _position++;
+
+        _textStart = start;
+        _textEnd = end;
+        return simple;
+    }
+
+    /***************************************************************************
+     *
+     * Reads an end tag once <code>&lt;/</code> has been read.
+     *
+     ***************************************************************************/
+    private void readEndTag(int tag) throws Unsupported {
+
+        if (next() != tag) {
+            throw Unsupported.INSTANCE;
+        }
+        skipWhitespace();
+        if (next() != '>') {
+            throw Unsupported.INSTANCE;
+        }
+    }
+
+    private static PMapType type(int tag) throws Unsupported {
+
+        PMapType type = tag < 128 ? TYPES[tag] : null;
+        if (type == null) {
+            throw Unsupported.INSTANCE;
+        }
+        return type;
+    }
+
+    /***************************************************************************
+     *
+     * Decodes UTF-8 bytes with the predefined and character references.
+     * Line ends are normalized to <code>\n</code> and, in attributes, tabs
+     * and line ends to spaces, but not the ones written as references.
+     *
+     ***************************************************************************/
+    private String decode(int start, int end, boolean attribute) throws Unsupported {
+
+        if (_chars.length < end - start) {
+            _chars = new char[Math.max(end - start, _chars.length * 2)];
+        }
+
+        char[] chars = _chars;
+        int length = 0;
+        int i = start;
+        while (i < end) {
+            int b = _bytes.get(i++);
+            if (b >= 0 && b != '&') {
+                if (b == '\r') {
+                    if (i < end && _bytes.get(i) == '\n') {
+                        i++;
+                    }
+                    b = '\n';
+                }
+                if (attribute && (b == '\n' || b == '\t')) {
+                    b = ' ';
+                }
+                chars[length++] = (char) b;
+                continue;
+            }
+
+            int codePoint;
+            if (b == '&') {
+                int semicolon = i;
+                while (semicolon < end && _bytes.get(semicolon) != ';') {
+                    semicolon++;
+                }
+                if (semicolon == end) {
+                    throw Unsupported.INSTANCE;
+                }
+                codePoint = reference(i, semicolon);
+                i = semicolon + 1;
+            } else if ((b & 0xE0) == 0xC0) {
+                codePoint = (b & 0x1F) << 6 | continuation(i++, end);
+                if (codePoint < 0x80) {
+                    throw Unsupported.INSTANCE;
+                }
+            } else if ((b & 0xF0) == 0xE0) {
+                codePoint = (b & 0x0F) << 12 | continuation(i++, end) << 6 | continuation(i++, end);
+                if (codePoint < 0x800 || Character.isSurrogate((char) codePoint)) {
+                    throw Unsupported.INSTANCE;
+                }
+            } else if ((b & 0xF8) == 0xF0) {
+                codePoint = (b & 0x07) << 18 | continuation(i++, end) << 12 | continuation(i++, end) << 6
+                        | continuation(i++, end);
+                if (codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) {
+                    throw Unsupported.INSTANCE;
+                }
+            } else {
+                throw Unsupported.INSTANCE;
+            }
+
+            if (codePoint == 0xFFFE || codePoint == 0xFFFF) {
+                throw Unsupported.INSTANCE;
+            }
+            if (codePoint >= 0x10000) {
+                chars[length++] = Character.highSurrogate(codePoint);
+                chars[length++] = Character.lowSurrogate(codePoint);
+            } else {
+                chars[length++] = (char) codePoint;
+            }
+        }
+        return new String(chars, 0, length);
+    }
+
+    private int continuation(int index, int end) throws Unsupported {
+
+        if (index >= end || (_bytes.get(index) & 0xC0) != 0x80) {
+            throw Unsupported.INSTANCE;
+        }
+        return _bytes.get(index) & 0x3F;
+    }
+
+    private int reference(int start, int end) throws Unsupported {
+
+        int length = end - start;
+        if (length >= 2 && _bytes.get(start) == '#') {
+            int radix = 10;
+            int i = start + 1;
+            if (_bytes.get(i) == 'x') {
+                radix = 16;
+                i++;
+            }
+            if (i == end || end - i > 7) {
+                throw Unsupported.INSTANCE;
+            }
+            int codePoint = 0;
+            for (; i < end; i++) {
+                int digit = Character.digit(_bytes.get(i), radix);
+                if (digit < 0) {
+                    throw Unsupported.INSTANCE;
+                }
+                codePoint = codePoint * radix + digit;
+            }
+            if (codePoint < 0x20 && codePoint != '\t' && codePoint != '\n' && codePoint != '\r'
+                    || codePoint >= 0xD800 && codePoint <= 0xDFFF || codePoint > Character.MAX_CODE_POINT) {
+                throw Unsupported.INSTANCE;
+            }
+            return codePoint;
+        }
+
+        if (is(start, length, "lt")) {
+            return '<';
+        }
+        if (is(start, length, "gt")) {
+            return '>';
+        }
+        if (is(start, length, "amp")) {
+            return '&';
+        }
+        if (is(start, length, "quot")) {
+            return '"';
+        }
+        if (is(start, length, "apos")) {
+            return '\'';
+        }
+        throw Unsupported.INSTANCE;
+    }
+
+    private boolean is(int start, int length, String name) {
+
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (_bytes.get(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int next() throws Unsupported {
+
+        if (_position >= _limit) {
+            throw Unsupported.INSTANCE;
+        }
+        return _bytes.get(_position++) & 0xFF;
+    }
+
+    private int peek() throws Unsupported {
+
+        if (_position >= _limit) {
+            throw Unsupported.INSTANCE;
+        }
+        return _bytes.get(_position) & 0xFF;
+    }
+
+    private void skipWhitespace() {
+
+        while (_position < _limit && isWhitespace(_bytes.get(_position))) {
+            _position++;
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private boolean startsWith(int... prefix) {
+
+        if (_limit - _position < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((_bytes.get(_position + i) & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int indexOf(int first, int second) throws Unsupported {
+
+        for (int i = _position; i + 1 < _limit; i++) {
+            if (_bytes.get(i) == first && _bytes.get(i + 1) == second) {
+                return i;
+            }
+        }
+        throw Unsupported.INSTANCE;
+    }
+}
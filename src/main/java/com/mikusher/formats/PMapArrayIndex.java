@@ -0,0 +1,140 @@
+package com.mikusher.formats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/***************************************************************************
+ *
+ * Byte offsets of the elements of an array in a PMAP2 document, so that a
+ * page of elements can be read without going through the ones before it.
+ *
+ * <p>An index is built by
+ * <code>{@link StreamedPMapParser#buildArrayIndex(byte[], String)}</code>
+ * and used by the range reads of the parser over the same document. It can
+ * be kept next to the document with <code>{@link #write(OutputStream)}</code>
+ * and loaded back with <code>{@link #read(InputStream)}</code>. Indexes are
+ * immutable.</p>
+ *
+ ***************************************************************************/
+public final class PMapArrayIndex {
+
+    private static final int MAGIC = 0x504D4958;
+    private static final int VERSION = 1;
+
+    private final String _arrayPath;
+    private final long _documentLength;
+    // Start of every element followed by the end of the last one
+    private final long[] _offsets;
+
+
+    PMapArrayIndex(String arrayPath, long documentLength, long[] offsets) {
+
+        _arrayPath = arrayPath;
+        _documentLength = documentLength;
+        _offsets = offsets;
+    }
+
+    /***************************************************************************
+     *
+     * Reads an index written by <code>{@link #write(OutputStream)}</code>.
+     * The stream isn't closed.
+     *
+     ***************************************************************************/
+    public static PMapArrayIndex read(InputStream is) throws IOException {
+
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            throw new IOException("Invalid data -> not a PMAP array index");
+        }
+
+        String arrayPath = in.readUTF();
+        long documentLength = in.readLong();
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid data -> size " + size);
+        }
+
+        long[] offsets = new long[size + 1];
+        offsets[0] = in.readLong();
+        for (int i = 1; i <= size; i++) {
+            offsets[i] = offsets[i - 1] + (in.readInt() & 0xFFFFFFFFL);
+        }
+        return new PMapArrayIndex(arrayPath, documentLength, offsets);
+    }
+
+    /***************************************************************************
+     *
+     * Writes the index, the offsets as the length of every element. The
+     * stream is flushed but not closed.
+     *
+     ***************************************************************************/
+    public void write(OutputStream os) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(_arrayPath);
+        out.writeLong(_documentLength);
+        out.writeInt(size());
+        out.writeLong(_offsets[0]);
+        for (int i = 1; i < _offsets.length; i++) {
+            out.writeInt((int) (_offsets[i] - _offsets[i - 1]));
+        }
+        out.flush();
+    }
+
+    /***************************************************************************
+     *
+     * @return The path, made of map keys from the root, of the indexed
+     *         array.
+     *
+     ***************************************************************************/
+    public String getArrayPath() {
+
+        return _arrayPath;
+    }
+
+    /***************************************************************************
+     *
+     * @return The length of the indexed document, checked before it's read
+     *         through the index.
+     *
+     ***************************************************************************/
+    public long getDocumentLength() {
+
+        return _documentLength;
+    }
+
+    /***************************************************************************
+     *
+     * @return The number of elements of the array.
+     *
+     ***************************************************************************/
+    public int size() {
+
+        return _offsets.length - 1;
+    }
+
+    /***************************************************************************
+     *
+     * @param n
+     *            From 0 to <code>{@link #size()}</code>, which gives the end
+     *            of the last element.
+     *
+     * @return The offset of the start tag of element <code>n</code>.
+     *
+     ***************************************************************************/
+    public long getOffset(int n) {
+
+        return _offsets[n];
+    }
+
+    @Override
+    public String toString() {
+
+        return "PMapArrayIndex[" + _arrayPath + ", " + size() + " elements]";
+    }
+}
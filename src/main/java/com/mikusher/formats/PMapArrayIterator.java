@@ -0,0 +1,167 @@
+package com.mikusher.formats;
+
+import com.mikusher.error.SatelliteError;
+import com.mikusher.formats.PMapCursor.Event;
+import com.mikusher.parameter.ParameterMap;
+import com.mikusher.parameter.ParameterPath;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/***************************************************************************
+ *
+ * Iterates over the maps of an array of a PMAP document, in any of the
+ * serialization formats, reading one map at a time from the input as the
+ * iterator is pulled, so exports larger than the heap can be processed.
+ *
+ * <p>The input is closed once the array has been read, when an error
+ * occurs, or by <code>{@link #close()}</code> if the iteration stops early.
+ * Errors while reading are thrown as <code>{@link SatelliteError}</code>.
+ * Iterators are not thread safe.</p>
+ *
+ * @see StreamedPMapParser#iterateArray(java.io.InputStream, String)
+ *
+ ***************************************************************************/
+public final class PMapArrayIterator implements Iterator<ParameterMap>, Closeable {
+
+    private final PMapCursor _cursor;
+    private ParameterMap _next;
+    private boolean _done;
+
+
+    /***************************************************************************
+     *
+     * Moves <code>cursor</code>, that hasn't moved yet, to the start of the
+     * array at <code>path</code>. The iterator is empty if there's no such
+     * array.
+     *
+     ***************************************************************************/
+    PMapArrayIterator(PMapCursor cursor, ParameterPath path) throws XMLStreamException, IOException {
+
+        _cursor = cursor;
+        try {
+            if (!moveTo(path)) {
+                close();
+            }
+        } catch (XMLStreamException | IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private boolean moveTo(ParameterPath path) throws XMLStreamException, IOException {
+
+        if (_cursor.next() != Event.START_MAP) {
+            return false;
+        }
+
+        for (int i = 0; i < path.size(); i++) {
+            Event wanted = i == path.size() - 1 || path.isIndex(i + 1) ? Event.START_ARRAY : Event.START_MAP;
+            int position = 0;
+            while (true) {
+                Event event = _cursor.next();
+                if (event == Event.END || event == Event.END_DOCUMENT) {
+                    return false;
+                }
+
+                boolean match = path.isIndex(i) ? position++ == path.getIndex(i)
+                        : path.getKey(i).equals(_cursor.getName());
+                if (match) {
+                    if (event != wanted) {
+                        return false;
+                    }
+                    break;
+                }
+                _cursor.skip();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+        if (_next == null && !_done) {
+            _next = read();
+        }
+        return _next != null;
+    }
+
+    @Override
+    public ParameterMap next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ParameterMap map = _next;
+        _next = null;
+        return map;
+    }
+
+    /***************************************************************************
+     *
+     * Reads up to <code>size</code> maps.
+     *
+     * @return The maps read, none once the array has been read.
+     *
+     ***************************************************************************/
+    public List<ParameterMap> nextBatch(int size) {
+
+        List<ParameterMap> batch = new ArrayList<>(Math.min(size, 1024));
+        while (batch.size() < size && hasNext()) {
+            batch.add(next());
+        }
+        return batch;
+    }
+
+    /***************************************************************************
+     *
+     * Reads the next element of the array.
+     *
+     * @return The map, or null once the array has ended.
+     *
+     ***************************************************************************/
+    private ParameterMap read() {
+
+        try {
+            switch (_cursor.next()) {
+                case START_MAP:
+                    return _cursor.readMap();
+                case END:
+                case END_DOCUMENT:
+                    close();
+                    return null;
+                default:
+                    throw new XMLStreamException("Invalid Type - " + _cursor.getType());
+            }
+        } catch (XMLStreamException | IOException | RuntimeException e) {
+            close();
+            throw e instanceof SatelliteError ? (SatelliteError) e : new SatelliteError(e.toString(), e);
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Closes the input, once. Errors while closing it are ignored.
+     *
+     ***************************************************************************/
+    @Override
+    public void close() {
+
+        _next = null;
+        if (_done) {
+            return;
+        }
+        _done = true;
+        try {
+            _cursor.close();
+        } catch (IOException e) {
+            // Nothing left to read from it
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.mikusher.formats;
+
+import com.mikusher.error.IncorrectTypeException;
+import com.mikusher.parameter.PMapType;
+import com.mikusher.parameter.ParameterMap;
+import com.mikusher.parameter.ParameterTypes;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/***************************************************************************
+ *
+ * Pull cursor over a PMAP document, in any of the serialization formats.
+ * Each call to <code>{@link #next()}</code> moves to the next event:
+ *
+ * <ul>
+ * <li><code>START_MAP</code> and <code>START_ARRAY</code> when a map or an
+ * array starts. The root map is the first event of every document.</li>
+ * <li><code>VALUE</code> for every other value, whose type is returned by
+ * <code>{@link #getType()}</code> and whose content by the typed
+ * accessors.</li>
+ * <li><code>END</code> when the innermost map or array ends.</li>
+ * <li><code>END_DOCUMENT</code> once the root map has ended.</li>
+ * </ul>
+ *
+ * <p>The name of the current element is the key of the entry, or null for
+ * the values of an array and the root map. Only the current value is held
+ * in memory, so documents of any size can be scanned in constant memory.
+ * Subtrees can be skipped with <code>{@link #skip()}</code> or read whole
+ * with <code>{@link #readMap()}</code> and <code>{@link #readList()}</code>.</p>
+ *
+ * <p>Cursors are not thread safe. Closing a cursor closes its input.</p>
+ *
+ * @see StreamedPMapParser#getCursor(java.io.InputStream)
+ *
+ ***************************************************************************/
+public abstract class PMapCursor implements Closeable {
+
+    public enum Event {
+        START_MAP,
+        START_ARRAY,
+        VALUE,
+        END,
+        END_DOCUMENT
+    }
+
+    protected Event _event = null;
+    protected String _name = null;
+    protected PMapType _type = null;
+    protected int _depth = 0;
+
+
+    /***************************************************************************
+     *
+     * Moves to the next event of the document.
+     *
+     * @return The new current event. Once the document has ended this is
+     *         always <code>END_DOCUMENT</code>.
+     *
+     ***************************************************************************/
+    public abstract Event next() throws XMLStreamException, IOException;
+
+    /***************************************************************************
+     *
+     * @return The current value, boxed. Maps and arrays aren't values: use
+     *         <code>{@link #readMap()}</code> or <code>{@link #readList()}</code>.
+     *
+     * @exception IncorrectTypeException
+     *                Thrown if the text of an XML value can't be parsed as its
+     *                type.
+     *
+     ***************************************************************************/
+    public abstract Object value() throws IncorrectTypeException;
+
+    public Event getEvent() {
+
+        return _event;
+    }
+
+    /***************************************************************************
+     *
+     * @return The key of the current element, or null for the elements of an
+     *         array and for the root map.
+     *
+     ***************************************************************************/
+    public String getName() {
+
+        return _name;
+    }
+
+    /***************************************************************************
+     *
+     * @return The type of the current element: <code>MAP</code> or
+     *         <code>ARRAY</code> on the start events, the type of the value
+     *         on <code>VALUE</code> and null on the others.
+     *
+     ***************************************************************************/
+    public PMapType getType() {
+
+        return _type;
+    }
+
+    /***************************************************************************
+     *
+     * @return The number of maps and arrays open at the current event,
+     *         counting the one that starts there. The root map is at depth 1
+     *         and its values as well.
+     *
+     ***************************************************************************/
+    public int getDepth() {
+
+        return _depth;
+    }
+
+    public boolean isNull() {
+
+        return _event == Event.VALUE && _type == PMapType.NULL;
+    }
+
+    public String stringValue() throws IncorrectTypeException {
+
+        return (String) ParameterTypes.String.cast(value());
+    }
+
+    public int intValue() throws IncorrectTypeException {
+
+        return (Integer) notNull(ParameterTypes.Integer.cast(value()), Integer.class);
+    }
+
+    public long longValue() throws IncorrectTypeException {
+
+        return (Long) notNull(ParameterTypes.Long.cast(value()), Long.class);
+    }
+
+    public float floatValue() throws IncorrectTypeException {
+
+        return (Float) notNull(ParameterTypes.Float.cast(value()), Float.class);
+    }
+
+    public double doubleValue() throws IncorrectTypeException {
+
+        return (Double) notNull(ParameterTypes.Double.cast(value()), Double.class);
+    }
+
+    public boolean booleanValue() throws IncorrectTypeException {
+
+        return (Boolean) notNull(ParameterTypes.Boolean.cast(value()), Boolean.class);
+    }
+
+    public BigDecimal decimalValue() throws IncorrectTypeException {
+
+        return (BigDecimal) ParameterTypes.Decimal.cast(value());
+    }
+
+    public Date dateValue() throws IncorrectTypeException {
+
+        return (Date) ParameterTypes.Date.cast(value());
+    }
+
+    private static Object notNull(Object value, Class<?> expected) throws IncorrectTypeException {
+
+        if (value == null) {
+            throw new IncorrectTypeException(expected, null);
+        }
+        return value;
+    }
+
+    /***************************************************************************
+     *
+     * Moves past the map or array that starts at the current event, leaving
+     * the cursor on its <code>END</code> event. Does nothing on other events.
+     *
+     ***************************************************************************/
+    public void skip() throws XMLStreamException, IOException {
+
+        if (_event != Event.START_MAP && _event != Event.START_ARRAY) {
+            return;
+        }
+
+        int depth = 1;
+        while (depth > 0) {
+            switch (nextInDocument()) {
+                case START_MAP:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Reads the map that starts at the current event, leaving the cursor on
+     * its <code>END</code> event.
+     *
+     * @exception IllegalStateException
+     *                Thrown if the current event isn't <code>START_MAP</code>.
+     *
+     ***************************************************************************/
+    public ParameterMap readMap() throws XMLStreamException, IOException {
+
+        if (_event != Event.START_MAP) {
+            throw new IllegalStateException("Not at the start of a map - " + _event);
+        }
+
+        ParameterMap map = new ParameterMap();
+        while (nextInDocument() != Event.END) {
+            String name = _name;
+            map.put(name, readCurrent());
+        }
+        return map;
+    }
+
+    /***************************************************************************
+     *
+     * Reads the array that starts at the current event, leaving the cursor
+     * on its <code>END</code> event.
+     *
+     * @exception IllegalStateException
+     *                Thrown if the current event isn't <code>START_ARRAY</code>.
+     *
+     ***************************************************************************/
+    public List<Object> readList() throws XMLStreamException, IOException {
+
+        if (_event != Event.START_ARRAY) {
+            throw new IllegalStateException("Not at the start of an array - " + _event);
+        }
+
+        List<Object> list = new ArrayList<>();
+        while (nextInDocument() != Event.END) {
+            list.add(readCurrent());
+        }
+        return list;
+    }
+
+    /***************************************************************************
+     *
+     * Feeds the element at the current event, and everything inside it, to
+     * <code>visitor</code>, leaving the cursor on its <code>END</code> event,
+     * or on the value itself. On a cursor that hasn't moved yet this visits
+     * the whole document.
+     *
+     ***************************************************************************/
+    public void accept(PMapVisitor visitor) throws XMLStreamException, IOException {
+
+        if (_event == null) {
+            next();
+        }
+
+        if (_event == Event.VALUE) {
+            acceptValue(visitor);
+            return;
+        }
+        if (_event != Event.START_MAP && _event != Event.START_ARRAY) {
+            throw new IllegalStateException("Not on an element - " + _event);
+        }
+
+        // Whether each open container is a map, to close it with the right callback
+        boolean[] maps = new boolean[16];
+        int depth = 0;
+        do {
+            switch (_event) {
+                case START_MAP:
+                case START_ARRAY:
+                    if (depth == maps.length) {
+                        maps = Arrays.copyOf(maps, depth * 2);
+                    }
+                    maps[depth] = _event == Event.START_MAP;
+                    depth++;
+                    if (maps[depth - 1]) {
+                        visitor.startMap(_name);
+                    } else {
+                        visitor.startArray(_name);
+                    }
+                    break;
+                case END:
+                    depth--;
+                    if (maps[depth]) {
+                        visitor.endMap();
+                    } else {
+                        visitor.endArray();
+                    }
+                    break;
+                default:
+                    acceptValue(visitor);
+                    break;
+            }
+        } while (depth > 0 && nextInDocument() != null);
+    }
+
+    private void acceptValue(PMapVisitor visitor) throws XMLStreamException, IOException {
+
+        try {
+            switch (_type) {
+                case STRING:
+                    visitor.stringValue(_name, stringValue());
+                    break;
+                case INT:
+                    visitor.intValue(_name, intValue());
+                    break;
+                case LONG:
+                    visitor.longValue(_name, longValue());
+                    break;
+                case FLOAT:
+                    visitor.floatValue(_name, floatValue());
+                    break;
+                case DOUBLE:
+                    visitor.doubleValue(_name, doubleValue());
+                    break;
+                case BOOLEAN:
+                    visitor.booleanValue(_name, booleanValue());
+                    break;
+                case DECIMAL:
+                    visitor.decimalValue(_name, decimalValue());
+                    break;
+                case DATE:
+                    visitor.dateValue(_name, dateValue().getTime());
+                    break;
+                default:
+                    visitor.nullValue(_name);
+                    break;
+            }
+        } catch (IncorrectTypeException e) {
+            throw new XMLStreamException("Invalid data -> " + e, e);
+        }
+    }
+
+    private Object readCurrent() throws XMLStreamException, IOException {
+
+        switch (_event) {
+            case START_MAP:
+                return readMap();
+            case START_ARRAY:
+                return readList();
+            default:
+                try {
+                    return value();
+                } catch (IncorrectTypeException e) {
+                    throw new XMLStreamException("Invalid data -> " + e, e);
+                }
+        }
+    }
+
+    private Event nextInDocument() throws XMLStreamException, IOException {
+
+        Event event = next();
+        if (event == Event.END_DOCUMENT) {
+            throw new EOFException("Truncated PMAP document");
+        }
+        return event;
+    }
+
+    /***************************************************************************
+     *
+     * Fails when a typed accessor is called on something that isn't a value.
+     *
+     ***************************************************************************/
+    protected void checkValue() {
+
+        if (_event != Event.VALUE) {
+            throw new IllegalStateException("Not on a value - " + _event);
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package com.mikusher.formats;
+
+import com.mikusher.parameter.PMapType;
+import com.mikusher.parameter.ParameterMap;
+import com.mikusher.parameter.ParameterMapUtils;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/***************************************************************************
+ *
+ * Byte ranges of the elements of a PMAP XML document by their tag type and
+ * the values of a declared set of attributes, so that subtrees searched as
+ * with <code>{@link StreamedPMapParser#getXMLTreeByDocument}</code> can be
+ * read without scanning the document.
+ *
+ * <p>An index is built in one pass over the UTF-8 bytes of the document by
+ * <code>{@link StreamedPMapParser#buildDocumentIndex(byte[], String...)}</code>.
+ * Only elements carrying every declared attribute are indexed, and only the
+ * first one, in document order, for every tuple of values. It can be kept
+ * next to the document with <code>{@link #write(OutputStream)}</code> and
+ * loaded back with <code>{@link #read(InputStream)}</code>. Indexes are
+ * immutable.</p>
+ *
+ ***************************************************************************/
+public final class PMapDocumentIndex {
+
+    private static final int MAGIC = 0x504D4458;
+    private static final int VERSION = 1;
+    // Can't appear in XML, so it can't be part of a value
+    private static final char SEPARATOR = '\u0000';
+    // Types of the one letter tags of PMAP2, which make most of a document
+    private static final PMapType[] SHORT_TYPES = new PMapType[128];
+
+    static {
+        for (char c = 0; c < SHORT_TYPES.length; c++) {
+            SHORT_TYPES[c] = PMapType.lookup(String.valueOf(c));
+        }
+    }
+
+    private final String[] _attributes;
+    private final long _documentLength;
+    // Start and end offsets of the elements by tag type and attribute values
+    private final Map<String, long[]> _ranges;
+
+
+    private PMapDocumentIndex(String[] attributes, long documentLength, Map<String, long[]> ranges) {
+
+        _attributes = attributes;
+        _documentLength = documentLength;
+        _ranges = ranges;
+    }
+
+    /***************************************************************************
+     *
+     * Indexes the elements of a document by <code>attributes</code>.
+     *
+     * @exception XMLStreamException
+     *                Thrown if the document isn't UTF-8 or its tags aren't
+     *                well formed.
+     *
+     ***************************************************************************/
+    static PMapDocumentIndex build(byte[] content, String[] attributes) throws XMLStreamException {
+
+        if (attributes.length == 0) {
+            throw new IllegalArgumentException("No attributes to index");
+        }
+
+        Scanner scanner = new Scanner(content, attributes.clone());
+        return new PMapDocumentIndex(attributes.clone(), content.length, scanner.scan());
+    }
+
+    /***************************************************************************
+     *
+     * Reads an index written by <code>{@link #write(OutputStream)}</code>.
+     * The stream isn't closed.
+     *
+     ***************************************************************************/
+    public static PMapDocumentIndex read(InputStream is) throws IOException {
+
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            throw new IOException("Invalid data -> not a PMAP document index");
+        }
+
+        long documentLength = in.readLong();
+        String[] attributes = new String[in.readUnsignedShort()];
+        for (int i = 0; i < attributes.length; i++) {
+            attributes[i] = in.readUTF();
+        }
+
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid data -> size " + size);
+        }
+        Map<String, long[]> ranges = new LinkedHashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            long start = in.readLong();
+            ranges.put(key, new long[]{start, start + in.readInt()});
+        }
+        return new PMapDocumentIndex(attributes, documentLength, ranges);
+    }
+
+    /***************************************************************************
+     *
+     * Writes the index, in document order. The stream is flushed but not
+     * closed.
+     *
+     ***************************************************************************/
+    public void write(OutputStream os) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(_documentLength);
+        out.writeShort(_attributes.length);
+        for (String attribute : _attributes) {
+            out.writeUTF(attribute);
+        }
+        out.writeInt(_ranges.size());
+        for (Map.Entry<String, long[]> entry : _ranges.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue()[0]);
+            out.writeInt((int) (entry.getValue()[1] - entry.getValue()[0]));
+        }
+        out.flush();
+    }
+
+    /***************************************************************************
+     *
+     * @return The names of the indexed attributes.
+     *
+     ***************************************************************************/
+    public String[] getAttributes() {
+
+        return _attributes.clone();
+    }
+
+    /***************************************************************************
+     *
+     * @return The length of the indexed document, checked before it's read
+     *         through the index.
+     *
+     ***************************************************************************/
+    public long getDocumentLength() {
+
+        return _documentLength;
+    }
+
+    /***************************************************************************
+     *
+     * @return The number of distinct tag types and attribute values indexed.
+     *
+     ***************************************************************************/
+    public int size() {
+
+        return _ranges.size();
+    }
+
+    /***************************************************************************
+     *
+     * Finds the first element of type <code>tagType</code> whose attributes
+     * have the values in <code>keyValues</code>, compared as by
+     * <code>{@link StreamedPMapParser#matchXMLTree}</code>.
+     *
+     * @return The start and end offsets of the element, or null if there's
+     *         none.
+     *
+     * @exception IllegalArgumentException
+     *                Thrown if <code>keyValues</code> doesn't hold exactly
+     *                the indexed attributes.
+     *
+     ***************************************************************************/
+    long[] find(PMapType tagType, ParameterMap keyValues) {
+
+        if (keyValues.size() != _attributes.length) {
+            throw new IllegalArgumentException("Attributes not indexed - " + keyValues.keySet());
+        }
+
+        String[] values = new String[_attributes.length];
+        for (int i = 0; i < _attributes.length; i++) {
+            if (!keyValues.containsKey(_attributes[i])) {
+                throw new IllegalArgumentException("Attributes not indexed - " + keyValues.keySet());
+            }
+            values[i] = ParameterMapUtils.getString(_attributes[i], keyValues);
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        return _ranges.get(key(tagType, values));
+    }
+
+    private static String key(PMapType tagType, String[] values) {
+
+        StringBuilder key = new StringBuilder(tagType.getShortName());
+        for (String value : values) {
+            key.append(SEPARATOR).append(value);
+        }
+        return key.toString();
+    }
+
+    @Override
+    public String toString() {
+
+        return "PMapDocumentIndex[" + Arrays.toString(_attributes) + ", " + size() + " entries]";
+    }
+
+    /***************************************************************************
+     *
+     * Finds the tags of a document, and the values of the indexed attributes,
+     * without reading anything else.
+     *
+     ***************************************************************************/
+    private static final class Scanner {
+
+        private final byte[] _bytes;
+        private final String[] _attributes;
+        private final Map<String, long[]> _ranges = new LinkedHashMap<>();
+        private final String[] _values;
+        private int _position = 0;
+
+        // Ranges of the open elements, null for those that aren't indexed
+        private long[][] _open = new long[16][];
+        private int _depth = 0;
+
+
+        Scanner(byte[] bytes, String[] attributes) {
+
+            _bytes = bytes;
+            _attributes = attributes;
+            _values = new String[attributes.length];
+        }
+
+        Map<String, long[]> scan() throws XMLStreamException {
+
+            if (hasBom()) {
+                _position = 3;
+            } else if (_bytes.length >= 2 && (_bytes[0] == (byte) 0xFE || _bytes[0] == (byte) 0xFF)) {
+                throw new XMLStreamException("Invalid data -> only UTF-8 documents can be indexed");
+            }
+
+            while (true) {
+                int start = indexOf('<', _position);
+                if (start < 0) {
+                    break;
+                }
+                _position = start + 1;
+
+                if (startsWith(_position, "?")) {
+                    readDeclaration(start);
+                } else if (startsWith(_position, "!--")) {
+                    _position = indexOf("-->", _position) + 3;
+                } else if (startsWith(_position, "![CDATA[")) {
+                    _position = indexOf("]]>", _position) + 3;
+                } else if (startsWith(_position, "!")) {
+                    skipDoctype();
+                } else if (startsWith(_position, "/")) {
+                    _position = indexOf(">", _position) + 1;
+                    if (_depth == 0) {
+                        throw new XMLStreamException("Invalid data -> unexpected end tag at " + start);
+                    }
+                    long[] range = _open[--_depth];
+                    if (range != null) {
+                        range[1] = _position;
+                    }
+                } else {
+                    readStartTag(start);
+                }
+            }
+
+            if (_depth != 0) {
+                throw new XMLStreamException("Invalid data -> unclosed element");
+            }
+            return _ranges;
+        }
+
+        private void readDeclaration(int start) throws XMLStreamException {
+
+            int end = indexOf("?>", _position);
+            if (start == (hasBom() ? 3 : 0)) {
+                String declaration = new String(_bytes, _position, end - _position, StandardCharsets.ISO_8859_1);
+                int encoding = declaration.indexOf("encoding");
+                if (encoding >= 0) {
+                    String value = declaration.substring(encoding + "encoding".length()).replaceAll("[\\s=\"']", " ")
+                            .trim();
+                    int space = value.indexOf(' ');
+                    if (!(space < 0 ? value : value.substring(0, space)).equalsIgnoreCase("UTF-8")) {
+                        throw new XMLStreamException("Invalid data -> only UTF-8 documents can be indexed");
+                    }
+                }
+            }
+            _position = end + 2;
+        }
+
+        private void skipDoctype() throws XMLStreamException {
+
+            int brackets = 0;
+            while (true) {
+                int c = next();
+                if (c == '"' || c == '\'') {
+                    _position = indexOf(String.valueOf((char) c), _position) + 1;
+                } else if (c == '[') {
+                    brackets++;
+                } else if (c == ']') {
+                    brackets--;
+                } else if (c == '>' && brackets == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void readStartTag(int start) throws XMLStreamException {
+
+            int nameStart = _position;
+            int c = next();
+            while (c != '>' && c != '/' && !isWhitespace(c)) {
+                c = next();
+            }
+            int nameEnd = _position - 1;
+            Arrays.fill(_values, null);
+
+            while (c != '>' && c != '/') {
+                c = next();
+                if (isWhitespace(c) || c == '>' || c == '/') {
+                    continue;
+                }
+
+                int attributeStart = _position - 1;
+                while (c != '=' && !isWhitespace(c)) {
+                    c = next();
+                }
+                String attribute = localName(attributeStart, _position - 1);
+                while (c != '=') {
+                    c = next();
+                }
+                int quote = next();
+                while (isWhitespace(quote)) {
+                    quote = next();
+                }
+                if (quote != '"' && quote != '\'') {
+                    throw new XMLStreamException("Invalid data -> attribute without quotes at " + attributeStart);
+                }
+                int valueStart = _position;
+                _position = indexOf(String.valueOf((char) quote), valueStart) + 1;
+
+                for (int i = 0; i < _attributes.length; i++) {
+                    if (_attributes[i].equals(attribute)) {
+                        _values[i] = decode(valueStart, _position - 1);
+                    }
+                }
+                c = ' ';
+            }
+
+            boolean empty = c == '/';
+            if (empty && next() != '>') {
+                throw new XMLStreamException("Invalid data -> malformed tag at " + start);
+            }
+
+            long[] range = null;
+            PMapType type = nameEnd - nameStart == 1 && _bytes[nameStart] >= 0 ? SHORT_TYPES[_bytes[nameStart]]
+                    : PMapType.lookup(localName(nameStart, nameEnd));
+            if (type != null && allValues()) {
+                String key = key(type, _values);
+                if (!_ranges.containsKey(key)) {
+                    range = new long[]{start, _position};
+                    _ranges.put(key, range);
+                }
+            }
+
+            if (!empty) {
+                if (_depth == _open.length) {
+                    _open = Arrays.copyOf(_open, _depth * 2);
+                }
+                _open[_depth++] = range;
+            }
+        }
+
+        private boolean hasBom() {
+
+            return _bytes.length >= 3 && _bytes[0] == (byte) 0xEF && _bytes[1] == (byte) 0xBB
+                    && _bytes[2] == (byte) 0xBF;
+        }
+
+        private boolean allValues() {
+
+            for (String value : _values) {
+                if (value == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private String localName(int start, int end) {
+
+            int colon = end;
+            while (colon > start && _bytes[colon - 1] != ':') {
+                colon--;
+            }
+            return new String(_bytes, colon > start ? colon : start, end - (colon > start ? colon : start),
+                    StandardCharsets.UTF_8);
+        }
+
+        /***********************************************************************
+         *
+         * Decodes an attribute value as StAX reports it: white space
+         * normalized to spaces, then references replaced.
+         *
+         ***********************************************************************/
+        private String decode(int start, int end) throws XMLStreamException {
+
+            String raw = new String(_bytes, start, end - start, StandardCharsets.UTF_8);
+            if (raw.indexOf('&') < 0 && raw.indexOf('\t') < 0 && raw.indexOf('\n') < 0 && raw.indexOf('\r') < 0) {
+                return raw;
+            }
+
+            StringBuilder value = new StringBuilder(raw.length());
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (c == '\r' && i + 1 < raw.length() && raw.charAt(i + 1) == '\n') {
+                    continue;
+                }
+                if (c == '\t' || c == '\n' || c == '\r') {
+                    value.append(' ');
+                } else if (c == '&') {
+                    int semicolon = raw.indexOf(';', i);
+                    if (semicolon < 0) {
+                        throw new XMLStreamException("Invalid data -> unterminated reference in " + raw);
+                    }
+                    value.appendCodePoint(reference(raw.substring(i + 1, semicolon)));
+                    i = semicolon;
+                } else {
+                    value.append(c);
+                }
+            }
+            return value.toString();
+        }
+
+        private static int reference(String name) throws XMLStreamException {
+
+            switch (name) {
+                case "lt":
+                    return '<';
+                case "gt":
+                    return '>';
+                case "amp":
+                    return '&';
+                case "quot":
+                    return '"';
+                case "apos":
+                    return '\'';
+                default:
+                    break;
+            }
+            try {
+                if (name.startsWith("#x")) {
+                    return Integer.parseInt(name.substring(2), 16);
+                }
+                if (name.startsWith("#")) {
+                    return Integer.parseInt(name.substring(1));
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new XMLStreamException("Invalid data -> unknown reference &" + name + ";");
+        }
+
+        private int next() throws XMLStreamException {
+
+            if (_position >= _bytes.length) {
+                throw new XMLStreamException("Invalid data -> unexpected end of document");
+            }
+            return _bytes[_position++];
+        }
+
+        private int indexOf(char c, int from) {
+
+            for (int i = from; i < _bytes.length; i++) {
+                if (_bytes[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(String text, int from) throws XMLStreamException {
+
+            for (int i = from; i <= _bytes.length - text.length(); i++) {
+                if (startsWith(i, text)) {
+                    return i;
+                }
+            }
+            throw new XMLStreamException("Invalid data -> unexpected end of document");
+        }
+
+        private boolean startsWith(int position, String text) {
+
+            if (position + text.length() > _bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                if (_bytes[position + i] != (byte) text.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isWhitespace(int c) {
+
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.mikusher.formats;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/***************************************************************************
+ *
+ * Receives the content of a PMAP document as a sequence of callbacks, in
+ * document order. A document is a single root map: it starts with
+ * <code>startMap(null)</code> and ends with the matching
+ * <code>endMap()</code>.
+ *
+ * <p>The <code>name</code> of every callback is the key of the entry, or
+ * null for the values of an array and for the root map. Dates are given as
+ * epoch millis.</p>
+ *
+ * <p>Visitors can be driven by <code>{@link StreamedPMapParser#accept}</code>
+ * from any input or from an in memory map, and the writers returned by
+ * <code>{@link StreamedPMapParser#getWriter}</code> are visitors themselves,
+ * so documents can be transcoded without building a
+ * <code>ParameterMap</code>.</p>
+ *
+ ***************************************************************************/
+public interface PMapVisitor {
+
+    void startMap(String name) throws XMLStreamException, IOException;
+
+    void endMap() throws XMLStreamException, IOException;
+
+    void startArray(String name) throws XMLStreamException, IOException;
+
+    void endArray() throws XMLStreamException, IOException;
+
+    void stringValue(String name, String value) throws XMLStreamException, IOException;
+
+    void intValue(String name, int value) throws XMLStreamException, IOException;
+
+    void longValue(String name, long value) throws XMLStreamException, IOException;
+
+    void floatValue(String name, float value) throws XMLStreamException, IOException;
+
+    void doubleValue(String name, double value) throws XMLStreamException, IOException;
+
+    void booleanValue(String name, boolean value) throws XMLStreamException, IOException;
+
+    void decimalValue(String name, BigDecimal value) throws XMLStreamException, IOException;
+
+    void dateValue(String name, long epochMillis) throws XMLStreamException, IOException;
+
+    void nullValue(String name) throws XMLStreamException, IOException;
+}
@@ -0,0 +1,126 @@
+package com.mikusher.formats;
+
+import com.mikusher.parameter.PMapType;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.*;
+
+/***************************************************************************
+ *
+ * Drives a <code>{@link PMapVisitor}</code> over an in memory map.
+ *
+ ***************************************************************************/
+final class PMapWalker {
+
+    private static final Comparator<Map.Entry<String, ?>> BY_KEY = (a, b) -> a.getKey().compareTo(b.getKey());
+
+    private final PMapVisitor _visitor;
+    private final boolean _sortKeys;
+    private final boolean _ignoreUnknown;
+
+
+    /***************************************************************************
+     *
+     * @param sortKeys
+     *            Whether the entries of each map are visited sorted by key.
+     *
+     * @param ignoreUnknown
+     *            Whether values with no <code>PMapType</code> are skipped.
+     *            Otherwise they make the walk fail.
+     *
+     ***************************************************************************/
+    PMapWalker(PMapVisitor visitor, boolean sortKeys, boolean ignoreUnknown) {
+
+        _visitor = visitor;
+        _sortKeys = sortKeys;
+        _ignoreUnknown = ignoreUnknown;
+    }
+
+    /***************************************************************************
+     *
+     * Visits <code>map</code> as a whole document.
+     *
+     ***************************************************************************/
+    void walk(Map<String, ?> map) throws XMLStreamException, IOException {
+
+        _visitor.startMap(null);
+        walkEntries(map);
+        _visitor.endMap();
+    }
+
+    /***************************************************************************
+     *
+     * Visits the entries of <code>map</code> without the map itself.
+     *
+     ***************************************************************************/
+    void walkEntries(Map<String, ?> map) throws XMLStreamException, IOException {
+
+        Collection<? extends Map.Entry<String, ?>> entries = map.entrySet();
+        if (_sortKeys) {
+            List<Map.Entry<String, ?>> sorted = new ArrayList<>(entries);
+            sorted.sort(BY_KEY);
+            entries = sorted;
+        }
+
+        for (Map.Entry<String, ?> entry : entries) {
+            walkValue(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void walkValue(String name, Object value) throws XMLStreamException, IOException {
+
+        PMapType type = PMapType.lookup(value);
+        if (type == null) {
+            if (_ignoreUnknown) {
+                // Just ignore this value because it's not supported
+                return;
+            }
+            throw new XMLStreamException("Invalid Type - " + value.getClass().getCanonicalName());
+        }
+
+        switch (type) {
+            case STRING:
+                _visitor.stringValue(name, value.toString());
+                break;
+            case INT:
+                _visitor.intValue(name, (Integer) value);
+                break;
+            case LONG:
+                _visitor.longValue(name, (Long) value);
+                break;
+            case FLOAT:
+                _visitor.floatValue(name, (Float) value);
+                break;
+            case DOUBLE:
+                _visitor.doubleValue(name, (Double) value);
+                break;
+            case BOOLEAN:
+                _visitor.booleanValue(name, (Boolean) value);
+                break;
+            case DECIMAL:
+                _visitor.decimalValue(name, (BigDecimal) value);
+                break;
+            case DATE:
+                _visitor.dateValue(name, ((Date) value).getTime());
+                break;
+            case MAP:
+                _visitor.startMap(name);
+                walkEntries((Map<String, ?>) value);
+                _visitor.endMap();
+                break;
+            case ARRAY:
+                _visitor.startArray(name);
+                for (Object item : (Collection<?>) value) {
+                    walkValue(null, item);
+                }
+                _visitor.endArray();
+                break;
+            case NULL:
+                _visitor.nullValue(name);
+                break;
+        }
+    }
+}
@@ -2,12 +2,14 @@ package com.mikusher.formats;
 
 
 import com.google.common.collect.Maps;
+import com.mikusher.converters.DateCodec;
 import com.mikusher.error.CoreError;
 import com.mikusher.error.CoreException;
 import com.mikusher.error.SatelliteException;
 import com.mikusher.parameter.PMapType;
 import com.mikusher.parameter.ParameterMap;
 import com.mikusher.parameter.ParameterMapUtils;
+import com.mikusher.parameter.ParameterPath;
 import com.mikusher.utils.PMapReadPlugin;
 import com.mikusher.utils.StaxUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -23,14 +25,26 @@ import javax.xml.stream.*;
 import java.io.*;
 import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Reads and writes PMAP documents. A parser holds no state between calls and is safe to share across threads:
+ * {@link #getInstance()} returns a single shared parser, and parsers with plugins can be shared as well.
+ */
 public class StreamedPMapParser {
 
 
@@ -38,50 +52,67 @@ public class StreamedPMapParser {
     static final String ATT_TYPE = "type";
     static final String ENCODING = "UTF-8";
     static final String VERSION = "1.0";
-    private static final String TAG_PARAMETER = "parameter";
-    private static final String ATT_NAME = "name";
-    private static final TimeZone TIMEZONE_UTC = TimeZone.getTimeZone("UTC");
+    static final String TAG_PARAMETER = "parameter";
+    static final String ATT_NAME = "name";
     private static final Charset CHARSET = Charset.forName(ENCODING);
-    private static final ThreadLocal<StreamedPMapParser> _threadLocalData = ThreadLocal.withInitial(StreamedPMapParser::new);
+    private static final StreamedPMapParser INSTANCE = new StreamedPMapParser();
     private static final int MAX_INDENT_LEVEL_CACHE = 256;
     @SuppressWarnings("unchecked")
     private static final WeakReference<String>[] _indentCache = new WeakReference[MAX_INDENT_LEVEL_CACHE];
+    // Bytes of array elements below which a parallel task reads them itself rather than splitting them
+    private static final int PARALLEL_CHUNK_SIZE = 64 * 1024;
     private static final IntFunction<String> INDENT_STRING_GENERATOR = i -> "\n"
             + StringUtils.repeat('\t', i);
-    private final XMLInputFactory _xmlInputFactory = XMLInputFactory.newInstance();
-    private final XMLOutputFactory _xmlOutputFactory = XMLOutputFactory.newInstance();
-    private final DocumentBuilderFactory _docBuilderFactory = DocumentBuilderFactory.newInstance();
-    private final SimpleDateFormat _dateFormatter;
-    private DocumentBuilder _documentBuilder;
-    private Map<String, PMapReadPlugin> _plugins;
+    // Configured once, creating readers and writers from them is thread safe
+    private static final XMLInputFactory _xmlInputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory _xmlOutputFactory = XMLOutputFactory.newInstance();
+    private static final DocumentBuilderFactory _docBuilderFactory = DocumentBuilderFactory.newInstance();
+    private final Map<String, PMapReadPlugin> _plugins;
+    private final boolean _fastPMap2;
 
     private StreamedPMapParser() {
 
-        _dateFormatter = new SimpleDateFormat("yyyyMMddHHmmss");
-        _dateFormatter.setTimeZone(TIMEZONE_UTC);
-        _dateFormatter.setLenient(false);
         _plugins = Collections.emptyMap();
+        _fastPMap2 = true;
     }
 
     public StreamedPMapParser(PMapReadPlugin[] plugins) {
 
-        this();
-        _plugins = Maps.newHashMapWithExpectedSize(plugins.length);
+        this(plugins, true);
+    }
+
+    /**
+     * @param plugins
+     * @param fastPMap2
+     *         Whether PMAP2 documents are read by the byte level reader, which falls back to StAX for anything but the
+     *         plain XML written by this parser. The shared instance and the other constructor use it.
+     */
+    public StreamedPMapParser(PMapReadPlugin[] plugins, boolean fastPMap2) {
+
+        Map<String, PMapReadPlugin> byTag = Maps.newHashMapWithExpectedSize(plugins.length);
         for (PMapReadPlugin plugin : plugins) {
             for (String tagName : plugin.getSupportedTags()) {
-                _plugins.put(tagName, plugin);
+                byTag.put(tagName, plugin);
             }
         }
+        _plugins = Collections.unmodifiableMap(byTag);
+        _fastPMap2 = fastPMap2;
     }
 
+    /**
+     * @return The parser without plugins, shared by all threads.
+     */
     public static StreamedPMapParser getInstance() {
 
-        return _threadLocalData.get();
+        return INSTANCE;
     }
 
+    /**
+     * The shared parser holds no per thread state anymore, there's nothing to clear.
+     */
+    @Deprecated
     public static void clearCachedInstance() {
 
-        _threadLocalData.remove();
     }
 
     private static void nextStartElement(XMLStreamReader reader) throws XMLStreamException {
@@ -92,7 +123,7 @@ public class StreamedPMapParser {
         } while (reader.getEventType() != XMLStreamReader.START_ELEMENT);
     }
 
-    private static void indentLevel(SerializationType serType, XMLStreamWriter writer, int level)
+    static void indentLevel(SerializationType serType, XMLStreamWriter writer, int level)
             throws XMLStreamException {
 
         if (!serType.ident()) {
@@ -340,8 +371,8 @@ public class StreamedPMapParser {
 
     public ParameterMap getMap(File file) throws XMLStreamException, IOException {
 
-        try (Reader reader = new BufferedReader(new FileReader(file), 8192)) {
-            return getMap(reader);
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file), 8192)) {
+            return getMap(is);
         }
     }
 
@@ -352,6 +383,45 @@ public class StreamedPMapParser {
         }
     }
 
+    public ParameterMap getMappedMap(File file) throws XMLStreamException, IOException {
+
+        return getMappedMap(file.toPath());
+    }
+
+    /**
+     * Reads a file through a read only memory mapping. Binary PMAP3 files are read as a {@link LazyParameterMap}
+     * over the mapping, so values are only decoded when first accessed and the returned map keeps the mapping alive
+     * while any part of it is unread. PMAP2 files are read from the mapping by the byte level reader, and the other
+     * XML files, or the ones it can't handle, are fed to StAX from the mapping, without a <code>Reader</code>.
+     *
+     * @param path
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public ParameterMap getMappedMap(Path path) throws XMLStreamException, IOException {
+
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                // Too large for a single mapping, and for PMAP3 as well
+                return getMap(path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (BinaryPMap.isBinary(buffer)) {
+            return new LazyParameterMap(buffer);
+        }
+        if (_fastPMap2) {
+            ParameterMap map = new PMap2Reader(this, buffer).read();
+            if (map != null) {
+                return map;
+            }
+        }
+        return getMap(new ByteBufferInputStream(buffer));
+    }
+
     public ParameterMap getMap(Reader reader) throws XMLStreamException {
 
         XMLStreamReader r = _xmlInputFactory.createXMLStreamReader(reader);
@@ -370,6 +440,17 @@ public class StreamedPMapParser {
             return null;
         }
 
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is);
+        }
+        try {
+            if (BinaryPMap.isBinary(is)) {
+                return BinaryPMapReader.read(ByteBuffer.wrap(is.readAllBytes()));
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException("Invalid data -> " + e, e);
+        }
+
         XMLStreamReader r = _xmlInputFactory.createXMLStreamReader(is);
         try {
             // Bypass initial elements till we get to start element
@@ -381,14 +462,124 @@ public class StreamedPMapParser {
         }
     }
 
+    /**
+     * Opens a pull cursor over a document in any of the serialization formats, detected from its first bytes.
+     * Closing the cursor closes <code>is</code>.
+     *
+     * @param is
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public PMapCursor getCursor(InputStream is) throws XMLStreamException, IOException {
+
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is);
+        }
+        if (BinaryPMap.isBinary(is)) {
+            return new BinaryPMapCursor(is);
+        }
+        return new XmlPMapCursor(this, _xmlInputFactory.createXMLStreamReader(is), is);
+    }
+
+    /**
+     * Opens an iterator over the maps of the array at <code>arrayPath</code> (E.g. <code>records</code> or
+     * <code>exports(0).records</code>), that reads one map at a time from <code>is</code>. The iterator is empty if
+     * there's no such array.
+     *
+     * @param is
+     * @param arrayPath
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public PMapArrayIterator iterateArray(InputStream is, String arrayPath) throws XMLStreamException, IOException {
+
+        ParameterPath path = ParameterPath.compile(arrayPath);
+        return new PMapArrayIterator(getCursor(is), path);
+    }
+
+    /**
+     * Streams the maps of the array at <code>arrayPath</code> as they are read from <code>is</code>, as with
+     * {@link #iterateArray(InputStream, String)}. Closing the stream closes <code>is</code>.
+     *
+     * @param is
+     * @param arrayPath
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public Stream<ParameterMap> streamArray(InputStream is, String arrayPath) throws XMLStreamException, IOException {
+
+        PMapArrayIterator iterator = iterateArray(is, arrayPath);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    /**
+     * Streams the maps of the array at <code>arrayPath</code> in lists of <code>batchSize</code>, the last one
+     * possibly shorter, as with {@link #streamArray(InputStream, String)}.
+     *
+     * @param is
+     * @param arrayPath
+     * @param batchSize
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public Stream<List<ParameterMap>> streamArray(InputStream is, String arrayPath, int batchSize)
+            throws XMLStreamException, IOException {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size - " + batchSize);
+        }
+
+        PMapArrayIterator iterator = iterateArray(is, arrayPath);
+        Iterator<List<ParameterMap>> batches = new Iterator<List<ParameterMap>>() {
+
+            @Override
+            public boolean hasNext() {
+
+                return iterator.hasNext();
+            }
+
+            @Override
+            public List<ParameterMap> next() {
+
+                if (!iterator.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return iterator.nextBatch(batchSize);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(batches,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(iterator::close);
+    }
+
+    public PMapCursor getCursor(byte[] content) throws XMLStreamException, IOException {
+
+        return getCursor(new ByteArrayInputStream(content));
+    }
+
+    public PMapCursor getCursor(Path path) throws XMLStreamException, IOException {
+
+        InputStream is = new BufferedInputStream(Files.newInputStream(path), 8192);
+        try {
+            return getCursor(is);
+        } catch (XMLStreamException | IOException | RuntimeException e) {
+            is.close();
+            throw e;
+        }
+    }
+
     public ParameterMap getMap(XMLStreamReader reader) throws XMLStreamException {
 
         reader.next();
 
-        Map<String, Object> omap = new HashMap<>();
+        ParameterMap omap = new ParameterMap();
         readMap(reader, omap);
 
-        return new ParameterMap(omap);
+        return omap;
     }
 
     public void readMap(XMLStreamReader reader, Map<String, Object> map) throws XMLStreamException {
@@ -450,9 +641,9 @@ public class StreamedPMapParser {
                     case NULL:
                         return null;
                     case MAP:
-                        Map<String, Object> innerMap = new HashMap<>();
+                        ParameterMap innerMap = new ParameterMap();
                         readMap(reader, innerMap);
-                        return new ParameterMap(innerMap);
+                        return innerMap;
                     case ARRAY:
                         return parseList(reader);
                     case DECIMAL:
@@ -499,10 +690,10 @@ public class StreamedPMapParser {
         return innerList;
     }
 
-    private Date parseDate(String text) throws ParseException {
+    Date parseDate(String text) throws ParseException {
 
         try {
-            return _dateFormatter.parse(text);
+            return DateCodec.parse(text);
         } catch (ParseException e) {
             //Previous snapshot expireDate were created in the future, with an unparseable date
             if ("2922789940817071255".equals(text)) {
@@ -515,10 +706,12 @@ public class StreamedPMapParser {
 
     private DocumentFragment parseXML(XMLStreamReader reader) throws XMLStreamException, ParserConfigurationException {
 
-        if (_documentBuilder == null) {
-            _documentBuilder = _docBuilderFactory.newDocumentBuilder();
+        // DocumentBuilderFactory isn't thread safe, builders are cheap next to the parsing itself
+        DocumentBuilder documentBuilder;
+        synchronized (_docBuilderFactory) {
+            documentBuilder = _docBuilderFactory.newDocumentBuilder();
         }
-        Document doc = _documentBuilder.newDocument();
+        Document doc = documentBuilder.newDocument();
 
         DocumentFragment df = doc.createDocumentFragment();
         Node node = doc.createElement("dummy");
@@ -538,44 +731,129 @@ public class StreamedPMapParser {
     public byte[] PMAPtoByteArray(Map<String, Object> map, SerializationType type)
             throws XMLStreamException, IOException {
 
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-
-        PMAPtoOutputStream(map, type, bos);
-        bos.flush();
+        if (type.isBinary()) {
+            return new BinaryPMapWriter().toByteArray(map, type);
+        }
 
-        return bos.toByteArray();
+        Utf8XmlPMapWriter writer = Utf8XmlPMapWriter.acquire();
+        try {
+            return writer.toByteArray(map, type);
+        } finally {
+            Utf8XmlPMapWriter.release(writer);
+        }
     }
 
     public void PMAPtoOutputStream(Map<String, Object> map, SerializationType type, OutputStream os)
             throws XMLStreamException, IOException {
 
-        try (OutputStreamWriter writer = new OutputStreamWriter(os, CHARSET)) {
-            PMAPtoWriter(map, type, writer);
+        if (type.isBinary()) {
+            try (OutputStream out = os) {
+                new BinaryPMapWriter().write(map, type, out);
+            }
+            return;
+        }
+
+        Utf8XmlPMapWriter writer = Utf8XmlPMapWriter.acquire();
+        try (OutputStream out = os) {
+            writer.write(map, type, out);
+        } finally {
+            Utf8XmlPMapWriter.release(writer);
         }
     }
 
     public void PMAPtoWriter(Map<String, Object> map, SerializationType type, Writer w)
             throws XMLStreamException, IOException {
 
+        if (type.isBinary()) {
+            throw new XMLStreamException("Binary format can't be written as text - " + type);
+        }
+
         final XMLStreamWriter writer = _xmlOutputFactory.createXMLStreamWriter(w);
         try {
-            writer.writeStartDocument(ENCODING, VERSION);
-            writer.writeCharacters("\n");
-            if (type.getVersion() == 1) {
-                writer.writeStartElement(PMapType.MAP.getOldPMapName());
-            } else {
-                writer.writeStartElement(PMapType.MAP.getShortName());
-            }
-            XMLWriterToMapWithoutRoot(type, writer, map, 0);
-            writer.writeEndElement();
-            writer.writeEndDocument();
-            writer.flush();
+            new PMapWalker(new XmlPMapWriter(type, writer, null), type.ident(), type.ignoreUnknownTypes())
+                    .walk(map);
             writer.close();
         } finally {
             closeQuietly(writer);
         }
     }
 
+    /**
+     * Returns a visitor that writes the document it's fed into <code>os</code>, in the given format. The document is
+     * flushed, but <code>os</code> isn't closed, once its root map ends. Entries are written in the order they are
+     * visited, even for the formats that sort keys.
+     *
+     * @param type
+     * @param os
+     * @return
+     * @throws XMLStreamException
+     */
+    public PMapVisitor getWriter(SerializationType type, OutputStream os) throws XMLStreamException {
+
+        if (type.isBinary()) {
+            return new BinaryPMapWriter(os);
+        }
+
+        return new Utf8XmlPMapWriter(type, os);
+    }
+
+    /**
+     * Returns a visitor that writes the document it's fed into <code>writer</code> as JSON. Dates are written as
+     * epoch millis. The writer is flushed, but not closed, once the root map ends.
+     *
+     * @param writer
+     * @return
+     */
+    public PMapVisitor getJsonWriter(Writer writer) {
+
+        return new JsonPMapWriter(writer);
+    }
+
+    /**
+     * Feeds a document in any of the serialization formats to <code>visitor</code>, without building a map.
+     * <code>is</code> is closed.
+     *
+     * @param is
+     * @param visitor
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void accept(InputStream is, PMapVisitor visitor) throws XMLStreamException, IOException {
+
+        try (PMapCursor cursor = getCursor(is)) {
+            cursor.accept(visitor);
+        }
+    }
+
+    /**
+     * Feeds <code>map</code> to <code>visitor</code> as a document. Values of unknown types are rejected.
+     *
+     * @param map
+     * @param visitor
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void accept(Map<String, ?> map, PMapVisitor visitor) throws XMLStreamException, IOException {
+
+        new PMapWalker(visitor, false, false).walk(map);
+    }
+
+    /**
+     * Rewrites a document in any of the serialization formats into <code>os</code> in the given format, one value
+     * at a time. <code>is</code> is closed, <code>os</code> isn't.
+     *
+     * @param is
+     * @param type
+     * @param os
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void transcode(InputStream is, SerializationType type, OutputStream os)
+            throws XMLStreamException, IOException {
+
+        accept(is, getWriter(type, os));
+    }
+
     public String toXMLString(Map<String, Object> map, SerializationType type) throws XMLStreamException {
 
         if (map == null) {
@@ -594,128 +872,466 @@ public class StreamedPMapParser {
     public ParameterMap ByteArrayToPMAP(SerializationType serType, byte[] content)
             throws XMLStreamException, IOException {
 
+        if (BinaryPMap.isBinary(content)) {
+            return BinaryPMapReader.read(ByteBuffer.wrap(content));
+        }
+
+        if (_fastPMap2 && serType.getVersion() == 2) {
+            ParameterMap map = new PMap2Reader(this, content, 0, content.length).read();
+            if (map != null) {
+                return map;
+            }
+        }
+
         try (ByteArrayInputStream bis = new ByteArrayInputStream(content)) {
             return InputStreamToPMAP(serType, bis);
         }
     }
 
-    public ParameterMap InputStreamToPMAP(SerializationType serType, InputStream is)
+    /**
+     * Reads a document that is only decoded as its values are read. PMAP3 documents become a
+     * {@link LazyParameterMap} over <code>content</code>, which must not be changed afterwards; XML documents can't
+     * be indexed without parsing them and are read as with {@link #ByteArrayToPMAP(SerializationType, byte[])}.
+     *
+     * @param serType
+     * @param content
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public ParameterMap ByteArrayToLazyPMAP(SerializationType serType, byte[] content)
             throws XMLStreamException, IOException {
 
-        XMLStreamReader reader = _xmlInputFactory.createXMLStreamReader(new InputStreamReader(is, CHARSET));
+        if (BinaryPMap.isBinary(content)) {
+            return new LazyParameterMap(content);
+        }
+        return ByteArrayToPMAP(serType, content);
+    }
+
+    /**
+     * Reads the maps of a large array, such as the records of an export, in parallel on the common fork/join pool.
+     *
+     * @param serType
+     * @param content
+     * @param arrayPath
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     * @see #ByteArrayToPMAPList(SerializationType, byte[], String, ForkJoinPool)
+     */
+    public List<ParameterMap> ByteArrayToPMAPList(SerializationType serType, byte[] content, String arrayPath)
+            throws XMLStreamException, IOException {
+
+        return ByteArrayToPMAPList(serType, content, arrayPath, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads the maps of the array at <code>arrayPath</code>, made of map keys from the root (E.g. <code>a</code> or
+     * <code>export.records</code>), in order. In PMAP2 documents the elements of the array are first located by a
+     * pass over the bytes, then read by tasks of <code>pool</code>, each one over a range of elements; the values
+     * outside of the array are skipped. Other documents, and PMAP2 documents the byte level reader can't handle, are
+     * read whole as with {@link #ByteArrayToPMAP(SerializationType, byte[])}.
+     *
+     * @param serType
+     * @param content
+     * @param arrayPath
+     * @param pool
+     * @return The maps of the array, or null if there is no array at <code>arrayPath</code>.
+     * @throws XMLStreamException
+     *         If an element of the array isn't a map.
+     * @throws IOException
+     */
+    public List<ParameterMap> ByteArrayToPMAPList(SerializationType serType, byte[] content, String arrayPath,
+                                                  ForkJoinPool pool) throws XMLStreamException, IOException {
+
+        ParameterPath path = ParameterPath.compile(arrayPath);
+
+        int[] offsets = null;
+        if (_fastPMap2 && serType.getVersion() == 2 && !BinaryPMap.isBinary(content)) {
+            offsets = new PMap2Reader(this, content, 0, content.length).findElements(path);
+        }
+        if (offsets != null) {
+            for (int i = 0; i < offsets.length - 1; i++) {
+                if (content[offsets[i] + 1] != 'm') {
+                    offsets = null;
+                    break;
+                }
+            }
+        }
+
+        if (offsets == null) {
+            return toMapList(ByteArrayToPMAP(serType, content).get(path));
+        }
+
+        ParameterMap[] maps = new ParameterMap[offsets.length - 1];
         try {
-            final String pname = serType.getVersion() == 1 ? PMapType.MAP.getOldPMapName()
-                    : PMapType.MAP.getShortName();
+            pool.invoke(new ReadElementsTask(content, offsets, maps, 0, maps.length));
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof XMLStreamException) {
+                    throw (XMLStreamException) cause;
+                }
+            }
+            throw e;
+        }
+        return new ArrayList<>(Arrays.asList(maps));
+    }
 
-            reader.nextTag();
-            String rootTag = reader.getLocalName();
+    private static List<ParameterMap> toMapList(Object array) throws XMLStreamException {
 
-            if ((rootTag != null && rootTag.equals(pname))
-                    || (serType.getVersion() == 1 && pname != null
-                    && pname.equals(reader.getAttributeValue(null, "type")))) {
-                return getMap(reader);
+        if (array == null) {
+            return null;
+        }
+        if (!(array instanceof List)) {
+            throw new XMLStreamException("Invalid Type - " + array.getClass().getCanonicalName());
+        }
+
+        List<?> elements = (List<?>) array;
+        List<ParameterMap> maps = new ArrayList<>(elements.size());
+        for (Object element : elements) {
+            if (!(element instanceof ParameterMap)) {
+                throw new XMLStreamException(
+                        "Invalid Type - " + (element == null ? null : element.getClass().getCanonicalName()));
             }
-        } finally {
-            closeQuietly(reader);
+            maps.add((ParameterMap) element);
         }
+        return maps;
+    }
 
-        throw new XMLStreamException("unknown pmap format");
+    /**
+     * Reads the maps of a range of array elements, splitting the range in halves while it's larger than
+     * {@link #PARALLEL_CHUNK_SIZE}.
+     */
+    private final class ReadElementsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] _content;
+        private final int[] _offsets;
+        private final ParameterMap[] _maps;
+        private final int _from;
+        private final int _to;
+
+        ReadElementsTask(byte[] content, int[] offsets, ParameterMap[] maps, int from, int to) {
+
+            _content = content;
+            _offsets = offsets;
+            _maps = maps;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (_to - _from > 1 && _offsets[_to] - _offsets[_from] > PARALLEL_CHUNK_SIZE) {
+                int middle = (_from + _to) >>> 1;
+                invokeAll(new ReadElementsTask(_content, _offsets, _maps, _from, middle),
+                        new ReadElementsTask(_content, _offsets, _maps, middle, _to));
+                return;
+            }
+
+            PMap2Reader reader = new PMap2Reader(StreamedPMapParser.this, _content, 0, _content.length);
+            try {
+                for (int i = _from; i < _to; i++) {
+                    _maps[i] = readElement(reader, _content, _offsets[i], _offsets[i + 1]);
+                }
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
 
-    public void XMLWriterToMapWithoutRoot(SerializationType serType, XMLStreamWriter writer, Map<String, Object> map)
+    /**
+     * Reads the map from <code>start</code> to <code>end</code> of <code>content</code> with <code>reader</code>,
+     * or on its own by StAX, which gives the same map or reports the error, when the reader can't.
+     */
+    private ParameterMap readElement(PMap2Reader reader, byte[] content, int start, int end)
             throws XMLStreamException {
 
-        XMLWriterToMapWithoutRoot(serType, writer, map, 0);
+        ParameterMap map = reader.readMap(start);
+        if (map == null) {
+            map = getMap(new ByteArrayInputStream(content, start, end - start));
+        }
+        return map;
     }
 
-    public void XMLWriterToMapWithoutRoot(SerializationType serType, XMLStreamWriter writer, Map<String, ?> map,
-                                          int level)
-            throws XMLStreamException {
+    /**
+     * Locates the elements of the array at <code>arrayPath</code>, made of map keys from the root, of a PMAP2
+     * document, to read pages of them with {@link #getRangeMapListByArray(ByteBuffer, PMapArrayIndex, int, int)} or
+     * {@link #getRangeMapListByArray(Path, PMapArrayIndex, int, int)}.
+     *
+     * @param content
+     * @param arrayPath
+     * @return
+     * @throws XMLStreamException
+     *         If there is no such array, or the document isn't plain PMAP2 XML as written by this parser.
+     */
+    public PMapArrayIndex buildArrayIndex(byte[] content, String arrayPath) throws XMLStreamException {
 
-        Collection<String> keys = map.keySet();
+        int[] offsets = null;
+        if (!BinaryPMap.isBinary(content)) {
+            offsets = new PMap2Reader(this, content, 0, content.length).findElements(ParameterPath.compile(arrayPath));
+        }
+        if (offsets == null) {
+            throw new XMLStreamException("Invalid data -> no indexable PMAP2 array at " + arrayPath);
+        }
 
-        if (serType.ident()) {
-            List<String> tmp = new ArrayList<>(map.keySet());
-            Collections.sort(tmp);
-            keys = tmp;
+        long[] longOffsets = new long[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            longOffsets[i] = offsets[i];
         }
+        return new PMapArrayIndex(arrayPath, content.length, longOffsets);
+    }
+
+    public PMapArrayIndex buildArrayIndex(Path path, String arrayPath) throws XMLStreamException, IOException {
 
-        int levelBelow = level + 1;
-        for (String key : keys) {
-            XMLWriterToValue(serType, writer, key, map.get(key), levelBelow);
+        return buildArrayIndex(Files.readAllBytes(path), arrayPath);
+    }
+
+    /**
+     * Reads the maps from <code>indexStart</code> to <code>indexEnd</code>, both included, of an indexed array,
+     * reading only their bytes. As with {@link #getRangeMapListByArray(XMLStreamReader, int, int)} the range ends
+     * with the array.
+     *
+     * @param content
+     *         The indexed document, from its position to its limit, such as a mapped file.
+     * @param index
+     * @param indexStart
+     * @param indexEnd
+     * @return
+     * @throws XMLStreamException
+     *         If <code>content</code> doesn't have the length of the indexed document, or an element isn't a map.
+     */
+    public List<ParameterMap> getRangeMapListByArray(ByteBuffer content, PMapArrayIndex index, int indexStart,
+                                                     int indexEnd) throws XMLStreamException {
+
+        checkIndex(index.getDocumentLength(), content.remaining());
+        if (indexStart < 0 || indexStart > indexEnd || indexStart >= index.size()) {
+            return new ArrayList<>();
         }
 
-        indentLevel(serType, writer, level);
+        int last = Math.min(indexEnd, index.size() - 1);
+        long start = index.getOffset(indexStart);
+        return readPage(readRange(content, start, index.getOffset(last + 1)), index, indexStart, last);
     }
 
-    private void XMLWriterToList(SerializationType serType, XMLStreamWriter writer, Collection<?> list, int level)
-            throws XMLStreamException {
+    /**
+     * Reads a page of maps of an indexed array in a file, as with
+     * {@link #getRangeMapListByArray(ByteBuffer, PMapArrayIndex, int, int)}.
+     *
+     * @param path
+     * @param index
+     * @param indexStart
+     * @param indexEnd
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public List<ParameterMap> getRangeMapListByArray(Path path, PMapArrayIndex index, int indexStart, int indexEnd)
+            throws XMLStreamException, IOException {
 
-        int levelBelow = level + 1;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            checkIndex(index.getDocumentLength(), channel.size());
+            if (indexStart < 0 || indexStart > indexEnd || indexStart >= index.size()) {
+                return new ArrayList<>();
+            }
 
-        for (Object value : list) {
-            XMLWriterToValue(serType, writer, null, value, levelBelow);
+            int last = Math.min(indexEnd, index.size() - 1);
+            long start = index.getOffset(indexStart);
+            return readPage(readRange(channel, start, index.getOffset(last + 1)), index, indexStart, last);
         }
-        indentLevel(serType, writer, level);
     }
 
-    @SuppressWarnings("unchecked")
-    private void XMLWriterToValue(SerializationType serType, XMLStreamWriter writer, String key, Object value,
-                                  int level)
+    private static void checkIndex(long indexedLength, long documentLength) throws XMLStreamException {
+
+        if (indexedLength != documentLength) {
+            throw new XMLStreamException("Invalid data -> index of a document of " + indexedLength
+                    + " bytes over " + documentLength + " bytes");
+        }
+    }
+
+    private static byte[] readRange(ByteBuffer content, long start, long end) {
+
+        byte[] range = new byte[(int) (end - start)];
+        ByteBuffer source = content.duplicate();
+        source.position(source.position() + (int) start);
+        source.get(range);
+        return range;
+    }
+
+    private static byte[] readRange(FileChannel channel, long start, long end) throws IOException {
+
+        ByteBuffer range = ByteBuffer.allocate((int) (end - start));
+        while (range.hasRemaining()) {
+            if (channel.read(range, start + range.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return range.array();
+    }
+
+    /**
+     * Indexes the elements of a PMAP XML document by their tag type and the values of <code>attributes</code>, in
+     * one pass over its bytes, for {@link #getXMLTreeByIndex(ByteBuffer, PMapDocumentIndex, PMapType, ParameterMap)}
+     * and {@link #getXMLTreeByIndex(Path, PMapDocumentIndex, PMapType, ParameterMap)}.
+     *
+     * @param content
+     * @param attributes
+     * @return
+     * @throws XMLStreamException
+     *         If the document isn't UTF-8 or its tags aren't well formed.
+     */
+    public static PMapDocumentIndex buildDocumentIndex(byte[] content, String... attributes)
             throws XMLStreamException {
 
-        PMapType type = PMapType.lookup(value);
-        if (type == null) {
-            if (serType.ignoreUnknownTypes()) {
-                // Just ignore this value because it's not supported
-                return;
+        return PMapDocumentIndex.build(content, attributes);
+    }
+
+    public static PMapDocumentIndex buildDocumentIndex(Path path, String... attributes)
+            throws XMLStreamException, IOException {
+
+        return PMapDocumentIndex.build(Files.readAllBytes(path), attributes);
+    }
+
+    /**
+     * Finds the first element, in document order, of type <code>tagType</code> whose attributes have the values of
+     * <code>keyValues</code>, compared as by {@link #matchXMLTree(XMLStreamReader, PMapType, ParameterMap)}, through
+     * an index of the document, reading only the bytes of that element.
+     *
+     * @param content
+     *         The indexed document, from its position to its limit, such as a mapped file.
+     * @param index
+     * @param tagType
+     * @param keyValues
+     *         Values of exactly the indexed attributes.
+     * @return A reader over the subtree alone, at its start element, to be closed by the caller, or null if there's
+     * no such element.
+     * @throws XMLStreamException
+     *         If <code>content</code> isn't the indexed document.
+     */
+    public static XMLStreamReader getXMLTreeByIndex(ByteBuffer content, PMapDocumentIndex index, PMapType tagType,
+                                                    ParameterMap keyValues) throws XMLStreamException {
+
+        checkIndex(index.getDocumentLength(), content.remaining());
+        long[] range = index.find(tagType, keyValues);
+        if (range == null) {
+            return null;
+        }
+        return openTree(readRange(content, range[0], range[1]), tagType, keyValues);
+    }
+
+    /**
+     * Finds a subtree of a document in a file through its index, as with
+     * {@link #getXMLTreeByIndex(ByteBuffer, PMapDocumentIndex, PMapType, ParameterMap)}.
+     *
+     * @param path
+     * @param index
+     * @param tagType
+     * @param keyValues
+     * @return
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public static XMLStreamReader getXMLTreeByIndex(Path path, PMapDocumentIndex index, PMapType tagType,
+                                                    ParameterMap keyValues) throws XMLStreamException, IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            checkIndex(index.getDocumentLength(), channel.size());
+            long[] range = index.find(tagType, keyValues);
+            if (range == null) {
+                return null;
             }
-            throw new XMLStreamException("Invalid Type - " + value.getClass().getCanonicalName());
+            return openTree(readRange(channel, range[0], range[1]), tagType, keyValues);
         }
+    }
+
+    private static XMLStreamReader openTree(byte[] tree, PMapType tagType, ParameterMap keyValues)
+            throws XMLStreamException {
 
-        if (serType.getVersion() == 1) {
-            writer.writeStartElement(TAG_PARAMETER);
-            writer.writeAttribute(ATT_TYPE, type.getOldPMapName());
-            if (key != null) {
-                writer.writeAttribute(ATT_NAME, key);
+        XMLStreamReader reader = _xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(tree), ENCODING);
+        try {
+            nextStartElement(reader);
+            if (!matchXMLTree(reader, tagType, keyValues)) {
+                throw new XMLStreamException("Invalid data -> the index doesn't match the document");
             }
-        } else {
-            indentLevel(serType, writer, level);
-            writer.writeStartElement(type.getShortName());
-            if (key != null) {
-                writer.writeAttribute(ATT_NAME_SHORT, key);
+            return reader;
+        } catch (XMLStreamException | RuntimeException e) {
+            closeQuietly(reader);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the maps of the elements from <code>first</code> to <code>last</code> of an index, whose bytes are all of
+     * <code>page</code>.
+     */
+    private List<ParameterMap> readPage(byte[] page, PMapArrayIndex index, int first, int last)
+            throws XMLStreamException {
+
+        long base = index.getOffset(first);
+        PMap2Reader reader = new PMap2Reader(this, page, 0, page.length);
+        List<ParameterMap> result = new ArrayList<>(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            int start = (int) (index.getOffset(i) - base);
+            int end = (int) (index.getOffset(i + 1) - base);
+            if (page[start + 1] != 'm') {
+                PMapType type = PMapType.lookup(String.valueOf((char) page[start + 1]));
+                throw new XMLStreamException("Invalid Type - " + type);
             }
+            result.add(readElement(reader, page, start, end));
         }
+        return result;
+    }
 
-        switch (type) {
-            case STRING:
-            case LONG:
-            case INT:
-            case FLOAT:
-            case DOUBLE:
-            case BOOLEAN:
-            case DECIMAL:
-                writeSimpleValue(writer, type, value);
-                break;
-            case MAP:
-                XMLWriterToMapWithoutRoot(serType, writer, (Map<String, Object>) value, level);
-                break;
-            case ARRAY:
-                XMLWriterToList(serType, writer, (Collection<?>) value, level);
-                break;
-            case DATE:
-                writeSimpleValue(writer, type, _dateFormatter.format(value));
-                break;
-            case NULL:
-                break;
+    public ParameterMap InputStreamToPMAP(SerializationType serType, InputStream is)
+            throws XMLStreamException, IOException {
+
+        if (!is.markSupported()) {
+            is = new BufferedInputStream(is);
+        }
+        if (BinaryPMap.isBinary(is)) {
+            return BinaryPMapReader.read(ByteBuffer.wrap(is.readAllBytes()));
         }
-        writer.writeEndElement();
 
+        XMLStreamReader reader = _xmlInputFactory.createXMLStreamReader(new InputStreamReader(is, CHARSET));
+        try {
+            final String pname = serType.getVersion() == 1 ? PMapType.MAP.getOldPMapName()
+                    : PMapType.MAP.getShortName();
+
+            reader.nextTag();
+            String rootTag = reader.getLocalName();
+
+            if ((rootTag != null && rootTag.equals(pname))
+                    || (serType.getVersion() == 1 && pname != null
+                    && pname.equals(reader.getAttributeValue(null, "type")))) {
+                return getMap(reader);
+            }
+        } finally {
+            closeQuietly(reader);
+        }
+
+        throw new XMLStreamException("unknown pmap format");
+    }
+
+    public void XMLWriterToMapWithoutRoot(SerializationType serType, XMLStreamWriter writer, Map<String, Object> map)
+            throws XMLStreamException {
+
+        XMLWriterToMapWithoutRoot(serType, writer, map, 0);
     }
 
-    private void writeSimpleValue(XMLStreamWriter writer, PMapType type, Object value) throws XMLStreamException {
+    public void XMLWriterToMapWithoutRoot(SerializationType serType, XMLStreamWriter writer, Map<String, ?> map,
+                                          int level)
+            throws XMLStreamException {
 
-        writer.writeCharacters(String.valueOf(value));
+        try {
+            new PMapWalker(new XmlPMapWriter(serType, writer, level), serType.ident(),
+                    serType.ignoreUnknownTypes()).walkEntries(map);
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+
+        indentLevel(serType, writer, level);
     }
 
     public Object parseValueLeaf(String value, PMapType ptype) throws ParseException {
@@ -742,7 +1358,7 @@ public class StreamedPMapParser {
                 object = Boolean.parseBoolean(value);
                 break;
             case DATE:
-                object = _dateFormatter.parse(value);
+                object = DateCodec.parse(value);
                 break;
             case DECIMAL:
                 object = new BigDecimal(value);
@@ -932,7 +1548,8 @@ public class StreamedPMapParser {
         PMAP2(false, false, 2),
         PMAP2_WITH_FORMATTING(false, true, 2),
         PMAP2_NO_UNKNOWN(true, false, 2),
-        PMAP1_NO_UNKWNOWN(true, false, 1);
+        PMAP1_NO_UNKWNOWN(true, false, 1),
+        PMAP3_BINARY(false, false, 3);
 
         private final boolean _ignoreUnknown;
         private final boolean _indent;
@@ -962,6 +1579,11 @@ public class StreamedPMapParser {
 
             return _indent;
         }
+
+        public boolean isBinary() {
+
+            return _version >= 3;
+        }
     }
 
 
@@ -0,0 +1,513 @@
+package com.mikusher.formats;
+
+import com.mikusher.converters.DateCodec;
+import com.mikusher.formats.StreamedPMapParser.SerializationType;
+import com.mikusher.parameter.PMapType;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/***************************************************************************
+ *
+ * Writes PMAP1 and PMAP2 XML documents, as a <code>{@link PMapVisitor}</code>,
+ * straight into UTF-8 bytes.
+ *
+ * <p>The output is byte for byte the one of <code>{@link XmlPMapWriter}</code>
+ * over the JDK <code>XMLStreamWriter</code>: the same escapes, taken from a
+ * table, and surrogates written as character references. Integers and dates
+ * are formatted into the buffer without allocating, dates by
+ * <code>{@link DateCodec}</code>.</p>
+ *
+ * <p>Bytes are gathered in a growable buffer, which is reused by the next
+ * document. When writing to a stream the buffer is written out whenever it
+ * fills up instead of growing. A writer isn't thread safe, shared ones are
+ * borrowed from a small lock free pool with <code>{@link #acquire()}</code>
+ * and given back with <code>{@link #release(Utf8XmlPMapWriter)}</code>.</p>
+ *
+ ***************************************************************************/
+final class Utf8XmlPMapWriter implements PMapVisitor {
+
+    private static final int INITIAL_CAPACITY = 8192;
+    // Buffers that grew larger than this for a document aren't kept
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    // Characters of a string encoded per capacity check, at most 6 bytes each
+    private static final int CHUNK = 1024;
+    private static final int MAX_ESCAPE = 10;
+
+    private static final byte[] DECLARATION = ascii("<?xml version=\"" + StreamedPMapParser.VERSION
+            + "\" encoding=\"" + StreamedPMapParser.ENCODING + "\"?>\n");
+    private static final byte[] ROOT_V1 = ascii(PMapType.MAP.getOldPMapName());
+    private static final byte[] ROOT_V2 = ascii(PMapType.MAP.getShortName());
+    private static final byte[] PARAMETER = ascii(StreamedPMapParser.TAG_PARAMETER);
+    private static final byte[][] START_V1 = new byte[PMapType.values().length][];
+    private static final byte[][] START_V2 = new byte[PMapType.values().length][];
+    private static final byte[] NAME_V1 = ascii(" " + StreamedPMapParser.ATT_NAME + "=\"");
+    private static final byte[] NAME_V2 = ascii(" " + StreamedPMapParser.ATT_NAME_SHORT + "=\"");
+
+    // Replacements of the ASCII characters escaped in text, and in attributes
+    private static final byte[][] TEXT_ESCAPES = new byte[128][];
+    private static final byte[][] ATTRIBUTE_ESCAPES = new byte[128][];
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    // Idle writers, a slot holding null while its writer is borrowed or none was released yet
+    private static final int POOL_SIZE = Math.min(64,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+    private static final AtomicReferenceArray<Utf8XmlPMapWriter> POOL = new AtomicReferenceArray<>(POOL_SIZE);
+
+    static {
+        for (PMapType type : PMapType.values()) {
+            START_V1[type.ordinal()] = ascii("<" + StreamedPMapParser.TAG_PARAMETER + " "
+                    + StreamedPMapParser.ATT_TYPE + "=\"" + type.getOldPMapName() + "\"");
+            START_V2[type.ordinal()] = ascii("<" + type.getShortName());
+        }
+
+        TEXT_ESCAPES['<'] = ascii("&lt;");
+        TEXT_ESCAPES['>'] = ascii("&gt;");
+        TEXT_ESCAPES['&'] = ascii("&amp;");
+        System.arraycopy(TEXT_ESCAPES, 0, ATTRIBUTE_ESCAPES, 0, TEXT_ESCAPES.length);
+        ATTRIBUTE_ESCAPES['"'] = ascii("&quot;");
+    }
+
+    private SerializationType _type;
+    private OutputStream _out;
+    private byte[] _buffer = new byte[INITIAL_CAPACITY];
+    private int _count = 0;
+    // Level of the innermost open map or array, -1 outside of a document
+    private int _level = -1;
+
+
+    Utf8XmlPMapWriter() {
+
+    }
+
+    /***************************************************************************
+     *
+     * Writer of a document fed as a visitor.
+     *
+     * @param out
+     *            Where the document is written, and flushed, as the buffer
+     *            fills up and once the root map ends. It isn't closed.
+     *
+     ***************************************************************************/
+    Utf8XmlPMapWriter(SerializationType type, OutputStream out) {
+
+        _type = type;
+        _out = out;
+    }
+
+    /***************************************************************************
+     *
+     * Takes an idle writer from the pool, probing from a slot picked by the
+     * current thread so that threads seldom race for the same one, or
+     * creates a writer when none is idle.
+     *
+     ***************************************************************************/
+    static Utf8XmlPMapWriter acquire() {
+
+        int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            int slot = (start + i) & (POOL_SIZE - 1);
+            if (POOL.get(slot) != null) {
+                Utf8XmlPMapWriter writer = POOL.getAndSet(slot, null);
+                if (writer != null) {
+                    return writer;
+                }
+            }
+        }
+        return new Utf8XmlPMapWriter();
+    }
+
+    /***************************************************************************
+     *
+     * Gives back a writer taken by <code>{@link #acquire()}</code>, once its
+     * document is written. It's dropped when the pool is full.
+     *
+     ***************************************************************************/
+    static void release(Utf8XmlPMapWriter writer) {
+
+        int start = (int) Thread.currentThread().getId();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            int slot = (start + i) & (POOL_SIZE - 1);
+            if (POOL.get(slot) == null && POOL.compareAndSet(slot, null, writer)) {
+                return;
+            }
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Serializes <code>map</code> and returns the document.
+     *
+     ***************************************************************************/
+    byte[] toByteArray(Map<String, ?> map, SerializationType type) throws XMLStreamException, IOException {
+
+        _type = type;
+        _out = null;
+        try {
+            new PMapWalker(this, type.ident(), type.ignoreUnknownTypes()).walk(map);
+            return Arrays.copyOf(_buffer, _count);
+        } finally {
+            reset();
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Serializes <code>map</code> into <code>os</code>. The stream isn't
+     * closed.
+     *
+     ***************************************************************************/
+    void write(Map<String, ?> map, SerializationType type, OutputStream os) throws XMLStreamException, IOException {
+
+        _type = type;
+        _out = os;
+        try {
+            new PMapWalker(this, type.ident(), type.ignoreUnknownTypes()).walk(map);
+        } finally {
+            _out = null;
+            reset();
+        }
+    }
+
+    private void reset() {
+
+        _count = 0;
+        _level = -1;
+        if (_buffer.length > MAX_RETAINED_CAPACITY) {
+            _buffer = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+    @Override
+    public void startMap(String name) throws IOException {
+
+        if (_level < 0) {
+            _count = 0;
+            put(DECLARATION);
+            ensure(ROOT_V1.length + 2);
+            _buffer[_count++] = '<';
+            put(_type.getVersion() == 1 ? ROOT_V1 : ROOT_V2);
+            _buffer[_count++] = '>';
+            _level = 0;
+            return;
+        }
+
+        start(name, PMapType.MAP);
+        _level++;
+    }
+
+    @Override
+    public void endMap() throws IOException {
+
+        if (_level > 0) {
+            end(PMapType.MAP);
+            return;
+        }
+
+        indent(0);
+        end(_type.getVersion() == 1 ? ROOT_V1 : ROOT_V2);
+        _level = -1;
+        if (_out != null) {
+            _out.write(_buffer, 0, _count);
+            _out.flush();
+            _count = 0;
+        }
+    }
+
+    @Override
+    public void startArray(String name) throws XMLStreamException, IOException {
+
+        if (_level < 0) {
+            throw new XMLStreamException("Invalid root type - " + PMapType.ARRAY);
+        }
+
+        start(name, PMapType.ARRAY);
+        _level++;
+    }
+
+    @Override
+    public void endArray() throws IOException {
+
+        end(PMapType.ARRAY);
+    }
+
+    @Override
+    public void stringValue(String name, String value) throws IOException {
+
+        start(name, PMapType.STRING);
+        writeEscaped(value, TEXT_ESCAPES);
+        endValue(PMapType.STRING);
+    }
+
+    @Override
+    public void intValue(String name, int value) throws IOException {
+
+        start(name, PMapType.INT);
+        writeLong(value);
+        endValue(PMapType.INT);
+    }
+
+    @Override
+    public void longValue(String name, long value) throws IOException {
+
+        start(name, PMapType.LONG);
+        writeLong(value);
+        endValue(PMapType.LONG);
+    }
+
+    @Override
+    public void floatValue(String name, float value) throws IOException {
+
+        start(name, PMapType.FLOAT);
+        writeAscii(Float.toString(value));
+        endValue(PMapType.FLOAT);
+    }
+
+    @Override
+    public void doubleValue(String name, double value) throws IOException {
+
+        start(name, PMapType.DOUBLE);
+        writeAscii(Double.toString(value));
+        endValue(PMapType.DOUBLE);
+    }
+
+    @Override
+    public void booleanValue(String name, boolean value) throws IOException {
+
+        start(name, PMapType.BOOLEAN);
+        writeAscii(value ? "true" : "false");
+        endValue(PMapType.BOOLEAN);
+    }
+
+    @Override
+    public void decimalValue(String name, BigDecimal value) throws IOException {
+
+        start(name, PMapType.DECIMAL);
+        writeAscii(value.toString());
+        endValue(PMapType.DECIMAL);
+    }
+
+    @Override
+    public void dateValue(String name, long epochMillis) throws IOException {
+
+        start(name, PMapType.DATE);
+        if (epochMillis >= DateCodec.MIN_MILLIS && epochMillis < DateCodec.MAX_MILLIS) {
+            ensure(DateCodec.LENGTH);
+            DateCodec.format(epochMillis, _buffer, _count);
+            _count += DateCodec.LENGTH;
+        } else {
+            writeAscii(DateCodec.format(epochMillis));
+        }
+        endValue(PMapType.DATE);
+    }
+
+    @Override
+    public void nullValue(String name) throws IOException {
+
+        start(name, PMapType.NULL);
+        endValue(PMapType.NULL);
+    }
+
+    private void start(String name, PMapType type) throws IOException {
+
+        if (_type.getVersion() == 1) {
+            put(START_V1[type.ordinal()]);
+            if (name != null) {
+                put(NAME_V1);
+                writeEscaped(name, ATTRIBUTE_ESCAPES);
+                ensure(1);
+                _buffer[_count++] = '"';
+            }
+        } else {
+            indent(_level + 1);
+            put(START_V2[type.ordinal()]);
+            if (name != null) {
+                put(NAME_V2);
+                writeEscaped(name, ATTRIBUTE_ESCAPES);
+                ensure(1);
+                _buffer[_count++] = '"';
+            }
+        }
+        ensure(1);
+        _buffer[_count++] = '>';
+    }
+
+    private void end(PMapType type) throws IOException {
+
+        indent(_level);
+        endValue(type);
+        _level--;
+    }
+
+    private void endValue(PMapType type) throws IOException {
+
+        if (_type.getVersion() == 1) {
+            end(PARAMETER);
+        } else {
+            ensure(4);
+            _buffer[_count++] = '<';
+            _buffer[_count++] = '/';
+            _buffer[_count++] = (byte) type.getShortName().charAt(0);
+            _buffer[_count++] = '>';
+        }
+    }
+
+    private void end(byte[] tag) throws IOException {
+
+        ensure(tag.length + 3);
+        _buffer[_count++] = '<';
+        _buffer[_count++] = '/';
+        System.arraycopy(tag, 0, _buffer, _count, tag.length);
+        _count += tag.length;
+        _buffer[_count++] = '>';
+    }
+
+    private void indent(int level) throws IOException {
+
+        if (!_type.ident()) {
+            return;
+        }
+
+        ensure(level + 1);
+        _buffer[_count++] = '\n';
+        for (int i = 0; i < level; i++) {
+            _buffer[_count++] = '\t';
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Writes <code>value</code> as UTF-8 with the escapes of the table, and
+     * every surrogate as a character reference like the JDK writer does.
+     *
+     ***************************************************************************/
+    private void writeEscaped(String value, byte[][] escapes) throws IOException {
+
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            int chunkEnd = Math.min(length, i + CHUNK);
+            ensure((chunkEnd - i + 1) * 6);
+            byte[] buffer = _buffer;
+            int count = _count;
+
+            for (; i < chunkEnd; i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    byte[] escape = escapes[c];
+                    if (escape == null) {
+                        buffer[count++] = (byte) c;
+                    } else {
+                        System.arraycopy(escape, 0, buffer, count, escape.length);
+                        count += escape.length;
+                    }
+                } else if (c < 0x800) {
+                    buffer[count++] = (byte) (0xC0 | (c >> 6));
+                    buffer[count++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    int codePoint = c;
+                    if (i + 1 < length && Character.isSurrogatePair(c, value.charAt(i + 1))) {
+                        codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    }
+                    _count = count;
+                    writeCharReference(codePoint);
+                    buffer = _buffer;
+                    count = _count;
+                } else {
+                    buffer[count++] = (byte) (0xE0 | (c >> 12));
+                    buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            _count = count;
+        }
+    }
+
+    private void writeCharReference(int codePoint) throws IOException {
+
+        ensure(MAX_ESCAPE);
+        _buffer[_count++] = '&';
+        _buffer[_count++] = '#';
+        _buffer[_count++] = 'x';
+        int digits = Math.max(1, (35 - Integer.numberOfLeadingZeros(codePoint)) / 4);
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            _buffer[_count++] = HEX[(codePoint >> shift) & 0xF];
+        }
+        _buffer[_count++] = ';';
+    }
+
+    private void writeLong(long value) throws IOException {
+
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+
+        ensure(20);
+        if (value < 0) {
+            _buffer[_count++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int position = _count + digits;
+        _count = position;
+        do {
+            _buffer[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+    }
+
+    private void writeAscii(String value) throws IOException {
+
+        int length = value.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            _buffer[_count++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void put(byte[] bytes) throws IOException {
+
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, _buffer, _count, bytes.length);
+        _count += bytes.length;
+    }
+
+    /***************************************************************************
+     *
+     * Makes room for <code>size</code> more bytes, by writing the buffer out
+     * when there's a stream and by growing it otherwise.
+     *
+     ***************************************************************************/
+    private void ensure(int size) throws IOException {
+
+        if (_buffer.length - _count >= size) {
+            return;
+        }
+
+        if (_out != null && _count > 0) {
+            _out.write(_buffer, 0, _count);
+            _count = 0;
+            if (_buffer.length >= size) {
+                return;
+            }
+        }
+
+        _buffer = Arrays.copyOf(_buffer, Math.max(_buffer.length * 2, _count + size));
+    }
+
+    private static byte[] ascii(String value) {
+
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
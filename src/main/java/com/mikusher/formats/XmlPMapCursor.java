@@ -0,0 +1,201 @@
+package com.mikusher.formats;
+
+import com.mikusher.error.IncorrectTypeException;
+import com.mikusher.parameter.PMapType;
+import com.mikusher.utils.StaxUtils;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+
+/***************************************************************************
+ *
+ * <code>{@link PMapCursor}</code> over a PMAP1 or PMAP2 XML document. The
+ * text of each value is kept as it is and only parsed by the accessors.
+ *
+ ***************************************************************************/
+final class XmlPMapCursor extends PMapCursor {
+
+    private final StreamedPMapParser _parser;
+    private final XMLStreamReader _reader;
+    private final InputStream _in;
+    private String _text = null;
+
+
+    XmlPMapCursor(StreamedPMapParser parser, XMLStreamReader reader, InputStream in) {
+
+        _parser = parser;
+        _reader = reader;
+        _in = in;
+    }
+
+    @Override
+    public Event next() throws XMLStreamException {
+
+        _name = null;
+        _type = null;
+        _text = null;
+
+        if (_event == Event.END_DOCUMENT) {
+            return _event;
+        }
+
+        while (_reader.hasNext()) {
+            switch (_reader.next()) {
+                case XMLStreamReader.START_ELEMENT:
+                    return start();
+                case XMLStreamReader.END_ELEMENT:
+                    _depth--;
+                    return _event = Event.END;
+                default:
+                    break;
+            }
+        }
+
+        if (_depth > 0) {
+            throw new XMLStreamException("Truncated PMAP document");
+        }
+        return _event = Event.END_DOCUMENT;
+    }
+
+    private Event start() throws XMLStreamException {
+
+        String type = StaxUtils.ATT(_reader, StreamedPMapParser.ATT_TYPE);
+        if (type == null) {
+            type = _reader.getLocalName();
+        }
+
+        PMapType ptype = PMapType.lookup(type);
+        if (ptype == null) {
+            throw new XMLStreamException("Invalid type - " + type);
+        }
+
+        if (_event == null) {
+            if (ptype != PMapType.MAP) {
+                throw new XMLStreamException("unknown pmap format");
+            }
+        } else {
+            _name = StaxUtils.ATT(_reader, StreamedPMapParser.ATT_NAME_SHORT);
+            if (_name == null) {
+                _name = StaxUtils.ATT(_reader, StreamedPMapParser.ATT_NAME);
+            }
+        }
+
+        _type = ptype;
+        switch (ptype) {
+            case MAP:
+                _depth++;
+                return _event = Event.START_MAP;
+            case ARRAY:
+                _depth++;
+                return _event = Event.START_ARRAY;
+            default:
+                // Leaves the reader on the END_ELEMENT of the value
+                _text = _reader.getElementText();
+                return _event = Event.VALUE;
+        }
+    }
+
+    @Override
+    public Object value() throws IncorrectTypeException {
+
+        checkValue();
+        try {
+            switch (_type) {
+                case STRING:
+                    return _text;
+                case INT:
+                    return Integer.valueOf(_text);
+                case LONG:
+                    return Long.valueOf(_text);
+                case FLOAT:
+                    return Float.valueOf(_text);
+                case DOUBLE:
+                    return Double.valueOf(_text);
+                case BOOLEAN:
+                    return Boolean.valueOf(_text);
+                case DATE:
+                    return _parser.parseDate(_text);
+                case DECIMAL:
+                    return new BigDecimal(_text);
+                default:
+                    return null;
+            }
+        } catch (Exception e) {
+            throw new IncorrectTypeException(_name, _type.getJavaClass(), String.class, e);
+        }
+    }
+
+    @Override
+    public int intValue() throws IncorrectTypeException {
+
+        checkValue();
+        if (_type != PMapType.INT) {
+            return super.intValue();
+        }
+
+        try {
+            return Integer.parseInt(_text);
+        } catch (NumberFormatException e) {
+            throw new IncorrectTypeException(_name, Integer.class, String.class, e);
+        }
+    }
+
+    @Override
+    public long longValue() throws IncorrectTypeException {
+
+        checkValue();
+        if (_type != PMapType.LONG && _type != PMapType.INT) {
+            return super.longValue();
+        }
+
+        try {
+            return Long.parseLong(_text);
+        } catch (NumberFormatException e) {
+            throw new IncorrectTypeException(_name, Long.class, String.class, e);
+        }
+    }
+
+    @Override
+    public double doubleValue() throws IncorrectTypeException {
+
+        checkValue();
+        if (_type != PMapType.DOUBLE) {
+            return super.doubleValue();
+        }
+
+        try {
+            return Double.parseDouble(_text);
+        } catch (NumberFormatException e) {
+            throw new IncorrectTypeException(_name, Double.class, String.class, e);
+        }
+    }
+
+    @Override
+    public boolean booleanValue() throws IncorrectTypeException {
+
+        checkValue();
+        return _type == PMapType.BOOLEAN ? Boolean.parseBoolean(_text) : super.booleanValue();
+    }
+
+    @Override
+    public String stringValue() throws IncorrectTypeException {
+
+        checkValue();
+        return _type == PMapType.STRING ? _text : super.stringValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+            _reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            _in.close();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.mikusher.formats;
+
+import com.mikusher.converters.DateCodec;
+import com.mikusher.formats.StreamedPMapParser.SerializationType;
+import com.mikusher.parameter.PMapType;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/***************************************************************************
+ *
+ * Writes PMAP1 and PMAP2 XML documents, as a <code>{@link PMapVisitor}</code>,
+ * to a <code>XMLStreamWriter</code>.
+ *
+ ***************************************************************************/
+final class XmlPMapWriter implements PMapVisitor {
+
+    private final SerializationType _type;
+    private final XMLStreamWriter _writer;
+    private final Flushable _out;
+    private final boolean _document;
+    // Level of the innermost open map or array, whose values are one level below
+    private int _level;
+
+
+    /***************************************************************************
+     *
+     * Writer of whole documents: the first map is the root of the document,
+     * which is ended, and flushed, with it.
+     *
+     * @param out
+     *            Flushed, if not null, after <code>writer</code> once the
+     *            document ends.
+     *
+     ***************************************************************************/
+    XmlPMapWriter(SerializationType type, XMLStreamWriter writer, Flushable out) {
+
+        _type = type;
+        _writer = writer;
+        _out = out;
+        _document = true;
+        _level = -1;
+    }
+
+    /***************************************************************************
+     *
+     * Writer of values inside a map already open on <code>writer</code> at
+     * <code>level</code>.
+     *
+     ***************************************************************************/
+    XmlPMapWriter(SerializationType type, XMLStreamWriter writer, int level) {
+
+        _type = type;
+        _writer = writer;
+        _out = null;
+        _document = false;
+        _level = level;
+    }
+
+    @Override
+    public void startMap(String name) throws XMLStreamException {
+
+        if (_document && _level < 0) {
+            _writer.writeStartDocument(StreamedPMapParser.ENCODING, StreamedPMapParser.VERSION);
+            _writer.writeCharacters("\n");
+            if (_type.getVersion() == 1) {
+                _writer.writeStartElement(PMapType.MAP.getOldPMapName());
+            } else {
+                _writer.writeStartElement(PMapType.MAP.getShortName());
+            }
+            _level = 0;
+            return;
+        }
+
+        start(name, PMapType.MAP);
+        _level++;
+    }
+
+    @Override
+    public void endMap() throws XMLStreamException, IOException {
+
+        end();
+        if (_document && _level < 0) {
+            _writer.writeEndDocument();
+            _writer.flush();
+            if (_out != null) {
+                _out.flush();
+            }
+        }
+    }
+
+    @Override
+    public void startArray(String name) throws XMLStreamException {
+
+        if (_document && _level < 0) {
+            throw new XMLStreamException("Invalid root type - " + PMapType.ARRAY);
+        }
+
+        start(name, PMapType.ARRAY);
+        _level++;
+    }
+
+    @Override
+    public void endArray() throws XMLStreamException {
+
+        end();
+    }
+
+    @Override
+    public void stringValue(String name, String value) throws XMLStreamException {
+
+        value(name, PMapType.STRING, value);
+    }
+
+    @Override
+    public void intValue(String name, int value) throws XMLStreamException {
+
+        value(name, PMapType.INT, String.valueOf(value));
+    }
+
+    @Override
+    public void longValue(String name, long value) throws XMLStreamException {
+
+        value(name, PMapType.LONG, String.valueOf(value));
+    }
+
+    @Override
+    public void floatValue(String name, float value) throws XMLStreamException {
+
+        value(name, PMapType.FLOAT, String.valueOf(value));
+    }
+
+    @Override
+    public void doubleValue(String name, double value) throws XMLStreamException {
+
+        value(name, PMapType.DOUBLE, String.valueOf(value));
+    }
+
+    @Override
+    public void booleanValue(String name, boolean value) throws XMLStreamException {
+
+        value(name, PMapType.BOOLEAN, String.valueOf(value));
+    }
+
+    @Override
+    public void decimalValue(String name, BigDecimal value) throws XMLStreamException {
+
+        value(name, PMapType.DECIMAL, value.toString());
+    }
+
+    @Override
+    public void dateValue(String name, long epochMillis) throws XMLStreamException {
+
+        value(name, PMapType.DATE, DateCodec.format(epochMillis));
+    }
+
+    @Override
+    public void nullValue(String name) throws XMLStreamException {
+
+        start(name, PMapType.NULL);
+        _writer.writeEndElement();
+    }
+
+    private void value(String name, PMapType type, String text) throws XMLStreamException {
+
+        start(name, type);
+        _writer.writeCharacters(text);
+        _writer.writeEndElement();
+    }
+
+    private void start(String name, PMapType type) throws XMLStreamException {
+
+        if (_type.getVersion() == 1) {
+            _writer.writeStartElement(StreamedPMapParser.TAG_PARAMETER);
+            _writer.writeAttribute(StreamedPMapParser.ATT_TYPE, type.getOldPMapName());
+            if (name != null) {
+                _writer.writeAttribute(StreamedPMapParser.ATT_NAME, name);
+            }
+        } else {
+            StreamedPMapParser.indentLevel(_type, _writer, _level + 1);
+            _writer.writeStartElement(type.getShortName());
+            if (name != null) {
+                _writer.writeAttribute(StreamedPMapParser.ATT_NAME_SHORT, name);
+            }
+        }
+    }
+
+    private void end() throws XMLStreamException {
+
+        StreamedPMapParser.indentLevel(_type, _writer, _level);
+        _writer.writeEndElement();
+        _level--;
+    }
+}
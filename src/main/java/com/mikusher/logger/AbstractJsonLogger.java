@@ -8,6 +8,7 @@ import org.apache.commons.lang3.time.FastDateFormat;
 import org.slf4j.MDC;
 
 import java.text.Format;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
@@ -17,29 +18,74 @@ import java.util.function.Supplier;
  *
  */
 public abstract class AbstractJsonLogger implements JsonLogger {
+    // Frames of reflective calls are kept so stacks read as the ones of an exception
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance(
+            EnumSet.of(StackWalker.Option.RETAIN_CLASS_REFERENCE, StackWalker.Option.SHOW_REFLECT_FRAMES));
+    // Logs the summaries of its limits on behalf of the call site, whose frame is the one under it
+    private static final String LOGGER_CLASS = "com.mikusher.logger.factory.Logger";
+
     protected org.slf4j.Logger slf4jLogger;
     private final FastDateFormat formatter;
     private final Gson gson;
-    private final JsonObject jsonObject;
+    // Only one of them is used: the values kept as they're set, encoded by the thread that logs them unless the
+    // pipeline does it, or the tree written by Gson
+    private final LogEvent event;
+    private JsonObject jsonObject;
+    private final AsyncLogPipeline pipeline;
+    // Whether the builder was taken for an event by a logger that reuses it
+    private boolean acquired = false;
     private final boolean includeLoggerName;
     private final boolean justJsonLogger;
+    private final CallerInfo callerInfo;
 
     public AbstractJsonLogger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, Gson gson, boolean includeLoggerName, boolean justJsonLogger) {
+        this(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, true);
+    }
+
+    /**
+     * @param streamingJson Whether the values of the fields are kept as they're set and encoded straight into a
+     *                      buffer, rather than added to a JsonObject written when the event is logged. Both give the
+     *                      same JSON.
+     */
+    public AbstractJsonLogger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, Gson gson, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson) {
+        this(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, CallerInfo.CLASS);
+    }
+
+    /**
+     * @param callerInfo What to write of the code that logged the event
+     */
+    public AbstractJsonLogger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, Gson gson, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson, CallerInfo callerInfo) {
+        this(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, callerInfo, null);
+    }
+
+    /**
+     * @param pipeline The pipeline that encodes and writes the event once it's logged, or null to do it in log(). The
+     *                 values of the event are kept as they're set, and streamingJson doesn't apply.
+     */
+    public AbstractJsonLogger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, Gson gson, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson, CallerInfo callerInfo, AsyncLogPipeline pipeline) {
         this.slf4jLogger = slf4jLogger;
         this.formatter = formatter;
         this.gson = gson;
         this.includeLoggerName = includeLoggerName;
         this.justJsonLogger = justJsonLogger;
+        this.callerInfo = callerInfo;
+        this.pipeline = pipeline;
 
-        jsonObject = new JsonObject();
+        if (pipeline != null || streamingJson) {
+            event = new LogEvent();
+            jsonObject = null;
+        } else {
+            event = null;
+            jsonObject = new JsonObject();
+        }
     }
 
     @Override
     public JsonLogger setString(String key, String text) {
         try {
-            jsonObject.add(key, gson.toJsonTree(text));
+            add(key, text);
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -47,9 +93,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger setInteger(String key, Integer value) {
         try {
-            jsonObject.add(key, gson.toJsonTree(value));
+            add(key, value);
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -57,9 +103,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger message(String message) {
         try {
-            jsonObject.add("message", gson.toJsonTree(message));
+            add("message", message);
         } catch (Exception e) {
-            jsonObject.add("message", gson.toJsonTree(formatException(e)));
+            add("message", formatException(e));
         }
         return this;
     }
@@ -67,9 +113,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger message(Supplier<String> message) {
         try {
-            jsonObject.add("message", gson.toJsonTree(message.get()));
+            add("message", message.get());
         } catch (Exception e) {
-            jsonObject.add("message", gson.toJsonTree(formatException(e)));
+            add("message", formatException(e));
         }
         return this;
     }
@@ -77,9 +123,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger map(String key, Map map) {
         try {
-            jsonObject.add(key, gson.toJsonTree(map));
+            add(key, map);
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -87,9 +133,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger map(String key, Supplier<Map> map) {
         try {
-            jsonObject.add(key, gson.toJsonTree(map.get()));
+            add(key, map.get());
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -97,9 +143,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger list(String key, List list) {
         try {
-            jsonObject.add(key, gson.toJsonTree(list));
+            add(key, list);
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -107,9 +153,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger list(String key, Supplier<List> list) {
         try {
-            jsonObject.add(key, gson.toJsonTree(list.get()));
+            add(key, list.get());
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -117,9 +163,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger field(String key, Object value) {
         try {
-            jsonObject.add(key, gson.toJsonTree(value));
+            add(key, value);
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -130,12 +176,12 @@ public abstract class AbstractJsonLogger implements JsonLogger {
             // in the rare case that the value passed is null, this method will be selected as more specific than the Object
             // method.  Have to handle it here or the value.get() will NullPointer
             if (value == null) {
-                jsonObject.add(key, null);
+                addJson(key, null);
             } else {
-                jsonObject.add(key, gson.toJsonTree(value.get()));
+                add(key, value.get());
             }
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -143,9 +189,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger json(String key, JsonElement jsonElement) {
         try {
-            jsonObject.add(key, jsonElement);
+            addJson(key, jsonElement);
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -153,9 +199,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger json(String key, Supplier<JsonElement> jsonElement) {
         try {
-            jsonObject.add(key, jsonElement.get());
+            addJson(key, jsonElement.get());
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -163,9 +209,13 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger exception(String key, Exception exception) {
         try {
-            jsonObject.add(key, gson.toJsonTree(formatException(exception)));
+            if (event != null) {
+                event.addException(key, exception);
+            } else {
+                add(key, formatException(exception));
+            }
         } catch (Exception e) {
-            jsonObject.add(key, gson.toJsonTree(formatException(e)));
+            add(key, formatException(e));
         }
         return this;
     }
@@ -173,9 +223,9 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     @Override
     public JsonLogger stack() {
         try {
-            jsonObject.add("stacktrace", gson.toJsonTree(formatStack()));
+            add("stacktrace", formatStack());
         } catch (Exception e) {
-            jsonObject.add("stacktrace", gson.toJsonTree(formatException(e)));
+            add("stacktrace", formatException(e));
         }
         return this;
     }
@@ -185,40 +235,145 @@ public abstract class AbstractJsonLogger implements JsonLogger {
 
     protected String formatMessage(String level) {
 
-        jsonObject.add("level", gson.toJsonTree(level));
-        jsonObject.add("thread_name", gson.toJsonTree(Thread.currentThread().getName()));
+        if (event != null) {
+            Object caller = null;
+            if (callerInfo != CallerInfo.OFF) {
+                try {
+                    caller = getCallingFrame();
+                } catch (Exception e) {
+                    caller = e;
+                }
+            }
+            captureEvent(level, caller);
+            JsonFields fields = JsonFields.acquire();
+            try {
+                return event.toJson(fields);
+            } finally {
+                fields.release();
+            }
+        }
 
-        try {
-            jsonObject.add("class", gson.toJsonTree(getCallingClass()));
-        } catch (Exception e) {
-            jsonObject.add("class", gson.toJsonTree(formatException(e)));
+        add("level", level);
+        add("thread_name", Thread.currentThread().getName());
+
+        if (callerInfo != CallerInfo.OFF) {
+            try {
+                StackWalker.StackFrame caller = getCallingFrame();
+                add("class", caller.getDeclaringClass().getName());
+                if (callerInfo == CallerInfo.CLASS_METHOD_LINE) {
+                    add("method", caller.getMethodName());
+                    add("line", caller.getLineNumber());
+                }
+            } catch (Exception e) {
+                add("class", formatException(e));
+            }
         }
 
         if (includeLoggerName) {
-            jsonObject.add("logger_name", gson.toJsonTree(slf4jLogger.getName()));
+            add("logger_name", slf4jLogger.getName());
         }
 
         try {
-            jsonObject.add("@timestamp", gson.toJsonTree(getCurrentTimestamp(formatter)));
+            add("@timestamp", getCurrentTimestamp(formatter));
         } catch (Exception e) {
-            jsonObject.add("@timestamp", gson.toJsonTree(formatException(e)));
+            add("@timestamp", formatException(e));
         }
 
         Map mdc = MDC.getCopyOfContextMap();
         if (mdc != null && !mdc.isEmpty()) {
             try {
-                jsonObject.add("mdc", gson.toJsonTree(mdc));
+                add("mdc", mdc);
             } catch (Exception e) {
-                jsonObject.add("mdc", gson.toJsonTree(formatException(e)));
+                add("mdc", formatException(e));
             }
         }
 
         return gson.toJson(jsonObject);
     }
 
-    private String getCallingClass() {
-        StackTraceElement[] stackTraceElements = (new Exception()).getStackTrace();
-        return stackTraceElements[3].getClassName();
+    /**
+     * Queues the event on the async pipeline of the logger, if it has one. To be called by log(), whose caller is the
+     * one of the event.
+     *
+     * @return Whether the event was queued, or dropped as the pipeline is full. If not, log() writes it itself.
+     */
+    protected boolean publish(String level) {
+
+        if (pipeline == null) {
+            return false;
+        }
+
+        Object caller = null;
+        if (callerInfo != CallerInfo.OFF) {
+            try {
+                caller = getCallingFrame();
+            } catch (Exception e) {
+                caller = e;
+            }
+        }
+        captureEvent(level, caller);
+        return pipeline.publish(event);
+    }
+
+    /**
+     * Takes the builder for a new event, for loggers that reuse builders. The builder is cleared by
+     * {@link #release()} once the event is logged.
+     *
+     * @return False if the builder is taken already, as an event is being built with it.
+     */
+    public boolean acquire() {
+        if (acquired) {
+            return false;
+        }
+        acquired = true;
+        return true;
+    }
+
+    /**
+     * Clears the event of a builder taken by {@link #acquire()}, so that it can be reused. To be called by log() once
+     * the event is written or queued. Builders that weren't taken are left as they are.
+     */
+    protected void release() {
+        if (!acquired) {
+            return;
+        }
+        if (event != null) {
+            event.clear();
+        } else {
+            jsonObject = new JsonObject();
+        }
+        acquired = false;
+    }
+
+    private void captureEvent(String level, Object caller) {
+        event.capture(slf4jLogger, formatter, gson, includeLoggerName, callerInfo, level, caller, MDC.getCopyOfContextMap());
+    }
+
+    private void add(String key, Object value) {
+        if (event != null) {
+            event.add(key, value);
+        } else {
+            jsonObject.add(key, gson.toJsonTree(value));
+        }
+    }
+
+    private void addJson(String key, JsonElement jsonElement) {
+        if (event != null) {
+            event.add(key, jsonElement);
+        } else {
+            jsonObject.add(key, jsonElement);
+        }
+    }
+
+    /**
+     * The frame under this method, formatMessage() or publish(), and the log method of the subclass, and under the
+     * frames of the Logger when it logged the event itself. Only the frames up to it are walked, and the name of the
+     * method and its line are only looked up when asked for.
+     */
+    private StackWalker.StackFrame getCallingFrame() {
+        return STACK_WALKER.walk(frames -> frames.skip(3)
+                .dropWhile(frame -> frame.getClassName().equals(LOGGER_CLASS))
+                .findFirst()).orElseThrow();
     }
 
     private String getCurrentTimestamp(Format formatter) {
@@ -230,19 +385,21 @@ public abstract class AbstractJsonLogger implements JsonLogger {
     }
 
     /**
-     * Some contention over performance of Thread.currentThread.getStackTrace() vs (new Exception()).getStackTrace()
-     * Code in Thread.java actually uses the latter if 'this' is the current thread so we do the same
+     * The stack is walked rather than filled in an exception, which would capture it all before the frames of this
+     * logging class can be dropped
      * <p>
-     * Remove the top two elements as those are the elements from this logging class
+     * Skip the top two elements as those are the elements from this logging class
      */
     private String formatStack() {
-        StringBuilder output = new StringBuilder();
-        StackTraceElement[] stackTraceElements = (new Exception()).getStackTrace();
-        output.append(stackTraceElements[2]);
-        for (int index = 3; index < stackTraceElements.length; index++) {
-            output.append("\n\tat ")
-                    .append(stackTraceElements[index]);
-        }
-        return output.toString();
+        return STACK_WALKER.walk(frames -> {
+            StringBuilder output = new StringBuilder();
+            frames.skip(2).forEach(frame -> {
+                if (output.length() > 0) {
+                    output.append("\n\tat ");
+                }
+                output.append(frame.toStackTraceElement());
+            });
+            return output.toString();
+        });
     }
 }
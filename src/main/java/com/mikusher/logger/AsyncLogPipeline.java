@@ -0,0 +1,245 @@
+package com.mikusher.logger;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Encodes and writes log events on a background thread. Loggers copy the values of an event into a slot of a bounded
+ * ring buffer, preallocated, and return; the consumer thread takes the events in batches, encodes them to JSON and
+ * writes them to slf4j, in the order they were queued.
+ * <p>
+ * Values are kept as they were given and encoded later, so values changed after the event is logged may be written
+ * changed. Maps and lists are copied when the event is queued, but not the values they hold. Suppliers are still
+ * called by the thread that logs, as is the stack walked for the caller.
+ * <p>
+ * Slots are claimed by a CAS on a single sequence and handed over by a sequence stored in every slot, so neither
+ * loggers nor the consumer take a lock. When the buffer is full, loggers wait for a slot or drop the event, as chosen
+ * by the {@link FullPolicy}.
+ */
+public final class AsyncLogPipeline implements Closeable {
+
+    /**
+     * What a logger does with an event when the buffer is full
+     */
+    public enum FullPolicy {
+        /**
+         * Waits for the consumer to free a slot
+         */
+        WAIT,
+        /**
+         * Drops the event and counts it
+         */
+        DROP
+    }
+
+    // Set in the claim sequence once the pipeline is closed, so that no slot can be claimed after it
+    private static final long CLOSED = Long.MIN_VALUE;
+    private static final int MAX_BATCH = 256;
+    private static final int SPINS = 100;
+    private static final long MAX_PARK_NANOS = 10_000_000L;
+
+    private final LogEvent[] slots;
+    private final int mask;
+    // Sequence of the event published in every slot
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final FullPolicy policy;
+    private final Thread consumer;
+    private volatile boolean consumerParked = false;
+
+    private AsyncLogPipeline(int bufferSize, FullPolicy policy) {
+        if (bufferSize <= 0 || bufferSize > 1 << 30) {
+            throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+        }
+        int capacity = Integer.highestOneBit(bufferSize);
+        if (capacity < bufferSize) {
+            capacity <<= 1;
+        }
+
+        slots = new LogEvent[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new LogEvent();
+            published.set(i, -1);
+        }
+        mask = capacity - 1;
+        this.policy = policy;
+
+        consumer = new Thread(this::run, "satellite-json-logger");
+        consumer.setDaemon(true);
+    }
+
+    /**
+     * Starts a pipeline with its consumer thread.
+     *
+     * @param bufferSize The number of events that can be queued, rounded up to a power of two
+     * @param policy     What loggers do when the buffer is full
+     */
+    public static AsyncLogPipeline start(int bufferSize, FullPolicy policy) {
+        AsyncLogPipeline pipeline = new AsyncLogPipeline(bufferSize, policy);
+        pipeline.consumer.start();
+        return pipeline;
+    }
+
+    /**
+     * Queues a copy of <code>event</code>.
+     *
+     * @return False when the event has to be written by the caller: the pipeline is closed, its consumer thread is
+     * dead, or the caller is the consumer thread, which can't wait for itself.
+     */
+    boolean publish(LogEvent event) {
+        if (Thread.currentThread() == consumer || !consumer.isAlive()) {
+            return false;
+        }
+
+        long sequence;
+        int attempts = 0;
+        while (true) {
+            sequence = claimed.get();
+            if (sequence < 0) {
+                return false;
+            }
+            if (sequence - consumed.get() <= mask) {
+                if (claimed.compareAndSet(sequence, sequence + 1)) {
+                    break;
+                }
+            } else if (!consumer.isAlive()) {
+                return false;
+            } else if (policy == FullPolicy.DROP) {
+                dropped.increment();
+                return true;
+            } else {
+                LockSupport.unpark(consumer);
+                backOff(attempts++);
+            }
+        }
+
+        int index = (int) sequence & mask;
+        slots[index].copyFrom(event);
+        published.set(index, sequence);
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    private static void backOff(int attempts) {
+        if (attempts < SPINS) {
+            Thread.onSpinWait();
+        } else if (attempts < SPINS * 2) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(100_000L);
+        }
+    }
+
+    private void run() {
+        JsonFields fields = new JsonFields();
+        long sequence = 0;
+        int idle = 0;
+        while (true) {
+            long end = claimed.get();
+            boolean closed = end < 0;
+            end &= ~CLOSED;
+
+            int count = 0;
+            while (sequence < end && count < MAX_BATCH && published.get((int) sequence & mask) == sequence) {
+                LogEvent event = slots[(int) sequence & mask];
+                try {
+                    event.log(fields);
+                } catch (Throwable t) {
+                    // Even an error, as a value that refers to itself, only costs its event and not the thread
+                    dropped.increment();
+                } finally {
+                    event.clear();
+                }
+                sequence++;
+                count++;
+            }
+
+            if (count > 0) {
+                consumed.set(sequence);
+                idle = 0;
+            } else if (closed && sequence == end) {
+                return;
+            } else if (idle++ < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                consumerParked = true;
+                if (published.get((int) sequence & mask) != sequence) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    /**
+     * Stops taking events and waits for the consumer to write the ones queued. Events logged from now on are written
+     * by the thread that logs them.
+     */
+    @Override
+    public void close() {
+        long sequence;
+        do {
+            sequence = claimed.get();
+        } while (sequence >= 0 && !claimed.compareAndSet(sequence, sequence | CLOSED));
+
+        LockSupport.unpark(consumer);
+        if (Thread.currentThread() == consumer) {
+            return;
+        }
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isClosed() {
+        return claimed.get() < 0;
+    }
+
+    public FullPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return The number of events the buffer holds
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return The number of events queued since the pipeline started
+     */
+    public long getQueuedCount() {
+        return claimed.get() & ~CLOSED;
+    }
+
+    /**
+     * @return The number of events queued and not written yet
+     */
+    public long getPendingCount() {
+        return Math.max(0, getQueuedCount() - consumed.get());
+    }
+
+    /**
+     * @return The number of events that weren't written: dropped while the buffer was full, or failed to be written
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,19 @@
+package com.mikusher.logger;
+
+/**
+ * How much of the code that logged an event is written in it.
+ */
+public enum CallerInfo {
+    /**
+     * Nothing, and the stack isn't walked
+     */
+    OFF,
+    /**
+     * The "class" field, the name of the calling class
+     */
+    CLASS,
+    /**
+     * The "class" field, followed by the "method" and "line" fields of the call
+     */
+    CLASS_METHOD_LINE
+}
@@ -0,0 +1,197 @@
+package com.mikusher.logger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes JSON values straight into a StringBuilder, exactly as the Gson instance of
+ * {@link com.mikusher.logger.factory.Logger} (no HTML escaping, nulls serialized) writes them through a tree, for the
+ * types whose Gson output is fixed: strings, numbers, booleans, Gson trees, and maps and lists of those. Any other
+ * value, at any depth, isn't written so that the caller can fall back to Gson.
+ */
+final class JsonEncoder {
+
+    private static final String[] REPLACEMENT_CHARS = new String[128];
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            REPLACEMENT_CHARS[i] = String.format("\\u%04x", i);
+        }
+        REPLACEMENT_CHARS['"'] = "\\\"";
+        REPLACEMENT_CHARS['\\'] = "\\\\";
+        REPLACEMENT_CHARS['\t'] = "\\t";
+        REPLACEMENT_CHARS['\b'] = "\\b";
+        REPLACEMENT_CHARS['\n'] = "\\n";
+        REPLACEMENT_CHARS['\r'] = "\\r";
+        REPLACEMENT_CHARS['\f'] = "\\f";
+    }
+
+    private JsonEncoder() {
+    }
+
+    /**
+     * Writes <code>value</code>, unless it is or holds a value whose JSON is left to Gson.
+     *
+     * @return Whether the value was written. When it wasn't, <code>out</code> may hold part of it.
+     */
+    static boolean writeValue(StringBuilder out, Object value) {
+        if (value == null) {
+            out.append("null");
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.append(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.append(((Long) value).longValue());
+        } else if (value instanceof Double) {
+            // NaN and the infinities make Gson throw
+            double d = (Double) value;
+            if (!Double.isFinite(d)) {
+                return false;
+            }
+            out.append(d);
+        } else if (value instanceof Float) {
+            float f = (Float) value;
+            if (!Float.isFinite(f)) {
+                return false;
+            }
+            out.append(f);
+        } else if (value instanceof Boolean) {
+            out.append(((Boolean) value).booleanValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            out.append(value);
+        } else if (value instanceof Map) {
+            return writeMap(out, (Map<?, ?>) value);
+        } else if (value instanceof List) {
+            return writeList(out, (List<?>) value);
+        } else if (value instanceof JsonElement) {
+            writeJson(out, (JsonElement) value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean writeMap(StringBuilder out, Map<?, ?> map) {
+        out.append('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object key = entry.getKey();
+            // Other keys may be written by Gson as arrays of entries
+            if (key != null && !(key instanceof String) && !(key instanceof Integer) && !(key instanceof Long)
+                    && !(key instanceof Boolean)) {
+                return false;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            writeString(out, String.valueOf(key));
+            out.append(':');
+            if (!writeValue(out, entry.getValue())) {
+                return false;
+            }
+        }
+        out.append('}');
+        return true;
+    }
+
+    private static boolean writeList(StringBuilder out, List<?> list) {
+        out.append('[');
+        boolean first = true;
+        for (Object element : list) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            if (!writeValue(out, element)) {
+                return false;
+            }
+        }
+        out.append(']');
+        return true;
+    }
+
+    /**
+     * Writes a Gson tree, null being written as a JSON null.
+     */
+    static void writeJson(StringBuilder out, JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            out.append("null");
+        } else if (element.isJsonObject()) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<String, JsonElement> entry : ((JsonObject) element).entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeString(out, entry.getKey());
+                out.append(':');
+                writeJson(out, entry.getValue());
+            }
+            out.append('}');
+        } else if (element.isJsonArray()) {
+            out.append('[');
+            boolean first = true;
+            for (JsonElement child : (JsonArray) element) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                writeJson(out, child);
+            }
+            out.append(']');
+        } else {
+            JsonPrimitive primitive = (JsonPrimitive) element;
+            if (primitive.isString()) {
+                writeString(out, primitive.getAsString());
+            } else if (primitive.isBoolean()) {
+                out.append(primitive.getAsBoolean());
+            } else {
+                out.append(primitive.getAsNumber().toString());
+            }
+        }
+    }
+
+    /**
+     * Writes a quoted string with the escapes of Gson's JsonWriter.
+     */
+    static void writeString(StringBuilder out, String value) {
+        out.append('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c < 128) {
+                replacement = REPLACEMENT_CHARS[c];
+                if (replacement == null) {
+                    continue;
+                }
+            } else if (c == '\u2028') {
+                replacement = "\\u2028";
+            } else if (c == '\u2029') {
+                replacement = "\\u2029";
+            } else {
+                continue;
+            }
+            if (last < i) {
+                out.append(value, last, i);
+            }
+            out.append(replacement);
+            last = i + 1;
+        }
+        if (last < length) {
+            out.append(value, last, length);
+        }
+        out.append('"');
+    }
+}
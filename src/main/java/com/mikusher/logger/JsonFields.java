@@ -0,0 +1,143 @@
+package com.mikusher.logger;
+
+import com.google.gson.Gson;
+import org.apache.commons.lang3.time.FastDateFormat;
+
+import java.util.Arrays;
+
+/**
+ * The fields of a log event, each one encoded as JSON when it's set. A field set again keeps its place and takes the
+ * new value, as in a JsonObject, so the event is written as Gson writes the JsonObject of the same fields. The buffers
+ * are kept from an event to the next: loggers encode their events in the fields of the thread that logs them, and
+ * the async pipeline in the ones of its consumer.
+ */
+final class JsonFields {
+
+    // Buffers that grew larger than this for an event aren't kept
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> OUTPUT = ThreadLocal.withInitial(() -> new StringBuilder(512));
+    private static final ThreadLocal<JsonFields> CURRENT = ThreadLocal.withInitial(JsonFields::new);
+
+    private Gson gson;
+    // Encoded values, and the range of every field in it
+    private StringBuilder values = new StringBuilder(256);
+    private String[] keys = new String[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size = 0;
+    // Whether an event is being encoded in these fields, taken by acquire()
+    private boolean acquired = false;
+
+    // The last timestamp formatted, as many events are logged in the same millisecond
+    private FastDateFormat timestampFormatter;
+    private long timestampMillis;
+    private String timestamp;
+
+    /**
+     * Takes the fields of the current thread to encode an event, to be given back by {@link #release()}. An event is
+     * encoded in new fields if the ones of the thread are taken already, as a value of another event logs while it's
+     * encoded.
+     */
+    static JsonFields acquire() {
+        JsonFields fields = CURRENT.get();
+        if (fields.acquired) {
+            fields = new JsonFields();
+        }
+        fields.acquired = true;
+        return fields;
+    }
+
+    void release() {
+        acquired = false;
+    }
+
+    /**
+     * Drops the fields, to encode the ones of another event with <code>gson</code>.
+     */
+    void reset(Gson gson) {
+        this.gson = gson;
+        if (values.capacity() > MAX_RETAINED_CAPACITY) {
+            values = new StringBuilder(256);
+        } else {
+            values.setLength(0);
+        }
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Sets a field, encoded by {@link JsonEncoder} or, for the values it doesn't handle, by Gson through a tree.
+     */
+    void put(String key, Object value) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        int start = values.length();
+        try {
+            if (!JsonEncoder.writeValue(values, value)) {
+                values.setLength(start);
+                JsonEncoder.writeJson(values, gson.toJsonTree(value));
+            }
+        } catch (RuntimeException e) {
+            values.setLength(start);
+            throw e;
+        }
+        set(key, start);
+    }
+
+    private void set(String key, int start) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                starts[i] = start;
+                ends[i] = values.length();
+                return;
+            }
+        }
+
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        keys[size] = key;
+        starts[size] = start;
+        ends[size] = values.length();
+        size++;
+    }
+
+    /**
+     * @return <code>millis</code> formatted by <code>formatter</code>
+     */
+    String formatTimestamp(FastDateFormat formatter, long millis) {
+        if (formatter != timestampFormatter || millis != timestampMillis) {
+            timestamp = formatter.format(millis);
+            timestampFormatter = formatter;
+            timestampMillis = millis;
+        }
+        return timestamp;
+    }
+
+    /**
+     * @return The fields as a JSON object, built in a buffer of the current thread.
+     */
+    String toJson() {
+        StringBuilder out = OUTPUT.get();
+        out.setLength(0);
+        out.append('{');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            JsonEncoder.writeString(out, keys[i]);
+            out.append(':');
+            out.append(values, starts[i], ends[i]);
+        }
+        out.append('}');
+
+        String json = out.toString();
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            OUTPUT.remove();
+        }
+        return json;
+    }
+}
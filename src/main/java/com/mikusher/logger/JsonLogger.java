@@ -7,6 +7,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
 
+/**
+ * Builds a log event: its fields are set one by one, and the event is written by {@link #log()}.
+ * <p>
+ * A builder is meant to be chained from the level method of the logger to a single log(), and dropped then. It
+ * mustn't be kept, logged twice or used after log(): loggers that reuse their builders (see
+ * {@link com.mikusher.logger.factory.LoggerFactory#setPooledBuilders(boolean)}) clear it for the next event of the
+ * thread, so a second log() writes an empty event, and a builder never logged is never reused.
+ */
 public interface JsonLogger {
 
     JsonLogger message(String message);
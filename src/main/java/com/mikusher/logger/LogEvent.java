@@ -0,0 +1,224 @@
+package com.mikusher.logger;
+
+import com.google.gson.Gson;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.time.FastDateFormat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A log event as its fields were set, in flat arrays of keys and values kept as they were given, to be encoded once
+ * it's logged, by the thread that logs it or by the async pipeline. Events are reused, cleared in between.
+ */
+final class LogEvent {
+    // Most events have a few fields: the arrays are allocated with the first one
+    private static final int INITIAL_CAPACITY = 8;
+    private static final String[] NO_KEYS = new String[0];
+    private static final Object[] NO_VALUES = new Object[0];
+    private static final boolean[] NO_EXCEPTIONS = new boolean[0];
+
+    private String[] keys = NO_KEYS;
+    private Object[] values = NO_VALUES;
+    // Whether a value is an exception whose stack trace is the value
+    private boolean[] exceptions = NO_EXCEPTIONS;
+    private int size = 0;
+
+    private org.slf4j.Logger slf4jLogger;
+    private FastDateFormat formatter;
+    private Gson gson;
+    private boolean includeLoggerName;
+    private CallerInfo callerInfo;
+    private String level;
+    private String threadName;
+    // The StackFrame of the caller, or the exception thrown while looking for it
+    private Object caller;
+    private long timestamp;
+    private Map mdc;
+
+    void add(String key, Object value) {
+        add(key, value, false);
+    }
+
+    void addException(String key, Exception exception) {
+        add(key, exception, true);
+    }
+
+    private void add(String key, Object value, boolean exception) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        if (size == keys.length) {
+            grow(Math.max(INITIAL_CAPACITY, size * 2));
+        }
+        keys[size] = key;
+        values[size] = value;
+        exceptions[size] = exception;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        exceptions = Arrays.copyOf(exceptions, capacity);
+    }
+
+    /**
+     * Sets what's known of the event once it's logged.
+     */
+    void capture(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, Gson gson, boolean includeLoggerName,
+                 CallerInfo callerInfo, String level, Object caller, Map mdc) {
+        this.slf4jLogger = slf4jLogger;
+        this.formatter = formatter;
+        this.gson = gson;
+        this.includeLoggerName = includeLoggerName;
+        this.callerInfo = callerInfo;
+        this.level = level;
+        this.threadName = Thread.currentThread().getName();
+        this.caller = caller;
+        this.timestamp = System.currentTimeMillis();
+        this.mdc = mdc;
+    }
+
+    /**
+     * Makes this event a copy of <code>event</code>, keeping its own arrays when they're large enough. Maps and lists
+     * are copied too, so that the ones changed by the caller once the event is logged are written as they were; the
+     * values they hold aren't.
+     */
+    void copyFrom(LogEvent event) {
+        if (keys.length < event.size) {
+            grow(event.keys.length);
+        }
+        System.arraycopy(event.keys, 0, keys, 0, event.size);
+        System.arraycopy(event.exceptions, 0, exceptions, 0, event.size);
+        for (int i = 0; i < event.size; i++) {
+            values[i] = event.values[i];
+            if (!exceptions[i]) {
+                snapshot(i);
+            }
+        }
+        size = event.size;
+
+        slf4jLogger = event.slf4jLogger;
+        formatter = event.formatter;
+        gson = event.gson;
+        includeLoggerName = event.includeLoggerName;
+        callerInfo = event.callerInfo;
+        level = event.level;
+        threadName = event.threadName;
+        caller = event.caller;
+        timestamp = event.timestamp;
+        mdc = event.mdc;
+    }
+
+    private void snapshot(int i) {
+        try {
+            if (values[i] instanceof Map) {
+                values[i] = new LinkedHashMap<>((Map<?, ?>) values[i]);
+            } else if (values[i] instanceof List) {
+                values[i] = new ArrayList<>((List<?>) values[i]);
+            }
+        } catch (RuntimeException e) {
+            // As a map changed by another thread while it's copied; written as any value that failed
+            values[i] = e;
+            exceptions[i] = true;
+        }
+    }
+
+    /**
+     * Drops the references to the values so they can be collected.
+     */
+    void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        slf4jLogger = null;
+        formatter = null;
+        gson = null;
+        level = null;
+        threadName = null;
+        caller = null;
+        mdc = null;
+    }
+
+    /**
+     * @param fields Where to encode the event, reset first
+     */
+    String toJson(JsonFields fields) {
+        fields.reset(gson);
+        for (int i = 0; i < size; i++) {
+            try {
+                fields.put(keys[i], exceptions[i] ? formatException((Exception) values[i]) : values[i]);
+            } catch (Exception e) {
+                fields.put(keys[i], formatException(e));
+            }
+        }
+
+        fields.put("level", level);
+        fields.put("thread_name", threadName);
+
+        if (callerInfo != CallerInfo.OFF) {
+            if (caller instanceof StackWalker.StackFrame) {
+                StackWalker.StackFrame frame = (StackWalker.StackFrame) caller;
+                fields.put("class", frame.getDeclaringClass().getName());
+                if (callerInfo == CallerInfo.CLASS_METHOD_LINE) {
+                    fields.put("method", frame.getMethodName());
+                    fields.put("line", frame.getLineNumber());
+                }
+            } else {
+                fields.put("class", formatException((Exception) caller));
+            }
+        }
+
+        if (includeLoggerName) {
+            fields.put("logger_name", slf4jLogger.getName());
+        }
+
+        try {
+            fields.put("@timestamp", fields.formatTimestamp(formatter, timestamp));
+        } catch (Exception e) {
+            fields.put("@timestamp", formatException(e));
+        }
+
+        if (mdc != null && !mdc.isEmpty()) {
+            try {
+                fields.put("mdc", mdc);
+            } catch (Exception e) {
+                fields.put("mdc", formatException(e));
+            }
+        }
+
+        return fields.toJson();
+    }
+
+    /**
+     * Writes the event to slf4j at its level.
+     */
+    void log(JsonFields fields) {
+        String json = toJson(fields);
+        switch (level) {
+            case "TRACE":
+                slf4jLogger.trace(json);
+                break;
+            case "DEBUG":
+                slf4jLogger.debug(json);
+                break;
+            case "WARN":
+                slf4jLogger.warn(json);
+                break;
+            case "ERROR":
+                slf4jLogger.error(json);
+                break;
+            default:
+                slf4jLogger.info(json);
+                break;
+        }
+    }
+
+    private static String formatException(Exception e) {
+        return ExceptionUtils.getStackTrace(e);
+    }
+}
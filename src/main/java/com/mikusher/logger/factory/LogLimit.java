@@ -0,0 +1,166 @@
+package com.mikusher.logger.factory;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the events logged at a call site: one in N, a random share, or a rate. A limit is kept by the call site, as
+ * a constant, and given to the level method of {@link Logger}, which returns the no-op builder for the events over
+ * the limit before any field is set:
+ * <pre>
+ * private static final LogLimit DB_ERRORS = LogLimit.perSecond(10, 20);
+ * ...
+ * logger.error(DB_ERRORS).message("Query failed").exception("error", e).log();
+ * </pre>
+ * The events suppressed are counted, and reported by a summary event with the next event logged once the summary
+ * interval has elapsed. The state of a limit is only updated by atomic operations, and the events over a rate limit
+ * only add to a striped counter, so calls don't wait on each other.
+ */
+public final class LogLimit {
+    private static final long DEFAULT_SUMMARY_INTERVAL_NANOS = Duration.ofSeconds(10).toNanos();
+
+    private final long everyNth;
+    private final double probability;
+    // Rate limit as a generic cell rate: the time one event is worth, and the burst allowed ahead of the rate
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final String description;
+    private final long summaryIntervalNanos;
+
+    private final AtomicLong count = new AtomicLong();
+    // The time the bucket is empty at, one interval later for every event let through
+    private final AtomicLong theoreticalArrival;
+    private final LongAdder suppressed = new LongAdder();
+    private final AtomicLong lastSummary;
+    private volatile long reported = 0;
+
+    private LogLimit(long everyNth, double probability, long intervalNanos, long toleranceNanos, String description,
+                     long summaryIntervalNanos) {
+        this.everyNth = everyNth;
+        this.probability = probability;
+        this.intervalNanos = intervalNanos;
+        this.toleranceNanos = toleranceNanos;
+        this.description = description;
+        this.summaryIntervalNanos = summaryIntervalNanos;
+
+        long now = System.nanoTime();
+        theoreticalArrival = new AtomicLong(now);
+        lastSummary = new AtomicLong(now);
+    }
+
+    /**
+     * Lets the first event through and then one in every <code>n</code>.
+     */
+    public static LogLimit everyNth(long n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Invalid n " + n);
+        }
+        return new LogLimit(n, 1, 0, 0, "1 in " + n, DEFAULT_SUMMARY_INTERVAL_NANOS);
+    }
+
+    /**
+     * Lets every event through with the given probability, from 0 to 1.
+     */
+    public static LogLimit withProbability(double probability) {
+        if (!(probability >= 0 && probability <= 1)) {
+            throw new IllegalArgumentException("Invalid probability " + probability);
+        }
+        return new LogLimit(1, probability, 0, 0, "probability " + probability, DEFAULT_SUMMARY_INTERVAL_NANOS);
+    }
+
+    /**
+     * A token bucket: lets <code>eventsPerSecond</code> events through on average, and up to <code>burst</code> at
+     * once after a quiet time.
+     */
+    public static LogLimit perSecond(double eventsPerSecond, int burst) {
+        if (!(eventsPerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate " + eventsPerSecond + "/s, burst " + burst);
+        }
+        long interval = Math.max(1, (long) (1_000_000_000L / eventsPerSecond));
+        // Capped so that the time the bucket is empty at stays less than a long ahead of now, as for a slow rate with
+        // a large burst, whose burst is cut to the events that fit in those 292 years
+        long tolerance = burst - 1 > (Long.MAX_VALUE - interval) / interval
+                ? Long.MAX_VALUE - interval : interval * (burst - 1);
+        return new LogLimit(1, 1, interval, tolerance, eventsPerSecond + "/s, burst " + burst,
+                DEFAULT_SUMMARY_INTERVAL_NANOS);
+    }
+
+    /**
+     * @return A limit of the same kind, with its own state, whose summaries are at least <code>interval</code> apart.
+     */
+    public LogLimit withSummaryInterval(Duration interval) {
+        if (interval.isNegative() || interval.isZero()) {
+            throw new IllegalArgumentException("Invalid summary interval " + interval);
+        }
+        return new LogLimit(everyNth, probability, intervalNanos, toleranceNanos, description, interval.toNanos());
+    }
+
+    /**
+     * Counts an event.
+     *
+     * @return Whether it can be logged. If not, it's counted as suppressed.
+     */
+    public boolean tryAcquire() {
+        boolean allowed;
+        if (everyNth > 1) {
+            allowed = count.getAndIncrement() % everyNth == 0;
+        } else if (probability < 1) {
+            allowed = ThreadLocalRandom.current().nextDouble() < probability;
+        } else if (intervalNanos > 0) {
+            allowed = tryTake(System.nanoTime());
+        } else {
+            allowed = true;
+        }
+
+        if (!allowed) {
+            suppressed.increment();
+        }
+        return allowed;
+    }
+
+    private boolean tryTake(long now) {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long from = arrival - now > 0 ? arrival : now;
+            if (from - now > toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, from + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes the events suppressed since the last summary, if the summary interval has elapsed since. Only one caller
+     * gets them.
+     *
+     * @return The number of events to report, 0 if there's no summary to log
+     */
+    long takeSummary() {
+        long last = lastSummary.get();
+        long now = System.nanoTime();
+        if (now - last < summaryIntervalNanos || suppressed.sum() == reported || !lastSummary.compareAndSet(last, now)) {
+            return 0;
+        }
+
+        long total = suppressed.sum();
+        long count = total - reported;
+        reported = total;
+        return count;
+    }
+
+    /**
+     * @return The number of events suppressed since the limit was made
+     */
+    public long getSuppressedCount() {
+        return suppressed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "LogLimit[" + description + "]";
+    }
+}
@@ -2,14 +2,30 @@ package com.mikusher.logger.factory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.mikusher.logger.AbstractJsonLogger;
+import com.mikusher.logger.AsyncLogPipeline;
+import com.mikusher.logger.CallerInfo;
 import com.mikusher.logger.JsonLogger;
 import com.mikusher.logger.tracker.*;
 import org.apache.commons.lang3.time.FastDateFormat;
 
 /**
  * Wrapper for slf4j Logger that enables a builder pattern and JSON layout
+ * <p>
+ * Every event gets a new builder, unless the logger is made with <code>pooledBuilders</code>. Then every thread keeps
+ * one builder per level, cleared once its event is logged, and reused by the events after. This only suits call sites
+ * that chain a builder to a single log(), as the {@link JsonLogger} contract requires: a builder logged twice writes
+ * an empty event the second time, and a builder kept without being logged can't be reused by its thread, which makes
+ * a new one for every event at that level from then on, and holds on to its values. A new builder is also made when
+ * the one of the thread is still building an event, as when a value logs while it's read.
  */
 public class Logger {
+    private static final int TRACE = 0;
+    private static final int DEBUG = 1;
+    private static final int INFO = 2;
+    private static final int WARN = 3;
+    private static final int ERROR = 4;
+
     private final org.slf4j.Logger slf4jLogger;
 
     private final Gson gson = new GsonBuilder().disableHtmlEscaping().enableComplexMapKeySerialization().serializeNulls().create();
@@ -17,19 +33,69 @@ public class Logger {
     private final boolean includeLoggerName;
 
     private final boolean justJsonLogger;
+    private final boolean streamingJson;
+    private final CallerInfo callerInfo;
+    private final AsyncLogPipeline pipeline;
+    // The builders of every thread, by level, or null if builders aren't reused
+    private final ThreadLocal<AbstractJsonLogger[]> builders;
 
     private final NoopLogger noopLogger = new NoopLogger();
 
     public Logger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, boolean includeLoggerName, boolean justJsonLogger) {
+        this(slf4jLogger, formatter, includeLoggerName, justJsonLogger, true);
+    }
+
+    /**
+     * @param streamingJson Whether events encode the values of their fields straight to JSON instead of building a
+     *                      JsonObject
+     */
+    public Logger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson) {
+        this(slf4jLogger, formatter, includeLoggerName, justJsonLogger, streamingJson, CallerInfo.CLASS);
+    }
+
+    /**
+     * @param callerInfo What the events of this logger write of the code that logged them
+     */
+    public Logger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson, CallerInfo callerInfo) {
+        this(slf4jLogger, formatter, includeLoggerName, justJsonLogger, streamingJson, callerInfo, null);
+    }
+
+    /**
+     * @param pipeline The pipeline the events of this logger are queued on, or null to write them as they're logged
+     */
+    public Logger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson, CallerInfo callerInfo, AsyncLogPipeline pipeline) {
+        this(slf4jLogger, formatter, includeLoggerName, justJsonLogger, streamingJson, callerInfo, pipeline, false);
+    }
+
+    /**
+     * @param pooledBuilders Whether every thread reuses its builders, rather than making one for every event (the
+     *                       default). See the class doc for what call sites must do then.
+     */
+    public Logger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson, CallerInfo callerInfo, AsyncLogPipeline pipeline, boolean pooledBuilders) {
         this.slf4jLogger = slf4jLogger;
         this.formatter = formatter;
         this.includeLoggerName = includeLoggerName;
         this.justJsonLogger = justJsonLogger;
+        this.streamingJson = streamingJson;
+        this.callerInfo = callerInfo;
+        this.pipeline = pipeline;
+        this.builders = pooledBuilders ? ThreadLocal.withInitial(() -> new AbstractJsonLogger[5]) : null;
     }
 
     public JsonLogger trace() {
         if (slf4jLogger.isTraceEnabled()) {
-            return new TraceLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger);
+            return builder(TRACE);
+        }
+
+        return noopLogger;
+    }
+
+    /**
+     * @param limit The limit of the call site; over it, the event is dropped
+     */
+    public JsonLogger trace(LogLimit limit) {
+        if (slf4jLogger.isTraceEnabled() && limit.tryAcquire()) {
+            return limitedBuilder(TRACE, limit);
         }
 
         return noopLogger;
@@ -37,7 +103,18 @@ public class Logger {
 
     public JsonLogger debug() {
         if (slf4jLogger.isDebugEnabled()) {
-            return new DebugLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger);
+            return builder(DEBUG);
+        }
+
+        return noopLogger;
+    }
+
+    /**
+     * @param limit The limit of the call site; over it, the event is dropped
+     */
+    public JsonLogger debug(LogLimit limit) {
+        if (slf4jLogger.isDebugEnabled() && limit.tryAcquire()) {
+            return limitedBuilder(DEBUG, limit);
         }
 
         return noopLogger;
@@ -45,7 +122,18 @@ public class Logger {
 
     public JsonLogger info() {
         if (slf4jLogger.isInfoEnabled()) {
-            return new InfoLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger);
+            return builder(INFO);
+        }
+
+        return noopLogger;
+    }
+
+    /**
+     * @param limit The limit of the call site; over it, the event is dropped
+     */
+    public JsonLogger info(LogLimit limit) {
+        if (slf4jLogger.isInfoEnabled() && limit.tryAcquire()) {
+            return limitedBuilder(INFO, limit);
         }
 
         return noopLogger;
@@ -53,7 +141,18 @@ public class Logger {
 
     public JsonLogger warn() {
         if (slf4jLogger.isWarnEnabled()) {
-            return new WarnLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger);
+            return builder(WARN);
+        }
+
+        return noopLogger;
+    }
+
+    /**
+     * @param limit The limit of the call site; over it, the event is dropped
+     */
+    public JsonLogger warn(LogLimit limit) {
+        if (slf4jLogger.isWarnEnabled() && limit.tryAcquire()) {
+            return limitedBuilder(WARN, limit);
         }
 
         return noopLogger;
@@ -61,9 +160,64 @@ public class Logger {
 
     public JsonLogger error() {
         if (slf4jLogger.isErrorEnabled()) {
-            return new ErrorLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger);
+            return builder(ERROR);
+        }
+
+        return noopLogger;
+    }
+
+    /**
+     * @param limit The limit of the call site; over it, the event is dropped
+     */
+    public JsonLogger error(LogLimit limit) {
+        if (slf4jLogger.isErrorEnabled() && limit.tryAcquire()) {
+            return limitedBuilder(ERROR, limit);
         }
 
         return noopLogger;
     }
+
+    /**
+     * Logs the summary of the events suppressed by <code>limit</code> first, if one is due.
+     */
+    private JsonLogger limitedBuilder(int level, LogLimit limit) {
+        long suppressed = limit.takeSummary();
+        if (suppressed > 0) {
+            builder(level)
+                    .message("Suppressed " + suppressed + " log events over " + limit)
+                    .field("suppressed", suppressed)
+                    .field("log_limit", limit.toString())
+                    .log();
+        }
+        return builder(level);
+    }
+
+    private JsonLogger builder(int level) {
+        if (builders == null) {
+            return newBuilder(level);
+        }
+
+        AbstractJsonLogger[] pooled = builders.get();
+        AbstractJsonLogger builder = pooled[level];
+        if (builder == null) {
+            builder = newBuilder(level);
+            pooled[level] = builder;
+        }
+        return builder.acquire() ? builder : newBuilder(level);
+    }
+
+    private AbstractJsonLogger newBuilder(int level) {
+        switch (level) {
+            case TRACE:
+                return new TraceLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, callerInfo, pipeline);
+            case DEBUG:
+                return new DebugLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, callerInfo, pipeline);
+            case INFO:
+                return new InfoLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, callerInfo, pipeline);
+            case WARN:
+                return new WarnLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, callerInfo, pipeline);
+            default:
+                return new ErrorLogger(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, callerInfo, pipeline);
+        }
+    }
 }
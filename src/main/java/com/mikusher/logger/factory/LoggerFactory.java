@@ -1,7 +1,10 @@
 package com.mikusher.logger.factory;
 
+import com.mikusher.logger.AsyncLogPipeline;
+import com.mikusher.logger.CallerInfo;
 import org.apache.commons.lang3.time.FastDateFormat;
 
+import java.util.Objects;
 import java.util.Optional;
 
 public class LoggerFactory {
@@ -9,15 +12,20 @@ public class LoggerFactory {
     private static String dateFormatString = "yyyy-MM-dd HH:mm:ss.SSSZ"; // yyyy-MM-dd HH:mm:ss.SSSZ || yyyy-MM-dd'T'HH:mm:ss.SSSXXX
     private static FastDateFormat formatter = FastDateFormat.getInstance(dateFormatString);
     private static boolean includeLoggerName = true;
+    private static boolean streamingJson = true;
+    private static CallerInfo callerInfo = CallerInfo.CLASS;
+    private static boolean pooledBuilders = false;
+    private static volatile AsyncLogPipeline asyncPipeline;
+    private static Thread asyncShutdownHook;
 
     public static Logger getLogger(String name) {
         org.slf4j.Logger slf4jLogger = org.slf4j.LoggerFactory.getLogger(name);
-        return new Logger(slf4jLogger, formatter, includeLoggerName, justJsonLogger);
+        return new Logger(slf4jLogger, formatter, includeLoggerName, justJsonLogger, streamingJson, callerInfo, asyncPipeline, pooledBuilders);
     }
 
     public static Logger getLogger(Class<?> clazz) {
         org.slf4j.Logger slf4jLogger = org.slf4j.LoggerFactory.getLogger(clazz);
-        return new Logger(slf4jLogger, formatter, includeLoggerName, justJsonLogger);
+        return new Logger(slf4jLogger, formatter, includeLoggerName, justJsonLogger, streamingJson, callerInfo, asyncPipeline, pooledBuilders);
     }
 
     public static Logger getLogger(boolean justJsonLogger, Optional<String> name, Optional<Class<?>> clazz) {
@@ -43,4 +51,77 @@ public class LoggerFactory {
     public static void setJustJsonLogger(boolean justJsonLogger) {
         LoggerFactory.justJsonLogger = justJsonLogger;
     }
+
+    /**
+     * Chooses whether the loggers created from now on encode event fields straight into a buffer (the default), or
+     * build a Gson JsonObject for every event as they used to. The JSON is the same either way.
+     */
+    public static void setStreamingJson(boolean streamingJson) {
+        LoggerFactory.streamingJson = streamingJson;
+    }
+
+    /**
+     * Chooses what the loggers created from now on write of the code that logged an event: nothing, its class (the
+     * default), or its class, method and line.
+     */
+    public static void setCallerInfo(CallerInfo callerInfo) {
+        LoggerFactory.callerInfo = Objects.requireNonNull(callerInfo, "callerInfo");
+    }
+
+    /**
+     * Chooses whether the loggers created from now on reuse their event builders, one per thread and level, or make
+     * one for every event (the default). A reused builder must be logged once, and not used after its event is logged;
+     * see {@link Logger}.
+     */
+    public static void setPooledBuilders(boolean pooledBuilders) {
+        LoggerFactory.pooledBuilders = pooledBuilders;
+    }
+
+    /**
+     * Makes the loggers created from now on queue their events on a new async pipeline, which encodes and writes them
+     * on its own thread. The pipeline in use before is closed. The events queued are written when the pipeline is
+     * closed, by {@link #disableAsync()} or at shutdown.
+     * <p>
+     * The values of an event are encoded once it's taken off the queue. Maps and lists are copied when it's queued,
+     * but the objects they hold, as other values, are written as they are then, so they shouldn't be changed after
+     * they're logged.
+     *
+     * @param bufferSize The number of events that can be queued
+     * @param policy     What loggers do with an event when the buffer is full
+     * @return The pipeline, to read its counters
+     */
+    public static synchronized AsyncLogPipeline enableAsync(int bufferSize, AsyncLogPipeline.FullPolicy policy) {
+        disableAsync();
+        AsyncLogPipeline pipeline = AsyncLogPipeline.start(bufferSize, Objects.requireNonNull(policy, "policy"));
+        asyncShutdownHook = new Thread(pipeline::close, "satellite-json-logger-shutdown");
+        Runtime.getRuntime().addShutdownHook(asyncShutdownHook);
+        asyncPipeline = pipeline;
+        return pipeline;
+    }
+
+    /**
+     * Closes the async pipeline, if any, once its events are written. The loggers that used it write their events as
+     * they're logged from now on, as do the loggers created after.
+     */
+    public static synchronized void disableAsync() {
+        AsyncLogPipeline pipeline = asyncPipeline;
+        if (pipeline == null) {
+            return;
+        }
+        asyncPipeline = null;
+        try {
+            Runtime.getRuntime().removeShutdownHook(asyncShutdownHook);
+        } catch (IllegalStateException e) {
+            // Already shutting down, the hook closes the pipeline too
+        }
+        asyncShutdownHook = null;
+        pipeline.close();
+    }
+
+    /**
+     * @return The async pipeline of the loggers created now, or null if they write their events as they're logged
+     */
+    public static AsyncLogPipeline getAsyncPipeline() {
+        return asyncPipeline;
+    }
 }
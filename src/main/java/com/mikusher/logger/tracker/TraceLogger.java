@@ -2,6 +2,8 @@ package com.mikusher.logger.tracker;
 
 import com.google.gson.Gson;
 import com.mikusher.logger.AbstractJsonLogger;
+import com.mikusher.logger.AsyncLogPipeline;
+import com.mikusher.logger.CallerInfo;
 import org.apache.commons.lang3.time.FastDateFormat;
 
 public class TraceLogger extends AbstractJsonLogger {
@@ -12,9 +14,27 @@ public class TraceLogger extends AbstractJsonLogger {
         super(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger);
     }
 
+    public TraceLogger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, Gson gson, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson) {
+        super(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson);
+    }
+
+    public TraceLogger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, Gson gson, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson, CallerInfo callerInfo) {
+        super(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, callerInfo);
+    }
+
+    public TraceLogger(org.slf4j.Logger slf4jLogger, FastDateFormat formatter, Gson gson, boolean includeLoggerName, boolean justJsonLogger, boolean streamingJson, CallerInfo callerInfo, AsyncLogPipeline pipeline) {
+        super(slf4jLogger, formatter, gson, includeLoggerName, justJsonLogger, streamingJson, callerInfo, pipeline);
+    }
+
     @Override
     public void log() {
-        slf4jLogger.trace(formatMessage(LOG_LEVEL));
+        try {
+            if (!publish(LOG_LEVEL)) {
+                slf4jLogger.trace(formatMessage(LOG_LEVEL));
+            }
+        } finally {
+            release();
+        }
     }
 
     public String toString() {
@@ -0,0 +1,567 @@
+package com.mikusher.parameter;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+
+/***************************************************************************
+ *
+ * Default storage of <code>{@link ParameterMap}</code>. Keys and values are
+ * kept in two parallel arrays, so an entry costs two references instead of
+ * a <code>HashMap</code> node. Small maps are searched linearly; once they
+ * grow past <code>LINEAR_THRESHOLD</code> entries an open addressing table
+ * of positions is built on top of the arrays.
+ *
+ * <p>Values set through the primitive setters of <code>ParameterMap</code>
+ * are kept unboxed in a <code>long</code> side array tagged with their type,
+ * and only boxed when read through the <code>Map</code> interface. Both side
+ * arrays are allocated when the first primitive is stored.</p>
+ *
+ * <p>The arrays of a map created with a small capacity are allocated when
+ * the first entry is stored, and the collection views are created on each
+ * call rather than cached, so an empty map is a single object.</p>
+ *
+ * <p>New keys are interned through <code>{@link SymbolTable}</code>.
+ * Removing an entry moves the last one into its place, so the iteration
+ * order is the insertion order only while nothing is removed.</p>
+ *
+ ***************************************************************************/
+class CompactMap extends AbstractMap<String, Object> {
+
+    static final int LINEAR_THRESHOLD = 8;
+    // Capacity of the arrays allocated for the first entry
+    static final int MIN_CAPACITY = 4;
+
+    // Types of the values kept in _primitives
+    static final byte OBJECT = 0;
+    static final byte INT = 1;
+    static final byte LONG = 2;
+    static final byte FLOAT = 3;
+    static final byte DOUBLE = 4;
+    static final byte BOOLEAN = 5;
+
+    private static final String[] EMPTY_KEYS = new String[0];
+    private static final Object[] EMPTY_VALUES = new Object[0];
+
+    String[] _keys;
+    Object[] _values;
+    int _size = 0;
+
+    // Type and raw bits of each primitive value. Null until one is stored
+    private byte[] _types = null;
+    private long[] _primitives = null;
+
+    // Position + 1 of each entry, indexed by key hash. Null while linear
+    private int[] _table = null;
+
+
+    CompactMap(int capacity) {
+
+        if (capacity > MIN_CAPACITY) {
+            _keys = new String[capacity];
+            _values = new Object[capacity];
+        } else {
+            _keys = EMPTY_KEYS;
+            _values = EMPTY_VALUES;
+        }
+    }
+
+    private static int hash(Object key) {
+
+        int h = Objects.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String candidate, Object key, int hashCode) {
+
+        return candidate == key || (candidate != null && candidate.hashCode() == hashCode && candidate.equals(key));
+    }
+
+    final int indexOf(Object key) {
+
+        final String[] keys = _keys;
+        final int hashCode = Objects.hashCode(key);
+
+        if (_table == null) {
+            for (int i = 0; i < _size; i++) {
+                if (matches(keys[i], key, hashCode)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        final int[] table = _table;
+        final int mask = table.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int position = table[slot];
+            if (position == 0) {
+                return -1;
+            }
+            if (matches(keys[position - 1], key, hashCode)) {
+                return position - 1;
+            }
+        }
+    }
+
+    final void append(String key, Object value) {
+
+        if (_size == _keys.length) {
+            int capacity = Math.max(MIN_CAPACITY, _size * 2);
+            _keys = Arrays.copyOf(_keys, capacity);
+            _values = Arrays.copyOf(_values, capacity);
+            if (_types != null) {
+                _types = Arrays.copyOf(_types, capacity);
+                _primitives = Arrays.copyOf(_primitives, capacity);
+            }
+            if (_table != null) {
+                rehash();
+            }
+        }
+
+        _keys[_size] = key;
+        _values[_size] = value;
+        _size++;
+
+        if (_table != null) {
+            _table[freeSlot(key)] = _size;
+        } else if (_size > LINEAR_THRESHOLD) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+
+        // At most half full so that probe sequences stay short
+        _table = new int[Integer.highestOneBit(_keys.length * 2 - 1) << 1];
+        for (int i = 0; i < _size; i++) {
+            _table[freeSlot(_keys[i])] = i + 1;
+        }
+    }
+
+    private int freeSlot(Object key) {
+
+        final int mask = _table.length - 1;
+        int slot = hash(key) & mask;
+        while (_table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int slotOf(int index) {
+
+        final int mask = _table.length - 1;
+        int slot = hash(_keys[index]) & mask;
+        while (_table[slot] != index + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    void removeAt(int index) {
+
+        final int last = _size - 1;
+
+        if (_table != null) {
+            final int mask = _table.length - 1;
+
+            // Backward shift deletion keeps every probe sequence unbroken
+            int hole = slotOf(index);
+            for (int next = (hole + 1) & mask; _table[next] != 0; next = (next + 1) & mask) {
+                int home = hash(_keys[_table[next] - 1]) & mask;
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    _table[hole] = _table[next];
+                    hole = next;
+                }
+            }
+            _table[hole] = 0;
+
+            if (index != last) {
+                _table[slotOf(last)] = index + 1;
+            }
+        }
+
+        _keys[index] = _keys[last];
+        _values[index] = _values[last];
+        _keys[last] = null;
+        _values[last] = null;
+        if (_types != null) {
+            _types[index] = _types[last];
+            _primitives[index] = _primitives[last];
+            _types[last] = OBJECT;
+        }
+        _size = last;
+    }
+
+    /***************************************************************************
+     *
+     * @return The type of the value at <code>index</code>: <code>OBJECT</code>
+     *         or the primitive type it is stored as.
+     *
+     ***************************************************************************/
+    final byte typeAt(int index) {
+
+        return _types == null ? OBJECT : _types[index];
+    }
+
+    /***************************************************************************
+     *
+     * @return The raw bits of the primitive value at <code>index</code>.
+     *         Floating point values are stored with their raw bit layout and
+     *         booleans as 0 or 1.
+     *
+     ***************************************************************************/
+    final long bitsAt(int index) {
+
+        return _primitives[index];
+    }
+
+    /***************************************************************************
+     *
+     * @return The value at <code>index</code>, boxing primitive values.
+     *
+     ***************************************************************************/
+    final Object valueAt(int index) {
+
+        switch (typeAt(index)) {
+            case INT:
+                return (int) _primitives[index];
+            case LONG:
+                return _primitives[index];
+            case FLOAT:
+                return Float.intBitsToFloat((int) _primitives[index]);
+            case DOUBLE:
+                return Double.longBitsToDouble(_primitives[index]);
+            case BOOLEAN:
+                return _primitives[index] != 0;
+            default:
+                return _values[index];
+        }
+    }
+
+    private void setValueAt(int index, Object value) {
+
+        _values[index] = value;
+        if (_types != null) {
+            _types[index] = OBJECT;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Stores a primitive value without boxing it.
+     *
+     * @param type
+     *            The primitive type, <code>INT</code> to <code>BOOLEAN</code>.
+     *
+     * @param bits
+     *            The raw bits of the value as returned by
+     *            <code>{@link #bitsAt(int)}</code>.
+     *
+     ***************************************************************************/
+    void putPrimitive(String key, byte type, long bits) {
+
+        int index = indexOf(key);
+        if (index < 0) {
+            append(SymbolTable.intern(key), null);
+            index = _size - 1;
+        }
+
+        if (_types == null) {
+            _types = new byte[_keys.length];
+            _primitives = new long[_keys.length];
+        }
+        _values[index] = null;
+        _types[index] = type;
+        _primitives[index] = bits;
+    }
+
+    /***************************************************************************
+     *
+     * Copies this map without rehashing it.
+     *
+     * @param copier
+     *            Applied to every non primitive value.
+     *
+     * @return A new, mutable map with the same entries.
+     *
+     ***************************************************************************/
+    final CompactMap copy(UnaryOperator<Object> copier) {
+
+        final CompactMap copy = new CompactMap(0);
+        if (_keys.length > 0) {
+            copy._keys = _keys.clone();
+            copy._values = new Object[_values.length];
+        }
+        for (int i = 0; i < _size; i++) {
+            if (typeAt(i) == OBJECT) {
+                copy._values[i] = copier.apply(_values[i]);
+            }
+        }
+        if (_types != null) {
+            copy._types = _types.clone();
+            copy._primitives = _primitives.clone();
+        }
+        if (_table != null) {
+            copy._table = _table.clone();
+        }
+        copy._size = _size;
+        return copy;
+    }
+
+    @Override
+    public int size() {
+
+        return _size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+
+        return _size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+
+        int index = indexOf(key);
+        return index >= 0 ? valueAt(index) : null;
+    }
+
+    @Override
+    public Object getOrDefault(Object key, Object defaultValue) {
+
+        int index = indexOf(key);
+        return index >= 0 ? valueAt(index) : defaultValue;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+
+        int index = indexOf(key);
+        if (index >= 0) {
+            Object previous = valueAt(index);
+            setValueAt(index, value);
+            return previous;
+        }
+
+        append(SymbolTable.intern(key), value);
+        return null;
+    }
+
+    @Override
+    public Object remove(Object key) {
+
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        Object previous = valueAt(index);
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+
+        Arrays.fill(_keys, 0, _size, null);
+        Arrays.fill(_values, 0, _size, null);
+        if (_types != null) {
+            Arrays.fill(_types, 0, _size, OBJECT);
+        }
+        _size = 0;
+        _table = null;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+
+        for (int i = 0; i < _size; i++) {
+            action.accept(_keys[i], valueAt(i));
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+
+        for (int i = 0; i < _size; i++) {
+            setValueAt(i, function.apply(_keys[i], valueAt(i)));
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+
+        return new AbstractSet<Map.Entry<String, Object>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+
+                return new PositionIterator<Map.Entry<String, Object>>() {
+
+                    @Override
+                    Map.Entry<String, Object> at(int index) {
+
+                        return new Entry(_keys[index], valueAt(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+
+                return _size;
+            }
+
+            @Override
+            public void clear() {
+
+                CompactMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<String> keySet() {
+
+        return new AbstractSet<String>() {
+
+            @Override
+            public Iterator<String> iterator() {
+
+                return new PositionIterator<String>() {
+
+                    @Override
+                    String at(int index) {
+
+                        return _keys[index];
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+
+                return containsKey(o);
+            }
+
+            @Override
+            public int size() {
+
+                return _size;
+            }
+
+            @Override
+            public void clear() {
+
+                CompactMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<Object> values() {
+
+        return new AbstractCollection<Object>() {
+
+            @Override
+            public Iterator<Object> iterator() {
+
+                return new PositionIterator<Object>() {
+
+                    @Override
+                    Object at(int index) {
+
+                        return valueAt(index);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+
+                return _size;
+            }
+
+            @Override
+            public void clear() {
+
+                CompactMap.this.clear();
+            }
+        };
+    }
+
+    /***************************************************************************
+     *
+     * Walks the entries by position. Removing the current entry moves the last
+     * one into its position, which is then visited next.
+     *
+     ***************************************************************************/
+    private abstract class PositionIterator<E> implements Iterator<E> {
+
+        private int _next = 0;
+        private int _current = -1;
+
+
+        abstract E at(int index);
+
+        @Override
+        public boolean hasNext() {
+
+            return _next < _size;
+        }
+
+        @Override
+        public E next() {
+
+            if (_next >= _size) {
+                throw new NoSuchElementException();
+            }
+            _current = _next++;
+            return at(_current);
+        }
+
+        @Override
+        public void remove() {
+
+            if (_current < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(_current);
+            _next = _current;
+            _current = -1;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Entry snapshot that writes new values back to the map.
+     *
+     ***************************************************************************/
+    private final class Entry extends AbstractMap.SimpleEntry<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+
+        private Entry(String key, Object value) {
+
+            super(key, value);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
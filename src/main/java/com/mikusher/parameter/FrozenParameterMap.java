@@ -0,0 +1,319 @@
+package com.mikusher.parameter;
+
+import com.mikusher.utils.DataMap;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/***************************************************************************
+ *
+ * An immutable snapshot of a <code>{@link ParameterMap}</code>. Nested maps,
+ * lists and dates are converted to immutable compact forms when the
+ * snapshot is taken, so a frozen map can be shared between threads without
+ * copies and used as a cache key. The hash code is computed once.
+ *
+ * <p>Every operation that would change the map, including the ones on its
+ * collection views, throws an <code>UnsupportedOperationException</code>.
+ * <code>{@link #clone()}</code> and <code>{@link #copyOnWriteClone()}</code>
+ * return regular, mutable <code>ParameterMap</code> objects, whose nested
+ * maps, lists and dates are mutable as well.</p>
+ *
+ * @see ParameterMap#freeze()
+ *
+ ***************************************************************************/
+public final class FrozenParameterMap extends ParameterMap {
+
+    private final int _hashCode;
+
+
+    FrozenParameterMap(Map<String, ?> source) {
+
+        super(0);
+
+        _params = new FrozenMap(source);
+        _hashCode = _params.hashCode();
+    }
+
+    /***************************************************************************
+     *
+     * Creates an immutable snapshot of any map.
+     *
+     * @param source
+     *            The map to freeze.
+     *
+     * @return The frozen map, or <code>source</code> itself if it is already
+     *         frozen.
+     *
+     ***************************************************************************/
+    public static FrozenParameterMap of(Map<String, ?> source) {
+
+        if (source instanceof FrozenParameterMap) {
+            return (FrozenParameterMap) source;
+        }
+
+        return new FrozenParameterMap(source);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Object freezeObject(Object value) {
+
+        if (value == null || value instanceof FrozenParameterMap || value instanceof FrozenList
+                || value instanceof FrozenDate) {
+            return value;
+        } else if (value instanceof Map) {
+            return new FrozenParameterMap((Map<String, ?>) value);
+        } else if (value instanceof List) {
+            return new FrozenList((List<?>) value);
+        } else if (value instanceof Date) {
+            return new FrozenDate(((Date) value).getTime());
+        } else {
+            return value;
+        }
+    }
+
+    static boolean isFrozen(Object value) {
+
+        return value instanceof FrozenParameterMap || value instanceof FrozenList || value instanceof FrozenDate;
+    }
+
+    @Override
+    public FrozenParameterMap freeze() {
+
+        return this;
+    }
+
+    /***************************************************************************
+     *
+     * Returns a mutable clone that borrows the frozen entries. The clone
+     * copies a level before it hands out a nested map, list or date, and
+     * that copy is mutable, so the nested values come out as they would from
+     * <code>{@link #clone()}</code>. This map is left untouched.
+     *
+     * @return The copy-on-write clone of this map.
+     *
+     ***************************************************************************/
+    @Override
+    public ParameterMap copyOnWriteClone() {
+
+        return borrowingClone();
+    }
+
+    @Override
+    protected void detach() {
+
+        // Nothing to do: the entries are immutable so they can always be shared
+    }
+
+    @Override
+    protected ParameterMap newInstance() {
+
+        return new ParameterMap(Math.max(4, _params.size()));
+    }
+
+    @Override
+    public void clear() {
+
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public DataMap newMap() {
+
+        return new ParameterMap();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        if (o == this) {
+            return true;
+        }
+
+        if (o instanceof FrozenParameterMap && ((FrozenParameterMap) o)._hashCode != _hashCode) {
+            return false;
+        }
+
+        return _params.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+
+        return _hashCode;
+    }
+
+    /***************************************************************************
+     *
+     * Read only <code>{@link CompactMap}</code> with a cached hash code.
+     *
+     ***************************************************************************/
+    private static final class FrozenMap extends CompactMap {
+
+        private final int _hashCode;
+
+
+        private FrozenMap(Map<String, ?> source) {
+
+            super(source.size());
+
+            int hashCode = 0;
+            for (Map.Entry<String, ?> entry : source.entrySet()) {
+                String key = SymbolTable.intern(entry.getKey());
+                Object value = freezeObject(entry.getValue());
+                append(key, value);
+                hashCode += Objects.hashCode(key) ^ Objects.hashCode(value);
+            }
+            _hashCode = hashCode;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object remove(Object key) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        void putPrimitive(String key, byte type, long bits) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        void removeAt(int index) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void clear() {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
+
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int hashCode() {
+
+            return _hashCode;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * Read only list backed by an array of frozen values.
+     *
+     ***************************************************************************/
+    static final class FrozenList extends AbstractList<Object> implements RandomAccess {
+
+        private final Object[] _values;
+        private final int _hashCode;
+
+
+        private FrozenList(List<?> source) {
+
+            _values = new Object[source.size()];
+            int hashCode = 1;
+            int i = 0;
+            for (Object value : source) {
+                Object frozen = freezeObject(value);
+                _values[i++] = frozen;
+                hashCode = 31 * hashCode + Objects.hashCode(frozen);
+            }
+            _hashCode = hashCode;
+        }
+
+        @Override
+        public Object get(int index) {
+
+            return _values[index];
+        }
+
+        @Override
+        public int size() {
+
+            return _values.length;
+        }
+
+        @Override
+        public int hashCode() {
+
+            return _hashCode;
+        }
+    }
+
+    /***************************************************************************
+     *
+     * A date whose value can't be changed. Clones are regular dates.
+     *
+     ***************************************************************************/
+    @SuppressWarnings("deprecation")
+    static final class FrozenDate extends Date {
+
+        private static final long serialVersionUID = 1L;
+
+
+        private FrozenDate(long time) {
+
+            super(time);
+        }
+
+        @Override
+        public Object clone() {
+
+            return new Date(getTime());
+        }
+
+        @Override
+        public void setTime(long time) {
+
+            throw new UnsupportedOperationException("FrozenParameterMap dates can't be changed");
+        }
+
+        @Override
+        public void setYear(int year) {
+
+            throw new UnsupportedOperationException("FrozenParameterMap dates can't be changed");
+        }
+
+        @Override
+        public void setMonth(int month) {
+
+            throw new UnsupportedOperationException("FrozenParameterMap dates can't be changed");
+        }
+
+        @Override
+        public void setDate(int date) {
+
+            throw new UnsupportedOperationException("FrozenParameterMap dates can't be changed");
+        }
+
+        @Override
+        public void setHours(int hours) {
+
+            throw new UnsupportedOperationException("FrozenParameterMap dates can't be changed");
+        }
+
+        @Override
+        public void setMinutes(int minutes) {
+
+            throw new UnsupportedOperationException("FrozenParameterMap dates can't be changed");
+        }
+
+        @Override
+        public void setSeconds(int seconds) {
+
+            throw new UnsupportedOperationException("FrozenParameterMap dates can't be changed");
+        }
+    }
+}
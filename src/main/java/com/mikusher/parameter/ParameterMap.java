@@ -25,9 +25,19 @@ public class ParameterMap implements DataMap {
 
     protected static final Object NOT_FOUND = new Object();
 
+    // What is done to the maps on a path while walking it
+    private static final int READ = 0;
+    private static final int WRITE = 1;
+
     protected Map<String, Object> _params = null;
     protected ParameterInfoMap _paramInfoMap = null;
 
+    // True while _params is borrowed from the map this one was cloned from
+    private boolean _shared = false;
+    // Set once a copy-on-write clone borrows _params, so that this map copies
+    // it before it is changed or hands out a nested container
+    private volatile boolean _cloned = false;
+
 
     /***************************************************************************
      *
@@ -44,14 +54,14 @@ public class ParameterMap implements DataMap {
 
     public ParameterMap(int initialCapacity) {
 
-        _params = new HashMap<>(initialCapacity);
+        _params = new CompactMap(initialCapacity);
         _paramInfoMap = null;
     }
 
 
     public ParameterMap(ParameterInfoMap paramInfoMap) {
 
-        _params = new HashMap<>();
+        _params = new CompactMap(4);
         _paramInfoMap = paramInfoMap;
 
         reset();
@@ -94,7 +104,8 @@ public class ParameterMap implements DataMap {
     public ParameterMap(Map<String, Object> map, boolean copyInputMap) {
 
         if (copyInputMap) {
-            _params = new HashMap<>(map);
+            _params = new CompactMap(map.size());
+            _params.putAll(map);
         } else {
             _params = map;
         }
@@ -164,7 +175,7 @@ public class ParameterMap implements DataMap {
 
         List<Object> cloned;
         try {
-            cloned = array.getClass().newInstance();
+            cloned = array.getClass() == ArrayList.class ? new ArrayList<>(array.size()) : array.getClass().newInstance();
         } catch (InstantiationException ie) {
             cloned = new ArrayList<>(array.size());
         } catch (Exception ex) {
@@ -181,6 +192,47 @@ public class ParameterMap implements DataMap {
         return cloned;
     }
 
+    /***************************************************************************
+     *
+     * Copies a value that is about to be exposed by a copy-on-write level.
+     * Nested maps become copy-on-write clones themselves, so only the level
+     * being copied is traversed. Frozen values come out mutable.
+     *
+     ***************************************************************************/
+    private static Object shareObject(Object value) {
+
+        if (value instanceof ParameterMap) {
+            return ((ParameterMap) value).copyOnWriteClone();
+        } else if (value instanceof List) {
+            return shareArray((List<?>) value);
+        } else {
+            return cloneObject(value);
+        }
+    }
+
+    private static List<Object> shareArray(List<?> array) {
+
+        List<Object> shared = new ArrayList<>(array.size());
+        for (Object obj : array) {
+            shared.add(shareObject(obj));
+        }
+        return shared;
+    }
+
+    // The values a shared level is copied for before they are handed out,
+    // frozen ones included: copying thaws them, as clone() does
+    private static boolean isContainer(Object value) {
+
+        return value instanceof CloneableEntry || value instanceof List || value instanceof Date;
+    }
+
+    private static void checkWritable(Object holder) {
+
+        if (FrozenParameterMap.isFrozen(holder)) {
+            throw new UnsupportedOperationException("FrozenParameterMap can't be changed");
+        }
+    }
+
     /***************************************************************************
      *
      *
@@ -297,6 +349,7 @@ public class ParameterMap implements DataMap {
             return map1;
         }
 
+        map1.detach();
         for (Map.Entry<String, Object> entry : map1._params.entrySet()) {
 
             Object mapObj1 = entry.getValue();
@@ -416,6 +469,7 @@ public class ParameterMap implements DataMap {
             return;
         }
 
+        detach();
         for (Iterator<ParameterInfo> it = _paramInfoMap.iterator(); it.hasNext(); ) {
             ParameterInfo paramInfo = it.next();
             String paramName = paramInfo.getName();
@@ -460,7 +514,13 @@ public class ParameterMap implements DataMap {
      ***************************************************************************/
     private void reset() {
 
-        _params.clear();
+        if (isShared()) {
+            _params = new CompactMap(_params.size());
+            _shared = false;
+            _cloned = false;
+        } else {
+            _params.clear();
+        }
         if (_paramInfoMap == null) {
             return;
         }
@@ -486,18 +546,160 @@ public class ParameterMap implements DataMap {
     @Override
     public ParameterMap clone() {
 
-        final ParameterMap cloned;
+        final ParameterMap cloned = newInstance();
+        if (_params instanceof CompactMap && cloned._params instanceof CompactMap && cloned._params.isEmpty()) {
+            cloned._params = ((CompactMap) _params).copy(ParameterMap::cloneObject);
+        } else {
+            _params.forEach((key, value) -> cloned.put(key, cloneObject(value)));
+        }
+
+        return cloned;
+    }
+
+    /***************************************************************************
+     *
+     * Returns a clone that shares its contents with this map until either of
+     * them is changed. Cloning takes constant time: the first write on each
+     * side copies only the level being written, and the nested maps of that
+     * level become copy-on-write clones as well. Fetching a nested map, list
+     * or date, a collection view or the parameter names from either side also
+     * copies the level holding it, so what is returned can be changed freely
+     * without the other side seeing it. Values that can't be changed are read
+     * without copies.
+     *
+     * <p>Both sides therefore copy levels while they are read, so neither of
+     * them may be read by several threads without synchronization once cloned.
+     * Use <code>{@link #freeze()}</code> to share a map between threads.</p>
+     *
+     * @return The copy-on-write clone of this map.
+     *
+     **************************************************************************/
+    public ParameterMap copyOnWriteClone() {
+
+        final ParameterMap cloned = borrowingClone();
+        if (!_cloned) {
+            _cloned = true;
+        }
+
+        return cloned;
+    }
+
+    /***************************************************************************
+     *
+     * @return A new map that borrows the current level of this one, without
+     *         marking this map as cloned.
+     *
+     **************************************************************************/
+    final ParameterMap borrowingClone() {
+
+        final ParameterMap cloned = newInstance();
+        cloned._params = _params;
+        cloned._shared = true;
+
+        return cloned;
+    }
+
+    /***************************************************************************
+     *
+     * Returns an immutable snapshot of this map. Nested maps, lists and dates
+     * are deeply converted, so the snapshot can be shared between threads
+     * without copies and used as a cache key.
+     *
+     * @return The frozen snapshot of this map.
+     *
+     **************************************************************************/
+    public FrozenParameterMap freeze() {
+
+        return new FrozenParameterMap(_params);
+    }
+
+    /***************************************************************************
+     *
+     * Makes sure this map is the only owner of its entries, copying the
+     * current level if it is still shared with a copy-on-write clone.
+     *
+     **************************************************************************/
+    protected void detach() {
+
+        if (!isShared()) {
+            return;
+        }
+
+        if (_params instanceof CompactMap) {
+            _params = ((CompactMap) _params).copy(ParameterMap::shareObject);
+        } else {
+            final Map<String, Object> params = new CompactMap(_params.size());
+            _params.forEach((key, value) -> params.put(key, shareObject(value)));
+            _params = params;
+        }
+        _shared = false;
+        _cloned = false;
+    }
+
+    /***************************************************************************
+     *
+     * @return True while the current level is shared with a copy-on-write
+     *         clone, on either side, and has to be copied before it is changed
+     *         or a nested container is handed out.
+     *
+     **************************************************************************/
+    private boolean isShared() {
+
+        return _shared || _cloned;
+    }
+
+    protected ParameterMap newInstance() {
+
+        if (getClass() == ParameterMap.class) {
+            return new ParameterMap(Math.max(4, _params.size()));
+        }
+
         try {
-            cloned = this.getClass().newInstance();
+            return this.getClass().newInstance();
         } catch (Exception ex) {
             throw new SatelliteError(ex.toString(), ex);
         }
+    }
 
-        for (Map.Entry<String, Object> entry : _params.entrySet()) {
-            cloned.put(entry.getKey(), cloneObject(entry.getValue()));
+    /***************************************************************************
+     *
+     * @return The position of the literal entry <code>paramName</code> in the
+     *         compact storage, or -1 if it must be looked up the regular way.
+     *
+     ***************************************************************************/
+    private int compactIndexOf(String paramName) {
+
+        return paramName != null && _params instanceof CompactMap ? ((CompactMap) _params).indexOf(paramName) : -1;
+    }
+
+    /***************************************************************************
+     *
+     * Stores a primitive value unboxed when the storage allows it.
+     *
+     * @return False if the value must be stored through
+     *         <code>{@link #setParameter(String, Object)}</code> instead,
+     *         either because the storage is an external map or because
+     *         <code>paramName</code> is a nested expression.
+     *
+     ***************************************************************************/
+    private boolean setPrimitive(String paramName, byte type, long bits) throws UnknownParameterException {
+
+        if (_paramInfoMap != null && !_paramInfoMap.containsParameter(paramName)) {
+            throw new UnknownParameterException(paramName);
         }
 
-        return cloned;
+        detach();
+        if (paramName == null || !(_params instanceof CompactMap)) {
+            return false;
+        }
+
+        CompactMap params = (CompactMap) _params;
+        if (ParameterPath.lookup(paramName) != null && params.indexOf(paramName) < 0) {
+            return false;
+        }
+
+        params.putPrimitive(paramName, type, bits);
+        return true;
     }
 
     @Override
@@ -512,13 +714,9 @@ public class ParameterMap implements DataMap {
 
     private Object getParameterOrNotFound(String paramName) {
 
-        Entry entry = internalGet(paramName);
-        if (entry != null) {
-            return entry.getValue();
-        }
-
-        if (_paramInfoMap == null) {
-            return NOT_FOUND;
+        Object value = internalGet(paramName);
+        if (value != NOT_FOUND || _paramInfoMap == null) {
+            return value;
         }
 
         ParameterInfo paramInfo = _paramInfoMap.get(paramName);
@@ -527,83 +725,115 @@ public class ParameterMap implements DataMap {
 
     /***************************************************************************
      *
+     * Looks up a value by its literal key or, when that is missing, by
+     * following <code>paramName</code> as a nested expression. Neither a hit
+     * nor a miss allocates any object.
      *
+     * @return The value, which may be null, or <code>NOT_FOUND</code> if there
+     *         is no such entry.
      *
      ***************************************************************************/
-    private Entry internalGet(String paramName) {
+    private Object internalGet(String paramName) {
 
         if (paramName == null) {
-            return null;
+            return NOT_FOUND;
         }
 
         // must verify if the paramName is present on the keys (containsKey)
         Object value = _params.getOrDefault(paramName, NOT_FOUND);
         if (value != NOT_FOUND) {
-            return new Entry(value);
+            return isContainer(value) && isShared() ? exposed(paramName) : value;
         }
 
-        char[] buffer = paramName.toCharArray();
-        if (buffer.length < 3 || buffer[0] == '.' || buffer[0] == '(' || buffer[buffer.length - 1] == '.' || buffer[buffer.length - 1] == '(') {
-            return null;
-        }
+        ParameterPath path = ParameterPath.lookup(paramName);
+        return path != null ? walk(path) : NOT_FOUND;
+    }
+
+    private Object exposed(Object key) {
+
+        detach();
+        return _params.get(key);
+    }
+
+    /***************************************************************************
+     *
+     * Follows all the segments of <code>path</code> starting on this map.
+     *
+     * @return The value found at the end of the path or <code>NOT_FOUND</code>
+     *         if some segment is missing or has an unexpected type.
+     *
+     ***************************************************************************/
+    private Object walk(ParameterPath path) {
+
+        Object value = walk(path, path.size(), READ);
+
+        // Nested containers may only be handed out by maps that don't share them
+        return isContainer(value) ? walk(path, path.size(), WRITE) : value;
+    }
+
+    /***************************************************************************
+     *
+     * @param mode
+     *            <code>READ</code> to leave the maps on the path untouched,
+     *            or <code>WRITE</code> to copy every level they share before
+     *            it is changed or a nested container is handed out.
+     *
+     ***************************************************************************/
+    private Object walk(ParameterPath path, int segments, int mode) {
 
         Object holder = this;
-        int last = 0;
-        boolean arr = false;
-        boolean outArr = false;
-        try {
-            for (int i = 1; i < buffer.length; i++) {
-                switch (buffer[i]) {
-                    case '(':
-                    case '.':
-                        if (!outArr && (arr || last == i)) {
-                            return null;
-                        }
-
-                        if (!outArr) {
-                            holder = ((ParameterMap) holder)._params.get(paramName.substring(last, i));
-                        }
-
-                        last = i + 1;
-                        outArr = false;
-                        arr = (buffer[i] == '(');
-                        break;
-                    case ')':
-                        if (!arr || last == i) {
-                            return null;
-                        }
-
-                        holder = ((List) holder).get(Integer.parseInt(paramName.substring(last, i)));
-                        last = i + 1;
-                        arr = false;
-                        outArr = true;
-                        break;
-                    default:
-                        if (outArr) {
-                            return null;
-                        }
+        for (int i = 0; i < segments; i++) {
+            if (path.isIndex(i)) {
+                if (!(holder instanceof List)) {
+                    return NOT_FOUND;
                 }
-            }
-
-            if (arr || last == 0) {
-                return null;
-            }
 
-            if (last < buffer.length) {
-                String tmp = paramName.substring(last);
-                if (holder != null) {
-                    value = ((ParameterMap) holder)._params.getOrDefault(tmp, NOT_FOUND);
-                    if (value != NOT_FOUND) {
-                        return new Entry(value);
-                    }
+                List<?> list = (List<?>) holder;
+                int index = path.getIndex(i);
+                if (index >= list.size()) {
+                    return NOT_FOUND;
                 }
+                holder = list.get(index);
             } else {
-                return new Entry(holder);
+                if (!(holder instanceof ParameterMap)) {
+                    return NOT_FOUND;
+                }
+                if (mode == WRITE) {
+                    ((ParameterMap) holder).detach();
+                }
+                holder = ((ParameterMap) holder)._params.getOrDefault(path.getKey(i), NOT_FOUND);
+                if (holder == NOT_FOUND) {
+                    return NOT_FOUND;
+                }
             }
-        } catch (Exception e) {
         }
 
-        return null;
+        return holder;
+    }
+
+    /***************************************************************************
+     *
+     * Fetches the value identified by a compiled nested path. An entry whose
+     * key is literally the path name takes precedence over the nested lookup,
+     * just like in <code>{@link #getParameter(String)}</code>.
+     *
+     * @param path
+     *            The compiled path of the value to retrieve.
+     *
+     * @return The value found at <code>path</code> or null if there is no
+     *         such value.
+     *
+     ***************************************************************************/
+    public Object get(ParameterPath path) {
+
+        Object value = _params.getOrDefault(path.getName(), NOT_FOUND);
+        if (value == NOT_FOUND) {
+            value = walk(path);
+        } else if (isContainer(value) && isShared()) {
+            value = exposed(path.getName());
+        }
+
+        return value != NOT_FOUND ? value : null;
     }
 
     /***************************************************************************
@@ -623,7 +853,7 @@ public class ParameterMap implements DataMap {
      ***************************************************************************/
     public Object getParameterNoCheck(String paramName) {
 
-        return _params.get(paramName);
+        return get(paramName);
     }
 
     /***************************************************************************
@@ -653,88 +883,87 @@ public class ParameterMap implements DataMap {
             throw new UnknownParameterException(paramName);
         }
 
+        detach();
         Object value = _params.getOrDefault(paramName, NOT_FOUND);
         if (value != NOT_FOUND) {
             _params.put(paramName, paramValue);
             return;
         }
 
-        char[] buffer = paramName.toCharArray();
         // if name can't be a valid nested expression, use the literal name directly
-        if (buffer.length < 3 || buffer[0] == '.' || buffer[0] == '(' || buffer[buffer.length - 1] == '.' || buffer[buffer.length - 1] == '(') {
+        ParameterPath path = ParameterPath.lookup(paramName);
+        if (path == null || !internalSet(path, paramValue)) {
+            // parameter not in structure so keep it
             _params.put(paramName, paramValue);
-            return;
         }
+    }
+
+    /***************************************************************************
+     *
+     * Sets the value identified by a compiled nested path. If the path can't
+     * be followed because some intermediate segment is missing, the value is
+     * stored using the path name as a literal key, just like in
+     * <code>{@link #setParameter(String, Object)}</code>.
+     *
+     * @param path
+     *            The compiled path of the value to set.
+     *
+     * @param paramValue
+     *            The new value.
+     *
+     * @exception UnknownParameterException
+     *                Thrown if this map is constrained and it has no parameter
+     *                named after <code>path</code>.
+     *
+     ***************************************************************************/
+    public void set(ParameterPath path, Object paramValue) throws UnknownParameterException {
+
+        final String paramName = path.getName();
+        if (_paramInfoMap != null && !_paramInfoMap.containsParameter(paramName)) {
+            throw new UnknownParameterException(paramName);
+        }
+
+        detach();
+        if (_params.containsKey(paramName) || !internalSet(path, paramValue)) {
+            _params.put(paramName, paramValue);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean internalSet(ParameterPath path, Object paramValue) {
+
+        final int last = path.size() - 1;
+        Object holder = walk(path, last, WRITE);
+        checkWritable(holder);
 
-        Object holder = this;
-        int last = 0;
-        boolean inArrayIndex = false;
-        boolean outArr = false;
         try {
-            for (int i = 1; i < buffer.length; i++) {
-                switch (buffer[i]) {
-                    case '(':
-                    case '.':
-                        if (!outArr && (inArrayIndex || last == i)) {
-                            throw new UnknownParameterException(paramName);
-                        }
-
-                        if (!outArr) {
-                            holder = ((ParameterMap) holder)._params.get(paramName.substring(last, i));
-                        }
-                        last = i + 1;
-                        outArr = false;
-                        inArrayIndex = (buffer[i] == '(');
-                        break;
-                    case ')':
-
-                        // If we were not in an array index, or the arrayIndex is empty the accessor
-                        // is invalid so just use the literal value
-                        if (!inArrayIndex || last == i) {
-                            throw new UnknownParameterException(paramName);
-                        }
-
-                        int arrayIndexValue = Integer.parseInt(paramName.substring(last, i));
-
-                        // if we're are the end of the string set the value, either by adding the new position
-                        // to the end of the array, or replacing the existing value for that index.
-                        if (i == buffer.length - 1) {
-                            if (arrayIndexValue == ((List) holder).size()) {
-                                ((List) holder).add(paramValue);
-                            } else
-                                ((List) holder).set(arrayIndexValue, paramValue);
-
-                            return;
-                        }
-
-                        // Save the current position, for the next iteration
-                        holder = ((List) holder).get(arrayIndexValue);
-                        last = i + 1;
-                        inArrayIndex = false;
-                        outArr = true;
-                        break;
-                    default:
-                        if (outArr) {
-                            throw new UnknownParameterException(paramName);
-                        }
+            if (path.isIndex(last)) {
+                if (!(holder instanceof List)) {
+                    return false;
                 }
-            }
 
-            if (inArrayIndex || last == 0) {
-                _params.put(paramName, paramValue);
-                return;
-            }
-
-            // put it in the structure
-            if (holder != null) {
-                ((ParameterMap) holder)._params.put(paramName.substring(last), paramValue);
+                // either add the new position to the end of the array, or replace the existing value
+                List<Object> list = (List<Object>) holder;
+                int index = path.getIndex(last);
+                if (index == list.size()) {
+                    list.add(paramValue);
+                } else if (index < list.size()) {
+                    list.set(index, paramValue);
+                } else {
+                    return false;
+                }
             } else {
-                _params.put(paramName, paramValue);
+                if (!(holder instanceof ParameterMap)) {
+                    return false;
+                }
+                ((ParameterMap) holder).detach();
+                ((ParameterMap) holder)._params.put(path.getKey(last), paramValue);
             }
-        } catch (Exception e) {
-            // parameter not in structure so keep it
-            _params.put(paramName, paramValue);
+        } catch (RuntimeException e) {
+            return false;
         }
+
+        return true;
     }
 
     /***************************************************************************
@@ -752,6 +981,7 @@ public class ParameterMap implements DataMap {
     @Deprecated
     public void setParameterNoCheck(String paramName, Object paramValue) {
 
+        detach();
         _params.put(paramName, paramValue);
     }
 
@@ -770,8 +1000,7 @@ public class ParameterMap implements DataMap {
     public boolean containsKey(Object paramName) {
 
         String param = (String) paramName;
-        Entry entry = internalGet(param);
-        if (entry != null) {
+        if (internalGet(param) != NOT_FOUND) {
             return true;
         }
 
@@ -803,6 +1032,7 @@ public class ParameterMap implements DataMap {
     @Override
     public Iterator<String> getParameterNames() {
 
+        detach();
         return _params.keySet().iterator();
     }
 
@@ -950,7 +1180,14 @@ public class ParameterMap implements DataMap {
     @Override
     public int getInt(String paramName) throws UnknownParameterException, IncorrectTypeException {
 
-        return getTypedParameter(ParameterTypes.Integer, paramName);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getTypedParameter(ParameterTypes.Integer, paramName);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.INT ? (int) params.bitsAt(index)
+                : (Integer) ParameterTypes.Integer.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -974,7 +1211,14 @@ public class ParameterMap implements DataMap {
      ***************************************************************************/
     public int getIntOrDefault(String paramName, int defaultValue) throws IncorrectTypeException {
 
-        return getOrDefaultTypedParameter(ParameterTypes.Integer, paramName, defaultValue);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getOrDefaultTypedParameter(ParameterTypes.Integer, paramName, defaultValue);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.INT ? (int) params.bitsAt(index)
+                : (Integer) ParameterTypes.Integer.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1025,7 +1269,9 @@ public class ParameterMap implements DataMap {
     @Override
     public void setInt(String paramName, int paramValue) throws UnknownParameterException {
 
-        setParameter(paramName, paramValue);
+        if (!setPrimitive(paramName, CompactMap.INT, paramValue)) {
+            setParameter(paramName, paramValue);
+        }
     }
 
     /***************************************************************************
@@ -1054,7 +1300,14 @@ public class ParameterMap implements DataMap {
     @Override
     public long getLong(String paramName) throws UnknownParameterException, IncorrectTypeException {
 
-        return getTypedParameter(ParameterTypes.Long, paramName);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getTypedParameter(ParameterTypes.Long, paramName);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.LONG ? params.bitsAt(index)
+                : (Long) ParameterTypes.Long.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1078,7 +1331,14 @@ public class ParameterMap implements DataMap {
      ***************************************************************************/
     public long getLongOrDefault(String paramName, long defaultValue) throws IncorrectTypeException {
 
-        return getOrDefaultTypedParameter(ParameterTypes.Long, paramName, defaultValue);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getOrDefaultTypedParameter(ParameterTypes.Long, paramName, defaultValue);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.LONG ? params.bitsAt(index)
+                : (Long) ParameterTypes.Long.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1143,7 +1403,11 @@ public class ParameterMap implements DataMap {
     public <T> T getTypedParameter(ParameterTypes type, String paramName)
             throws UnknownParameterException, IncorrectTypeException {
 
-        return (T) type.cast(getParameter(paramName));
+        Object value = getParameterOrNotFound(paramName);
+        if (value == NOT_FOUND) {
+            throw new UnknownParameterException(Msg.SAT_UT0001, paramName);
+        }
+        return (T) type.cast(value);
     }
 
     /***************************************************************************
@@ -1286,7 +1550,9 @@ public class ParameterMap implements DataMap {
     @Override
     public void setLong(String paramName, long paramValue) throws UnknownParameterException {
 
-        setParameter(paramName, paramValue);
+        if (!setPrimitive(paramName, CompactMap.LONG, paramValue)) {
+            setParameter(paramName, paramValue);
+        }
     }
 
     /***************************************************************************
@@ -1314,7 +1580,14 @@ public class ParameterMap implements DataMap {
     @Override
     public float getFloat(String paramName) throws UnknownParameterException, IncorrectTypeException {
 
-        return getAsFloat(paramName);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getAsFloat(paramName);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.FLOAT ? Float.intBitsToFloat((int) params.bitsAt(index))
+                : (Float) ParameterTypes.Float.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1338,7 +1611,14 @@ public class ParameterMap implements DataMap {
      ***************************************************************************/
     public float getFloatOrDefault(String paramName, float defaultValue) throws IncorrectTypeException {
 
-        return getOrDefaultTypedParameter(ParameterTypes.Float, paramName, defaultValue);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getOrDefaultTypedParameter(ParameterTypes.Float, paramName, defaultValue);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.FLOAT ? Float.intBitsToFloat((int) params.bitsAt(index))
+                : (Float) ParameterTypes.Float.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1390,7 +1670,9 @@ public class ParameterMap implements DataMap {
     @Override
     public void setFloat(String paramName, float paramValue) throws UnknownParameterException {
 
-        setParameter(paramName, paramValue);
+        if (!setPrimitive(paramName, CompactMap.FLOAT, Float.floatToRawIntBits(paramValue))) {
+            setParameter(paramName, paramValue);
+        }
     }
 
     /***************************************************************************
@@ -1418,7 +1700,14 @@ public class ParameterMap implements DataMap {
     @Override
     public double getDouble(String paramName) throws UnknownParameterException, IncorrectTypeException {
 
-        return getTypedParameter(ParameterTypes.Double, paramName);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getTypedParameter(ParameterTypes.Double, paramName);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.DOUBLE ? Double.longBitsToDouble(params.bitsAt(index))
+                : (Double) ParameterTypes.Double.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1442,7 +1731,14 @@ public class ParameterMap implements DataMap {
      ***************************************************************************/
     public double getDoubleOrDefault(String paramName, double defaultValue) throws IncorrectTypeException {
 
-        return getOrDefaultTypedParameter(ParameterTypes.Double, paramName, defaultValue);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getOrDefaultTypedParameter(ParameterTypes.Double, paramName, defaultValue);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.DOUBLE ? Double.longBitsToDouble(params.bitsAt(index))
+                : (Double) ParameterTypes.Double.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1492,7 +1788,9 @@ public class ParameterMap implements DataMap {
     @Override
     public void setDouble(String paramName, double paramValue) throws UnknownParameterException {
 
-        setParameter(paramName, paramValue);
+        if (!setPrimitive(paramName, CompactMap.DOUBLE, Double.doubleToRawLongBits(paramValue))) {
+            setParameter(paramName, paramValue);
+        }
     }
 
     /***************************************************************************
@@ -1520,8 +1818,14 @@ public class ParameterMap implements DataMap {
     @Override
     public boolean getBoolean(String paramName) throws UnknownParameterException, IncorrectTypeException {
 
-        return getTypedParameter(ParameterTypes.Boolean, paramName);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getTypedParameter(ParameterTypes.Boolean, paramName);
+        }
 
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.BOOLEAN ? params.bitsAt(index) != 0
+                : (Boolean) ParameterTypes.Boolean.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1545,7 +1849,14 @@ public class ParameterMap implements DataMap {
      ***************************************************************************/
     public boolean getBooleanOrDefault(String paramName, boolean defaultValue) throws IncorrectTypeException {
 
-        return getOrDefaultTypedParameter(ParameterTypes.Boolean, paramName, defaultValue);
+        int index = compactIndexOf(paramName);
+        if (index < 0) {
+            return getOrDefaultTypedParameter(ParameterTypes.Boolean, paramName, defaultValue);
+        }
+
+        CompactMap params = (CompactMap) _params;
+        return params.typeAt(index) == CompactMap.BOOLEAN ? params.bitsAt(index) != 0
+                : (Boolean) ParameterTypes.Boolean.cast(params.valueAt(index));
     }
 
     /***************************************************************************
@@ -1595,7 +1906,9 @@ public class ParameterMap implements DataMap {
     @Override
     public void setBoolean(String paramName, boolean paramValue) throws UnknownParameterException {
 
-        setParameter(paramName, paramValue);
+        if (!setPrimitive(paramName, CompactMap.BOOLEAN, paramValue ? 1 : 0)) {
+            setParameter(paramName, paramValue);
+        }
     }
 
     /***************************************************************************
@@ -2041,71 +2354,52 @@ public class ParameterMap implements DataMap {
      ***************************************************************************/
     public void remove(String paramName) throws UnknownParameterException {
 
+        detach();
         if (_params.remove(paramName) != null) {
             return;
         }
 
-        Object holder = this;
-        char[] buffer = paramName.toCharArray();
-        int last = 0;
+        ParameterPath path = ParameterPath.lookup(paramName);
+        if (path != null) {
+            internalRemove(path);
+        }
+    }
 
-        try {
-            if (buffer.length < 3 || buffer[0] == '.' || buffer[0] == '(' || buffer[buffer.length - 1] == '.' || buffer[buffer.length - 1] == '(')
-                return;
-
-            holder = this;
-
-            boolean arr = false;
-            boolean outArr = false;
-
-            for (int i = 1; i < buffer.length; i++) {
-                switch (buffer[i]) {
-                    case '(':
-                    case '.':
-                        if (!outArr && (arr || last == i)) {
-                            return;
-                        }
-
-                        if (!outArr) {
-                            holder = ((ParameterMap) holder)._params.get(paramName.substring(last, i));
-                        }
-                        last = i + 1;
-                        outArr = false;
-                        arr = (buffer[i] == '(');
-                        break;
-                    case ')':
-                        if (!arr || last == i) {
-                            throw new UnknownParameterException(paramName);
-                        }
-                        int tmp = Integer.parseInt(paramName.substring(last, i));
-
-                        if (i == buffer.length - 1) {
-                            // the end
-                            ((List) holder).remove(tmp);
-
-                            return;
-                        }
-
-                        holder = ((List) holder).get(tmp);
-                        last = i + 1;
-                        arr = false;
-                        outArr = true;
-                        break;
-                    default:
-                        if (outArr) {
-                            throw new UnknownParameterException(paramName);
-                        }
+    /***************************************************************************
+     *
+     * Removes the entry identified by a compiled nested path. An entry whose
+     * key is literally the path name is removed instead, if present.
+     *
+     * @param path
+     *            The compiled path of the entry to remove.
+     *
+     ***************************************************************************/
+    public void remove(ParameterPath path) {
 
-                }
-            }
+        detach();
+        if (_params.remove(path.getName()) != null) {
+            return;
+        }
 
-            if (arr || last == 0) {
-                return;
-            }
+        internalRemove(path);
+    }
+
+    private void internalRemove(ParameterPath path) {
+
+        final int last = path.size() - 1;
+        Object holder = walk(path, last, WRITE);
+        checkWritable(holder);
 
-            // remove it from the structure
-            ((ParameterMap) holder)._params.remove(paramName.substring(last));
-        } catch (Exception e) {
+        try {
+            if (path.isIndex(last)) {
+                if (holder instanceof List && path.getIndex(last) < ((List<?>) holder).size()) {
+                    ((List<?>) holder).remove(path.getIndex(last));
+                }
+            } else if (holder instanceof ParameterMap) {
+                ((ParameterMap) holder).detach();
+                ((ParameterMap) holder)._params.remove(path.getKey(last));
+            }
+        } catch (RuntimeException e) {
             // parameter not in structure so nothing to do
         }
     }
@@ -2214,6 +2508,7 @@ public class ParameterMap implements DataMap {
     @Override
     public Set<Map.Entry<String, Object>> entrySet() {
 
+        detach();
         return _params.entrySet();
     }
 
@@ -2236,7 +2531,8 @@ public class ParameterMap implements DataMap {
     @Override
     public Object get(Object key) {
 
-        return _params.get(key);
+        Object value = _params.get(key);
+        return isContainer(value) && isShared() ? exposed(key) : value;
     }
 
     /***************************************************************************
@@ -2269,6 +2565,7 @@ public class ParameterMap implements DataMap {
     @Override
     public Set<String> keySet() {
 
+        detach();
         return _params.keySet();
     }
 
@@ -2280,6 +2577,7 @@ public class ParameterMap implements DataMap {
     @Override
     public Object put(String key, Object value) {
 
+        detach();
         return _params.put(key, value);
     }
 
@@ -2291,6 +2589,7 @@ public class ParameterMap implements DataMap {
     @Override
     public Object remove(Object key) {
 
+        detach();
         return _params.remove(key);
     }
 
@@ -2313,72 +2612,84 @@ public class ParameterMap implements DataMap {
     @Override
     public Collection<Object> values() {
 
+        detach();
         return _params.values();
     }
 
     @Override
     public Object getOrDefault(Object key, Object defaultValue) {
 
-        return _params.getOrDefault(key, defaultValue);
+        Object value = _params.getOrDefault(key, defaultValue);
+        return value != defaultValue && isContainer(value) && isShared() ? exposed(key) : value;
     }
 
     @Override
     public void forEach(BiConsumer<? super String, ? super Object> action) {
 
+        detach();
         _params.forEach(action);
     }
 
     @Override
     public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
 
+        detach();
         _params.replaceAll(function);
     }
 
     @Override
     public Object putIfAbsent(String key, Object value) {
 
+        detach();
         return _params.putIfAbsent(key, value);
     }
 
     @Override
     public boolean remove(Object key, Object value) {
 
+        detach();
         return _params.remove(key, value);
     }
 
     @Override
     public boolean replace(String key, Object oldValue, Object newValue) {
 
+        detach();
         return _params.replace(key, oldValue, newValue);
     }
 
     @Override
     public Object replace(String key, Object value) {
 
+        detach();
         return _params.replace(key, value);
     }
 
     @Override
     public Object computeIfAbsent(String key, Function<? super String, ?> mappingFunction) {
 
+        detach();
         return _params.computeIfAbsent(key, mappingFunction);
     }
 
     @Override
     public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
 
+        detach();
         return _params.computeIfPresent(key, remappingFunction);
     }
 
     @Override
     public Object compute(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
 
+        detach();
         return _params.compute(key, remappingFunction);
     }
 
     @Override
     public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
 
+        detach();
         return _params.merge(key, value, remappingFunction);
     }
 
@@ -2395,6 +2706,7 @@ public class ParameterMap implements DataMap {
     @Override
     public void putAll(Map<? extends String, ? extends Object> map) {
 
+        detach();
         _params.putAll(map);
     }
 
@@ -2410,26 +2722,4 @@ public class ParameterMap implements DataMap {
         return new ArrayList<>();
     }
 
-    /***************************************************************************
-     *
-     *
-     *
-     ***************************************************************************/
-    private static final class Entry {
-
-        private final Object _value;
-
-
-        private Entry(Object value) {
-
-            _value = value;
-        }
-
-
-        private Object getValue() {
-
-            return _value;
-        }
-    }
-
 }
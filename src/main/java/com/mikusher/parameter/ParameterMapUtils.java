@@ -711,15 +711,16 @@ public class ParameterMapUtils {
             return null;
         }
 
+        // Copy-on-write clones only copy the levels that are actually extended
         if (map1IsInvalid) {
-            return map2.clone();
+            return map2.copyOnWriteClone();
         }
 
         if (map2IsInvalid) {
-            return map1.clone();
+            return map1.copyOnWriteClone();
         }
 
-        ParameterMap map = map1.clone();
+        ParameterMap map = map1.copyOnWriteClone();
 
         for (Map.Entry<String, Object> entry : map2.entrySet()) {
 
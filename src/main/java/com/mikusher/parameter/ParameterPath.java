@@ -0,0 +1,278 @@
+package com.mikusher.parameter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/***************************************************************************
+ *
+ * A pre-parsed nested parameter name such as <code>a.b(3).c</code>. The
+ * expression is split once into its key and index segments so that
+ * <code>{@link ParameterMap}</code> can walk the tree without rescanning the
+ * characters of the name on every access.
+ *
+ * <p>The accepted syntax is the same one understood by
+ * <code>{@link ParameterMap#getParameter(String)}</code>: keys separated by
+ * <code>'.'</code> and list indexes enclosed in parenthesis.</p>
+ *
+ ***************************************************************************/
+public final class ParameterPath {
+
+    private static final int MAX_CACHED_PATHS = 2048;
+
+    // Marks names that are not valid nested expressions in the cache
+    private static final ParameterPath LITERAL = new ParameterPath("", new String[0], new int[0]);
+
+    private static final ConcurrentMap<String, ParameterPath> _cache = new ConcurrentHashMap<>();
+
+    private final String _name;
+    private final String[] _keys;
+    private final int[] _indexes;
+
+
+    private ParameterPath(String name, String[] keys, int[] indexes) {
+
+        _name = name;
+        _keys = keys;
+        _indexes = indexes;
+    }
+
+    /***************************************************************************
+     *
+     * Parses a nested parameter name.
+     *
+     * @param name
+     *            The nested parameter name (E.g. <code>a.b(3).c</code>).
+     *
+     * @return The compiled path.
+     *
+     * @exception IllegalArgumentException
+     *                Thrown if <code>name</code> is not a valid nested
+     *                expression.
+     *
+     ***************************************************************************/
+    public static ParameterPath compile(String name) {
+
+        ParameterPath path = parse(name);
+        if (path == null) {
+            throw new IllegalArgumentException("Invalid parameter path - " + name);
+        }
+        return path;
+    }
+
+    /***************************************************************************
+     *
+     * Fetches the compiled path for a nested parameter name from a bounded
+     * cache shared by all maps, parsing it on the first request.
+     *
+     * @param name
+     *            The nested parameter name.
+     *
+     * @return The compiled path or null if <code>name</code> is not a nested
+     *         expression and must be used as a literal key.
+     *
+     ***************************************************************************/
+    static ParameterPath lookup(String name) {
+
+        // Plain keys never reach the cache so they can't evict compiled paths
+        if (!isNested(name)) {
+            return null;
+        }
+
+        ParameterPath path = _cache.get(name);
+        if (path == null) {
+            path = parse(name);
+            if (path == null || path.size() < 2) {
+                path = LITERAL;
+            }
+
+            if (_cache.size() >= MAX_CACHED_PATHS) {
+                _cache.clear();
+            }
+            _cache.put(name, path);
+        }
+
+        return path == LITERAL ? null : path;
+    }
+
+    private static boolean isNested(String name) {
+
+        for (int i = name.length() - 1; i > 0; i--) {
+            char c = name.charAt(i);
+            if (c == '.' || c == '(') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ParameterPath parse(String name) {
+
+        final int length = name == null ? 0 : name.length();
+        if (length == 0) {
+            return null;
+        }
+
+        // A nested expression can't start with a separator nor end with an open one
+        char first = name.charAt(0);
+        char last = name.charAt(length - 1);
+        if (first == '.' || first == '(' || last == '.' || last == '(') {
+            return null;
+        }
+
+        int count = 1;
+        for (int i = 1; i < length; i++) {
+            char c = name.charAt(i);
+            if (c == '.' || c == '(') {
+                count++;
+            }
+        }
+
+        String[] keys = new String[count];
+        int[] indexes = new int[count];
+        int segment = 0;
+        int start = 0;
+        boolean inIndex = false;
+        boolean afterIndex = false;
+
+        for (int i = 1; i < length; i++) {
+            char c = name.charAt(i);
+            switch (c) {
+                case '(':
+                case '.':
+                    if (!afterIndex) {
+                        if (inIndex || start == i) {
+                            return null;
+                        }
+                        keys[segment++] = name.substring(start, i);
+                    }
+                    start = i + 1;
+                    afterIndex = false;
+                    inIndex = (c == '(');
+                    break;
+                case ')':
+                    if (!inIndex || start == i) {
+                        return null;
+                    }
+                    int index = parseIndex(name, start, i);
+                    if (index < 0) {
+                        return null;
+                    }
+                    indexes[segment++] = index;
+                    start = i + 1;
+                    inIndex = false;
+                    afterIndex = true;
+                    break;
+                default:
+                    if (afterIndex) {
+                        return null;
+                    }
+            }
+        }
+
+        if (inIndex) {
+            return null;
+        }
+
+        if (start < length) {
+            keys[segment++] = name.substring(start);
+        }
+
+        if (segment != count) {
+            String[] tmpKeys = new String[segment];
+            int[] tmpIndexes = new int[segment];
+            System.arraycopy(keys, 0, tmpKeys, 0, segment);
+            System.arraycopy(indexes, 0, tmpIndexes, 0, segment);
+            keys = tmpKeys;
+            indexes = tmpIndexes;
+        }
+
+        return new ParameterPath(name, keys, indexes);
+    }
+
+    private static int parseIndex(String name, int start, int end) {
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+
+    /***************************************************************************
+     *
+     * @return The number of segments in this path.
+     *
+     ***************************************************************************/
+    public int size() {
+
+        return _keys.length;
+    }
+
+    /***************************************************************************
+     *
+     * @return True if the segment at <code>position</code> is a list index,
+     *         false if it is a map key.
+     *
+     ***************************************************************************/
+    public boolean isIndex(int position) {
+
+        return _keys[position] == null;
+    }
+
+    /***************************************************************************
+     *
+     * @return The map key at <code>position</code> or null if that segment is
+     *         a list index.
+     *
+     ***************************************************************************/
+    public String getKey(int position) {
+
+        return _keys[position];
+    }
+
+    /***************************************************************************
+     *
+     * @return The list index at <code>position</code>. Only meaningful if
+     *         <code>{@link #isIndex(int)}</code> is true.
+     *
+     ***************************************************************************/
+    public int getIndex(int position) {
+
+        return _indexes[position];
+    }
+
+    /***************************************************************************
+     *
+     * @return The nested parameter name this path was compiled from.
+     *
+     ***************************************************************************/
+    public String getName() {
+
+        return _name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        return (o == this) || (o instanceof ParameterPath && _name.equals(((ParameterPath) o)._name));
+    }
+
+    @Override
+    public int hashCode() {
+
+        return _name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+
+        return _name;
+    }
+}
@@ -0,0 +1,55 @@
+package com.mikusher.parameter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/***************************************************************************
+ *
+ * Shared table of parameter names. Maps built from the same documents hold
+ * the same few keys over and over, so storing a single instance of each one
+ * saves a string per entry and lets lookups match keys by reference.
+ *
+ * <p>The table is bounded: once it is full, or for unusually long names, the
+ * key is returned as it is.</p>
+ *
+ ***************************************************************************/
+final class SymbolTable {
+
+    private static final int MAX_SYMBOLS = 1 << 16;
+    private static final int MAX_SYMBOL_LENGTH = 64;
+
+    private static final ConcurrentMap<String, String> _symbols = new ConcurrentHashMap<>(256);
+
+
+    private SymbolTable() {
+
+    }
+
+    /***************************************************************************
+     *
+     * @param key
+     *            The parameter name.
+     *
+     * @return The shared instance equal to <code>key</code>, or
+     *         <code>key</code> itself if it can't be shared.
+     *
+     ***************************************************************************/
+    static String intern(String key) {
+
+        if (key == null || key.length() > MAX_SYMBOL_LENGTH) {
+            return key;
+        }
+
+        String symbol = _symbols.get(key);
+        if (symbol == null) {
+            if (_symbols.size() >= MAX_SYMBOLS) {
+                return key;
+            }
+            symbol = _symbols.putIfAbsent(key, key);
+            if (symbol == null) {
+                symbol = key;
+            }
+        }
+        return symbol;
+    }
+}
@@ -0,0 +1,87 @@
+package com.mikusher.converters;
+
+import com.mikusher.converters.ConversionUtils.FastDateFormat;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConversionUtilsTest {
+
+    private static final String[] ZONES = {"UTC", "America/New_York", "Europe/Lisbon", "Australia/Lord_Howe",
+            "Asia/Kolkata"};
+
+    /**
+     * Runs <code>task</code> on a new thread, whose calendar is created in <code>zone</code>.
+     */
+    private static <T> T inZone(String zone, Callable<T> task) throws Exception {
+
+        TimeZone previous = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(zone));
+        try {
+            FutureTask<T> future = new FutureTask<>(task);
+            new Thread(future).start();
+            return future.get();
+        } finally {
+            TimeZone.setDefault(previous);
+        }
+    }
+
+    @Test
+    public void long2DateIgnoresTheEraOfAPreviousDate() throws Exception {
+
+        Date date = inZone("America/New_York", () -> {
+            FastDateFormat.SECOND.date2Long(new Date(-70_000_000_000_000L));
+            // The end of daylight saving time, read through the calendar
+            return FastDateFormat.DAY.long2Date(20281105L);
+        });
+
+        assertEquals(1_857_009_600_000L, date.getTime());
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() throws Exception {
+
+        for (String zone : ZONES) {
+            inZone(zone, () -> {
+                Random random = new Random(zone.hashCode());
+                for (FastDateFormat format : FastDateFormat.values()) {
+                    SimpleDateFormat reference = new SimpleDateFormat(formatOf(format));
+                    for (int i = 0; i < 2000; i++) {
+                        // From year 1 to 9999, around the 1582 cutover and around the transitions of the zone
+                        long millis = i % 4 == 0 ? -62_135_596_800_000L + (long) (random.nextDouble() * 3.15e14)
+                                : i % 4 == 1 ? -12_219_292_800_000L + random.nextInt() * 1000L
+                                : 1_600_000_000_000L + random.nextInt() * 100L;
+                        Date date = new Date(millis);
+                        String text = reference.format(date);
+
+                        assertEquals(zone + " " + date, text, format.date2String(date));
+                        assertEquals(zone + " " + date, Long.parseLong(text), format.date2Long(date));
+                        assertEquals(zone + " " + text, reference.parse(text), format.long2Date(Long.parseLong(text)));
+                    }
+                }
+                return null;
+            });
+        }
+    }
+
+    private static String formatOf(FastDateFormat format) {
+
+        switch (format) {
+            case DAY:
+                return "yyyyMMdd";
+            case HOUR:
+                return "yyyyMMddHH";
+            case MINUTE:
+                return "yyyyMMddHHmm";
+            default:
+                return ConversionUtils.DATE_LONG_FORMAT;
+        }
+    }
+}
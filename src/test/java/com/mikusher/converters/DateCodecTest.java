@@ -0,0 +1,85 @@
+package com.mikusher.converters;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DateCodecTest {
+
+    private static SimpleDateFormat reference() {
+
+        SimpleDateFormat format = new SimpleDateFormat(DateCodec.FORMAT);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        return format;
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() throws Exception {
+
+        SimpleDateFormat reference = reference();
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            // From year 1 to 9999, and around the 1583 limit of the arithmetic
+            long millis = i % 2 == 0 ? -62_135_596_800_000L + (long) (random.nextDouble() * 3.15e14)
+                    : DateCodec.MIN_MILLIS + random.nextInt() * 1000L;
+            Date date = new Date(millis);
+            String text = reference.format(date);
+
+            assertEquals(date.toString(), text, DateCodec.format(millis));
+            assertEquals(text, reference.parse(text), DateCodec.parse(text));
+
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            long parsed = DateCodec.parse(bytes, 0, bytes.length);
+            if (millis >= DateCodec.MIN_MILLIS) {
+                assertEquals(text, reference.parse(text).getTime(), parsed);
+
+                byte[] formatted = new byte[DateCodec.LENGTH];
+                DateCodec.format(millis, formatted, 0);
+                assertEquals(text, new String(formatted, StandardCharsets.US_ASCII));
+                assertEquals(text, Long.parseLong(text), DateCodec.toPacked(millis));
+            } else {
+                assertEquals(text, DateCodec.INVALID, parsed);
+            }
+        }
+    }
+
+    @Test
+    public void leavesWhatIsntAPlainDateToSimpleDateFormat() throws Exception {
+
+        SimpleDateFormat reference = reference();
+        String[] texts = {"20230229000000", "20240230120000", "20231301000000", "20230100000000", "20230101240000",
+                "20230101006000", "20230101000060", "2023010100000", "2023-01-01T0000", "15821231235959", ""};
+        for (String text : texts) {
+            byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(text, DateCodec.INVALID, DateCodec.parse(bytes, 0, bytes.length));
+
+            Date expected;
+            try {
+                expected = reference.parse(text);
+            } catch (ParseException e) {
+                expected = null;
+            }
+            try {
+                assertEquals(text, expected, DateCodec.parse(text));
+            } catch (ParseException e) {
+                assertNull(text, expected);
+            }
+        }
+    }
+
+    @Test
+    public void carriesFieldsOverAsALenientCalendar() {
+
+        assertEquals(DateCodec.toMillis(20240101000000L), DateCodec.toMillis(20231301000000L));
+        assertEquals(DateCodec.toMillis(20240229000000L), DateCodec.toMillis(20240300000000L));
+    }
+}
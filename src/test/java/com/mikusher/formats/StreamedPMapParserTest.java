@@ -0,0 +1,219 @@
+package com.mikusher.formats;
+
+import com.mikusher.formats.StreamedPMapParser.SerializationType;
+import com.mikusher.parameter.ParameterMap;
+import com.mikusher.utils.PMapReadPlugin;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class StreamedPMapParserTest {
+
+    private static final SerializationType[] TYPES = {SerializationType.PMAP1, SerializationType.PMAP2,
+            SerializationType.PMAP2_WITH_FORMATTING, SerializationType.PMAP3_BINARY};
+
+    // Line breaks and tabs in attributes are read as spaces
+    private static final String KEY_CHARS = "abcXYZ019 _-.<>&\"'çé€";
+    private static final String TEXT_CHARS = KEY_CHARS + "\n\t";
+
+    private final StreamedPMapParser fast = new StreamedPMapParser(new PMapReadPlugin[0], true);
+    private final StreamedPMapParser stax = new StreamedPMapParser(new PMapReadPlugin[0], false);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A map with a value of every type, text that has to be escaped and nested maps and arrays
+     */
+    private static ParameterMap sample() {
+
+        ParameterMap nested = new ParameterMap();
+        nested.put("name", "<a href=\"x\">Tom & 'Jerry'</a>");
+        // Carriage returns aren't escaped, so XML readers turn them into line feeds
+        nested.put("lines", "first\nsecond\nthird\ttabbed");
+        nested.put("unicode", "ação 日本 😀");
+        nested.put("empty", "");
+        nested.put("spaces", "  padded  ");
+
+        List<Object> records = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ParameterMap record = new ParameterMap();
+            record.put("id", i);
+            record.put("amount", new BigDecimal("-12345678901234567890.0" + i));
+            records.add(record);
+        }
+
+        ParameterMap map = new ParameterMap();
+        map.put("string", "value");
+        map.put("int", Integer.MIN_VALUE);
+        map.put("long", Long.MAX_VALUE);
+        map.put("float", 1.25f);
+        map.put("double", -0.1d);
+        map.put("decimal", new BigDecimal("3.14159265358979323846"));
+        map.put("true", Boolean.TRUE);
+        map.put("false", Boolean.FALSE);
+        // Dates are kept to the second
+        map.put("date", new Date(1_700_000_123_000L));
+        map.put("null", null);
+        map.put("nested", nested);
+        map.put("records", records);
+        map.put("mixed", new ArrayList<>(Arrays.asList("a", 1, 2L, null, new ParameterMap())));
+        map.put("emptyMap", new ParameterMap());
+        map.put("emptyArray", new ArrayList<>());
+        return map;
+    }
+
+    @Test
+    public void roundTripsEveryFormat() throws Exception {
+
+        ParameterMap map = sample();
+        for (SerializationType type : TYPES) {
+            byte[] content = fast.PMAPtoByteArray(map, type);
+
+            assertEquals(type.toString(), map, fast.ByteArrayToPMAP(type, content));
+            assertEquals(type.toString(), map, stax.ByteArrayToPMAP(type, content));
+            assertEquals(type.toString(), map, fast.ByteArrayToLazyPMAP(type, content));
+        }
+    }
+
+    @Test
+    public void writesTheSameXmlAsStax() throws Exception {
+
+        ParameterMap map = sample();
+        for (SerializationType type : TYPES) {
+            if (type.isBinary()) {
+                continue;
+            }
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (Writer writer = new OutputStreamWriter(expected, StandardCharsets.UTF_8)) {
+                stax.PMAPtoWriter(map, type, writer);
+            }
+
+            assertEquals(type.toString(), expected.toString(StandardCharsets.UTF_8),
+                    new String(fast.PMAPtoByteArray(map, type), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void byteLevelReaderMatchesStax() throws Exception {
+
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            ParameterMap map = randomMap(random, 3);
+            byte[] content = fast.PMAPtoByteArray(map, SerializationType.PMAP2);
+
+            ParameterMap expected = stax.ByteArrayToPMAP(SerializationType.PMAP2, content);
+            assertEquals(map, expected);
+            assertEquals(expected, new PMap2Reader(fast, content, 0, content.length).read());
+        }
+    }
+
+    @Test
+    public void byteLevelReaderNormalizesLineBreaks() throws Exception {
+
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n<m>\r\n<s n=\"text\">a\r\nb\rc</s>\r\n"
+                + "<s n=\"x&#13;y\">&#13;</s>\r\n</m>\r\n";
+        byte[] content = xml.getBytes(StandardCharsets.UTF_8);
+
+        ParameterMap map = new PMap2Reader(fast, content, 0, content.length).read();
+
+        assertNotNull(map);
+        assertEquals(stax.ByteArrayToPMAP(SerializationType.PMAP2, content), map);
+        assertEquals("a\nb\nc", map.get("text"));
+        assertEquals("\r", map.get("x\ry"));
+    }
+
+    @Test
+    public void readsMappedFiles() throws Exception {
+
+        ParameterMap map = sample();
+        for (SerializationType type : TYPES) {
+            Path path = folder.newFile().toPath();
+            Files.write(path, fast.PMAPtoByteArray(map, type));
+
+            assertEquals(type.toString(), map, fast.getMappedMap(path));
+            assertEquals(type.toString(), map, stax.getMappedMap(path));
+        }
+    }
+
+    @Test
+    public void readsTheMapsOfAnArray() throws Exception {
+
+        ParameterMap map = sample();
+        for (SerializationType type : TYPES) {
+            byte[] content = fast.PMAPtoByteArray(map, type);
+
+            assertEquals(type.toString(), map.get("records"),
+                    fast.ByteArrayToPMAPList(type, content, "records"));
+        }
+    }
+
+    private static ParameterMap randomMap(Random random, int depth) {
+
+        ParameterMap map = new ParameterMap();
+        int size = random.nextInt(8);
+        for (int i = 0; i < size; i++) {
+            map.put(randomString(random, KEY_CHARS), randomValue(random, depth));
+        }
+        return map;
+    }
+
+    private static Object randomValue(Random random, int depth) {
+
+        switch (random.nextInt(depth > 0 ? 11 : 9)) {
+            case 0:
+                return randomString(random, TEXT_CHARS);
+            case 1:
+                return random.nextInt();
+            case 2:
+                return random.nextLong();
+            case 3:
+                return random.nextFloat() * 1000;
+            case 4:
+                return random.nextGaussian();
+            case 5:
+                return BigDecimal.valueOf(random.nextLong(), random.nextInt(20));
+            case 6:
+                return random.nextBoolean();
+            case 7:
+                return new Date(random.nextInt() * 1000L);
+            case 8:
+                return null;
+            case 9:
+                return randomMap(random, depth - 1);
+            default:
+                List<Object> list = new ArrayList<>();
+                int size = random.nextInt(5);
+                for (int i = 0; i < size; i++) {
+                    list.add(randomValue(random, depth - 1));
+                }
+                return list;
+        }
+    }
+
+    private static String randomString(Random random, String alphabet) {
+
+        StringBuilder text = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+}
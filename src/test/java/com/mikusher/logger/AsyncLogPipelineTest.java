@@ -0,0 +1,178 @@
+package com.mikusher.logger;
+
+import com.mikusher.logger.AsyncLogPipeline.FullPolicy;
+import com.mikusher.logger.factory.Logger;
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLogPipelineTest {
+
+    private static final FastDateFormat FORMAT = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss.SSSZ");
+
+    // The lines written to slf4j, with the thread that wrote them
+    private final List<String> lines = new CopyOnWriteArrayList<>();
+    private final List<String> threads = new CopyOnWriteArrayList<>();
+    // Counted down as the first line is written, which then waits for the latch to be released
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    private AsyncLogPipeline pipeline;
+
+    @After
+    public void closePipeline() {
+
+        release.countDown();
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    private org.slf4j.Logger slf4jLogger() {
+
+        return (org.slf4j.Logger) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{org.slf4j.Logger.class}, (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("getName")) {
+                        return "test";
+                    } else if (name.startsWith("is")) {
+                        return true;
+                    } else if (method.getReturnType() == void.class && args != null && args.length == 1) {
+                        lines.add((String) args[0]);
+                        threads.add(Thread.currentThread().getName());
+                        writing.countDown();
+                        release.await(10, TimeUnit.SECONDS);
+                    }
+                    return null;
+                });
+    }
+
+    private Logger logger(int bufferSize, FullPolicy policy) {
+
+        pipeline = AsyncLogPipeline.start(bufferSize, policy);
+        return new Logger(slf4jLogger(), FORMAT, false, false, true, CallerInfo.OFF, pipeline);
+    }
+
+    @Test
+    public void closeWritesTheEventsQueued() {
+
+        Logger logger = logger(8, FullPolicy.WAIT);
+        for (int i = 0; i < 1000; i++) {
+            logger.info().field("i", i).log();
+        }
+        pipeline.close();
+
+        assertTrue(pipeline.isClosed());
+        assertEquals(1000, lines.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(lines.get(i), lines.get(i).startsWith("{\"i\":" + i + ","));
+            assertEquals("satellite-json-logger", threads.get(i));
+        }
+        assertEquals(1000, pipeline.getQueuedCount());
+        assertEquals(0, pipeline.getPendingCount());
+        assertEquals(0, pipeline.getDroppedCount());
+
+        // Written by the thread that logs once closed
+        logger.info().field("i", "after").log();
+        assertEquals(1001, lines.size());
+        assertEquals(Thread.currentThread().getName(), threads.get(1000));
+        assertEquals(1000, pipeline.getQueuedCount());
+    }
+
+    @Test
+    public void dropsWhatTheFullBufferCantHold() throws Exception {
+
+        release = new CountDownLatch(1);
+        Logger logger = logger(4, FullPolicy.DROP);
+        logger.info().field("i", 0).log();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        // The slot of the event being written is only freed once it's written
+        for (int i = 1; i <= 10; i++) {
+            logger.info().field("i", i).log();
+        }
+        assertEquals(4, pipeline.getQueuedCount());
+        assertEquals(4, pipeline.getPendingCount());
+        assertEquals(7, pipeline.getDroppedCount());
+
+        release.countDown();
+        pipeline.close();
+        assertEquals(4, lines.size());
+        assertEquals(0, pipeline.getPendingCount());
+        assertEquals(7, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void waitsForTheConsumerWhenFull() throws Exception {
+
+        release = new CountDownLatch(1);
+        Logger logger = logger(2, FullPolicy.WAIT);
+        logger.info().field("i", 0).log();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        Thread producer = new Thread(() -> {
+            for (int i = 1; i <= 10; i++) {
+                logger.info().field("i", i).log();
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join(10_000);
+        assertFalse(producer.isAlive());
+        pipeline.close();
+        assertEquals(11, lines.size());
+        assertEquals(0, pipeline.getDroppedCount());
+    }
+
+    @Test
+    public void countsTheEventsThatFailAndGoesOn() {
+
+        Logger logger = logger(8, FullPolicy.WAIT);
+        Map<String, Object> cycle = new HashMap<>();
+        cycle.put("self", cycle);
+        logger.error().map("cycle", cycle).log();
+        logger.error().field("i", 1).log();
+        pipeline.close();
+
+        assertEquals(1, pipeline.getDroppedCount());
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("{\"i\":1,"));
+    }
+
+    @Test
+    public void queuesACopyOfMapsAndLists() {
+
+        release = new CountDownLatch(1);
+        Logger logger = logger(8, FullPolicy.WAIT);
+        logger.info().field("i", 0).log();
+
+        List<Object> list = new ArrayList<>();
+        list.add(1);
+        Map<String, Object> map = new HashMap<>();
+        map.put("a", 1);
+        logger.info().list("list", list).map("map", map).log();
+        list.add(2);
+        map.put("b", 2);
+
+        release.countDown();
+        pipeline.close();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(1), lines.get(1).startsWith("{\"list\":[1],\"map\":{\"a\":1},"));
+    }
+}
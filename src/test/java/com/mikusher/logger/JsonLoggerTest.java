@@ -0,0 +1,122 @@
+package com.mikusher.logger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.mikusher.logger.factory.Logger;
+import com.mikusher.parameter.ParameterMap;
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JsonLoggerTest {
+
+    private static final FastDateFormat FORMAT = FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss.SSSZ");
+
+    private final List<String> lines = new ArrayList<>();
+
+    private org.slf4j.Logger slf4jLogger() {
+
+        return (org.slf4j.Logger) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{org.slf4j.Logger.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getName")) {
+                        return "test";
+                    } else if (method.getName().startsWith("is")) {
+                        return true;
+                    } else if (method.getReturnType() == void.class && args != null && args.length == 1) {
+                        lines.add((String) args[0]);
+                    }
+                    return null;
+                });
+    }
+
+    private static void logEveryKindOfValue(Logger logger, Exception exception) {
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("text", "quote \" backslash \\ slash / tab \t line \n control \u0001 separator \u2028");
+        map.put("html", "<script>a = 'b' & c</script>");
+        map.put("unicode", "ação 日本 😀");
+        map.put("null", null);
+        map.put("list", Arrays.asList(1, 2L, -0.5d, 1.5f, null, "a", true));
+        ParameterMap nested = new ParameterMap();
+        nested.put("decimal", new BigDecimal("-12345678901234567890.0001"));
+        nested.put("empty", new ArrayList<>());
+        map.put("nested", nested);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("number", 1);
+        json.add("array", new JsonArray());
+
+        logger.info()
+                .message("message")
+                .field("int", Integer.MIN_VALUE)
+                .field("long", Long.MAX_VALUE)
+                .field("double", 0.1d)
+                .field("float", 1.25f)
+                .field("small", 1e-10d)
+                .field("large", 1e21d)
+                .field("boolean", false)
+                .field("char", 'c')
+                .field("date", new Date(1_700_000_000_000L))
+                .field("null", (Object) null)
+                .field("int", "the same key again")
+                .map("map", map)
+                .list("list", Arrays.asList(map, "b"))
+                .json("json", json)
+                .setString("string", "text")
+                .setInteger("integer", 42)
+                .exception("exception", exception)
+                .log();
+    }
+
+    @Test
+    public void streamingJsonMatchesTheJsonTree() {
+
+        Exception exception = new IllegalStateException("failed", new RuntimeException("cause"));
+        MDC.put("request", "r1");
+        try {
+            logEveryKindOfValue(new Logger(slf4jLogger(), FORMAT, true, false, false), exception);
+            logEveryKindOfValue(new Logger(slf4jLogger(), FORMAT, true, false, true), exception);
+        } finally {
+            MDC.remove("request");
+        }
+
+        assertEquals(2, lines.size());
+        String timestamp = "\"@timestamp\":\"[^\"]*\"";
+        assertEquals(lines.get(0).replaceAll(timestamp, ""), lines.get(1).replaceAll(timestamp, ""));
+    }
+
+    @Test
+    public void eventsLoggedWhileAnotherIsEncodedAreWrittenApart() {
+
+        Logger logger = new Logger(slf4jLogger(), FORMAT, false, false, true, CallerInfo.OFF);
+        Map<String, Object> logging = new LinkedHashMap<String, Object>() {
+            @Override
+            public Set<Map.Entry<String, Object>> entrySet() {
+                logger.info().field("inner", 2).log();
+                return super.entrySet();
+            }
+        };
+        logging.put("a", 1);
+
+        logger.info().field("outer", 1).map("map", logging).log();
+        logger.info().field("next", 3).log();
+
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("{\"inner\":2,\"level\":\"INFO\""));
+        assertTrue(lines.get(1), lines.get(1).startsWith("{\"outer\":1,\"map\":{\"a\":1},\"level\":\"INFO\""));
+        assertTrue(lines.get(2), lines.get(2).startsWith("{\"next\":3,\"level\":\"INFO\""));
+    }
+}
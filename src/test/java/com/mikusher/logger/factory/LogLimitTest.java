@@ -0,0 +1,84 @@
+package com.mikusher.logger.factory;
+
+import com.mikusher.logger.CallerInfo;
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogLimitTest {
+
+    private static int allowed(LogLimit limit, int events) {
+
+        int allowed = 0;
+        for (int i = 0; i < events; i++) {
+            if (limit.tryAcquire()) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+
+    @Test
+    public void limitsTheEvents() {
+
+        assertEquals(10, allowed(LogLimit.everyNth(10), 100));
+        assertEquals(100, allowed(LogLimit.withProbability(1), 100));
+        assertEquals(0, allowed(LogLimit.withProbability(0), 100));
+        assertEquals(5, allowed(LogLimit.perSecond(0.001, 5), 100));
+    }
+
+    @Test
+    public void slowRatesWithLargeBurstsLetTheirBurstThrough() {
+
+        // The burst would take longer than a long holds: it's cut to the events that fit in it
+        LogLimit limit = LogLimit.perSecond(1e-9, Integer.MAX_VALUE);
+        assertTrue(limit.tryAcquire());
+        int allowed = allowed(limit, 1000);
+        assertTrue(String.valueOf(allowed), allowed > 0 && allowed < 1000);
+        assertFalse(limit.tryAcquire());
+
+        assertEquals(1, allowed(LogLimit.perSecond(Double.MIN_VALUE, Integer.MAX_VALUE), 100));
+        assertEquals(1000, allowed(LogLimit.perSecond(1e12, Integer.MAX_VALUE), 1000));
+    }
+
+    @Test
+    public void summariesCarryTheCallSite() throws Exception {
+
+        List<String> lines = new ArrayList<>();
+        org.slf4j.Logger slf4jLogger = (org.slf4j.Logger) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{org.slf4j.Logger.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("getName")) {
+                        return "test";
+                    } else if (method.getName().startsWith("is")) {
+                        return true;
+                    } else if (method.getName().equals("warn")) {
+                        lines.add((String) args[0]);
+                    }
+                    return null;
+                });
+        Logger logger = new Logger(slf4jLogger, FastDateFormat.getInstance("yyyy-MM-dd HH:mm:ss.SSSZ"), false, false,
+                true, CallerInfo.CLASS_METHOD_LINE);
+
+        LogLimit limit = LogLimit.everyNth(3).withSummaryInterval(Duration.ofNanos(1));
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(1);
+            logger.warn(limit).field("i", i).log();
+        }
+
+        assertEquals(3, lines.size());
+        String caller = "\"class\":\"" + getClass().getName() + "\",\"method\":\"summariesCarryTheCallSite\"";
+        String summary = "{\"message\":\"Suppressed 2 log events over LogLimit[1 in 3]\"";
+        assertTrue(lines.get(1), lines.get(1).startsWith(summary));
+        for (String line : lines) {
+            assertTrue(line, line.contains(caller));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.mikusher.parameter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompactMapTest {
+
+    @Test
+    public void behavesAsAHashMap() {
+
+        Random random = new Random(3);
+        for (int round = 0; round < 200; round++) {
+            // Small maps stay linear, larger ones get a hash table
+            int keys = 1 + random.nextInt(CompactMap.LINEAR_THRESHOLD * 4);
+            CompactMap map = new CompactMap(random.nextInt(CompactMap.LINEAR_THRESHOLD * 2));
+            Map<String, Object> expected = new HashMap<>();
+
+            for (int i = 0; i < 500; i++) {
+                String key = "k" + random.nextInt(keys);
+                switch (random.nextInt(6)) {
+                    case 0:
+                        assertEquals(key, expected.remove(key), map.remove(key));
+                        break;
+                    case 1:
+                        int value = random.nextInt();
+                        expected.put(key, value);
+                        map.putPrimitive(key, CompactMap.INT, value);
+                        break;
+                    case 2:
+                        assertEquals(key, expected.put(key, null), map.put(key, null));
+                        break;
+                    default:
+                        assertEquals(key, expected.put(key, "v" + i), map.put(key, "v" + i));
+                        break;
+                }
+                assertEquals(expected.size(), map.size());
+                assertEquals(key, expected.containsKey(key), map.containsKey(key));
+                assertEquals(key, expected.get(key), map.get(key));
+            }
+
+            assertEquals(expected, map);
+            assertEquals(expected.keySet(), map.keySet());
+            assertEquals(new HashSet<>(expected.values()), new HashSet<>(map.values()));
+            assertEquals(expected.hashCode(), map.hashCode());
+
+            Map<String, Object> iterated = new HashMap<>();
+            map.forEach(iterated::put);
+            assertEquals(expected, iterated);
+
+            assertEquals(expected, map.copy(value -> value));
+        }
+    }
+
+    @Test
+    public void removesWhileIterating() {
+
+        for (int size : new int[]{3, CompactMap.LINEAR_THRESHOLD, CompactMap.LINEAR_THRESHOLD * 4}) {
+            CompactMap map = new CompactMap(0);
+            for (int i = 0; i < size; i++) {
+                map.put("k" + i, i);
+            }
+
+            // Every other entry through each of the views, the last one moving into the place of the removed one
+            List<String> seen = new ArrayList<>();
+            Iterator<Map.Entry<String, Object>> entries = map.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Object> entry = entries.next();
+                seen.add(entry.getKey());
+                if ((Integer) entry.getValue() % 2 == 0) {
+                    entries.remove();
+                }
+            }
+            assertEquals(size, seen.size());
+            assertEquals(size, new HashSet<>(seen).size());
+            assertEquals(size / 2, map.size());
+            for (int i = 0; i < size; i++) {
+                assertEquals(i % 2 == 1, map.containsKey("k" + i));
+            }
+
+            map.keySet().removeIf(key -> key.endsWith("1"));
+            map.values().removeIf(value -> (Integer) value % 3 == 0);
+            for (int i = 0; i < size; i++) {
+                boolean kept = i % 2 == 1 && i % 10 != 1 && i % 3 != 0;
+                assertEquals("k" + i, kept, map.containsKey("k" + i));
+                assertEquals("k" + i, kept ? i : null, map.get("k" + i));
+            }
+
+            map.entrySet().iterator().forEachRemaining(entry -> entry.setValue(-1));
+            assertTrue(map.values().stream().allMatch(value -> value.equals(-1)));
+
+            map.clear();
+            assertTrue(map.isEmpty());
+            assertFalse(map.entrySet().iterator().hasNext());
+            map.put("again", 1);
+            assertEquals(1, map.get("again"));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.mikusher.parameter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+
+public class FrozenParameterMapTest {
+
+    private static ParameterMap sample() throws Exception {
+
+        ParameterMap inner = new ParameterMap();
+        inner.setString("name", "inner");
+        inner.setDate("date", new Date(1_700_000_000_000L));
+
+        ParameterMap map = new ParameterMap();
+        map.setString("name", "root");
+        map.setInt("count", 1);
+        map.setMap("inner", inner);
+        map.setArray("list", new ArrayList<>(Arrays.asList("a", inner.clone())));
+        return map;
+    }
+
+    @Test
+    public void freezesEveryLevel() throws Exception {
+
+        ParameterMap source = sample();
+        ParameterMap expected = source.clone();
+        FrozenParameterMap frozen = source.freeze();
+
+        assertEquals(expected, frozen);
+        assertEquals(frozen, expected);
+        assertEquals(expected.hashCode(), frozen.hashCode());
+        assertEquals(frozen, FrozenParameterMap.of(expected));
+
+        assertThrows(UnsupportedOperationException.class, () -> frozen.setString("name", "changed"));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.remove("name"));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.keySet().remove("name"));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.getMap("inner").setString("name", "changed"));
+        assertThrows(UnsupportedOperationException.class, () -> frozen.getArray("list").add("b"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ((ParameterMap) frozen.getArray("list").get(1)).setString("name", "changed"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> frozen.getMap("inner").getDate("date").setTime(0));
+
+        // The snapshot doesn't follow the map it was taken from
+        source.getMap("inner").setString("name", "changed");
+        source.getArray("list").add("b");
+        assertEquals(expected, frozen);
+    }
+
+    @Test
+    public void clonesAreMutable() throws Exception {
+
+        FrozenParameterMap frozen = sample().freeze();
+        ParameterMap clone = frozen.clone();
+
+        clone.setString("name", "clone");
+        clone.getMap("inner").setString("name", "clone");
+        clone.getMap("inner").getDate("date").setTime(0);
+        clone.getArray("list").add("b");
+
+        assertEquals(sample(), frozen);
+        assertFalse(clone.equals(frozen));
+        assertEquals("clone", clone.getMap("inner").getString("name"));
+        assertEquals(new Date(0), clone.getMap("inner").getDate("date"));
+        assertEquals(Arrays.asList("a", sample().getMap("inner"), "b"), clone.getArray("list"));
+    }
+
+    @Test
+    public void copyOnWriteClonesAreMutable() throws Exception {
+
+        FrozenParameterMap frozen = sample().freeze();
+        ParameterMap clone = frozen.copyOnWriteClone();
+
+        clone.getMap("inner").setString("name", "clone");
+        clone.getDate("inner.date").setTime(0);
+        clone.getArray("list").add("b");
+        ((ParameterMap) clone.getArray("list").get(1)).setString("name", "clone");
+
+        assertEquals(sample(), frozen);
+        assertEquals("clone", clone.getString("inner.name"));
+        assertEquals(new Date(0), clone.getDate("inner.date"));
+        assertEquals(3, clone.getArray("list").size());
+        assertEquals("clone", ((ParameterMap) clone.getArray("list").get(1)).getString("name"));
+
+        // Whichever way the nested values are reached
+        ParameterMap other = frozen.copyOnWriteClone();
+        for (Object value : other.values()) {
+            assertFalse(String.valueOf(value), FrozenParameterMap.isFrozen(value));
+        }
+        ((ParameterMap) other.get("inner")).setString("name", "other");
+        assertEquals("other", other.getString("inner.name"));
+        assertEquals(sample(), frozen);
+    }
+}
@@ -0,0 +1,150 @@
+package com.mikusher.parameter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+
+public class ParameterMapTest {
+
+    private static ParameterMap sample() throws Exception {
+
+        ParameterMap inner = new ParameterMap();
+        inner.setString("name", "inner");
+        inner.setInt("count", 1);
+
+        ParameterMap nested = new ParameterMap();
+        nested.setMap("inner", inner);
+        nested.setArray("list", new ArrayList<>(Arrays.asList("a", "b")));
+
+        ParameterMap map = new ParameterMap();
+        map.setString("name", "root");
+        map.setLong("id", 7L);
+        map.setMap("nested", nested);
+        return map;
+    }
+
+    @Test
+    public void copyOnWriteClonesAreIsolated() throws Exception {
+
+        ParameterMap source = sample();
+        ParameterMap expected = source.clone();
+        ParameterMap clone = source.copyOnWriteClone();
+
+        clone.setString("name", "clone");
+        clone.getMap("nested").getMap("inner").setInt("count", 2);
+        clone.getMap("nested").getArray("list").add("c");
+        clone.getMap("nested").remove("inner");
+
+        assertEquals(expected, source);
+        assertEquals("clone", clone.getString("name"));
+        assertFalse(clone.getMap("nested").containsKey("inner"));
+        assertEquals(Arrays.asList("a", "b", "c"), clone.getMap("nested").getArray("list"));
+
+        // Written through the source once cloned, the clone keeps what it had
+        ParameterMap other = source.copyOnWriteClone();
+        source.getMap("nested").getMap("inner").setString("name", "changed");
+        source.setInt("added", 1);
+
+        assertEquals(expected, other);
+        assertEquals("changed", source.getMap("nested").getMap("inner").getString("name"));
+    }
+
+    @Test
+    public void clonesOfClonesAreIsolated() throws Exception {
+
+        ParameterMap source = sample();
+        ParameterMap expected = source.clone();
+        ParameterMap first = source.copyOnWriteClone();
+        ParameterMap second = first.copyOnWriteClone();
+
+        second.getMap("nested").getMap("inner").setString("name", "second");
+        first.getMap("nested").getMap("inner").setString("name", "first");
+
+        assertEquals(expected, source);
+        assertEquals("first", first.getMap("nested").getMap("inner").getString("name"));
+        assertEquals("second", second.getMap("nested").getMap("inner").getString("name"));
+        assertNotSame(first.getMap("nested"), second.getMap("nested"));
+    }
+
+    @Test
+    public void viewsOfTheSourceDontReachTheClone() throws Exception {
+
+        ParameterMap source = sample();
+        ParameterMap expected = source.clone();
+
+        ParameterMap clone = source.copyOnWriteClone();
+        ((ParameterMap) source.get("nested")).getArray("list").add("c");
+        assertEquals(expected, clone);
+
+        expected = source.clone();
+        clone = source.copyOnWriteClone();
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            if (entry.getValue() instanceof ParameterMap) {
+                ((ParameterMap) entry.getValue()).getMap("inner").setInt("count", 2);
+            }
+        }
+        source.values().removeIf(value -> value instanceof Long);
+        assertEquals(expected, clone);
+        assertEquals(2, source.getInt("nested.inner.count"));
+        assertFalse(source.containsKey("id"));
+    }
+
+    @Test
+    public void extendedMapsKeepTheirValues() throws Exception {
+
+        ParameterMap source = sample();
+        ParameterMap extended = ParameterMapUtils.extend(source);
+
+        source.getMap("nested").getMap("inner").setString("name", "changed");
+        assertEquals("inner", extended.getString("nested.inner.name"));
+
+        ParameterMap other = new ParameterMap();
+        other.setString("other", "value");
+        extended = ParameterMapUtils.extend(source, other);
+        source.getMap("nested").getArray("list").clear();
+        assertEquals(Arrays.asList("a", "b"), extended.getArray("nested.list"));
+        assertEquals("changed", extended.getString("nested.inner.name"));
+    }
+
+    @Test
+    public void sourceCanBeClonedByManyThreads() throws Exception {
+
+        ParameterMap source = sample();
+        ParameterMap expected = source.clone();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        ParameterMap clone = source.copyOnWriteClone();
+                        clone.getMap("nested").getMap("inner").setInt("count", thread);
+                        clone.getMap("nested").getArray("list").add(thread);
+                        assertEquals(thread, clone.getMap("nested").getMap("inner").getInt("count"));
+                        assertEquals(3, clone.getMap("nested").getArray("list").size());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(expected, source);
+    }
+}